@@ -0,0 +1,328 @@
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * @Project: Final_Project
+ * @file: AsyncIO.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Asynchronous file reads and writes.  SysLib.readAsync/writeAsync hand the request to a pool of kernel worker
+ * threads and return a completion handle at once, so one user thread can keep several file operations in flight
+ * and overlap them with its own work.  A handle is reaped with SysLib.aioPoll, which never blocks, or
+ * SysLib.aioWait, which waits for it; SysLib.aioWaitAny waits until any of several handles has completed.
+ *
+ * The workers call FileSystem.read/write exactly as the synchronous calls do, so an asynchronous request has the
+ * same result, moves the same seek pointer and goes through the same cache and journal.  Requests on one file
+ * table entry run one at a time in the order they were submitted, each starting at the seek pointer the previous
+ * one left, so a stream of writeAsync calls on one descriptor lays the data out as the same writes would.
+ * Requests on different entries run in parallel on up to workers threads.  The caller must not touch a buffer
+ * until its request completes, and closing a descriptor first waits for its requests to finish.
+ *
+ * A handle is an index into a table of maxRequests requests.  It belongs to the thread that submitted it, and only
+ * that thread may poll or wait on it.  It stays allocated until its result is reaped, or until its thread exits:
+ * the handles a thread leaves unreaped are freed on SysLib.exit, or, for a thread that ended without it, when a
+ * submit finds every handle in use.
+ */
+
+public class AsyncIO
+{
+    public final static int PENDING = -2;                   // aioPoll: the request has not completed yet
+    private final static int maxRequests = 64;              // handles that may be outstanding at once
+
+    private final FileSystem fileSystem;
+    private Request[] requests;             // handle to request, null when the handle is free
+    private Vector<Request> queue;          // requests ready to run, oldest first
+    // FileTableEntry to its unfinished requests, the head is queued or running
+    private Hashtable<FileTableEntry, Vector<Request>> chains;
+
+    private long submitted;                 // requests accepted
+    private long completed;                 // requests finished
+    private long rejected;                  // requests refused because every handle was in use
+    private int peak;                       // most requests outstanding at once
+
+    /**
+     * Request
+     * One asynchronous read or write and, once it has run, its result.
+     */
+    private static class Request
+    {
+        int handle;
+        Thread owner;                       // the submitting thread, null once it has exited
+        FileTableEntry entry;
+        boolean write;
+        byte[] buffer;
+        boolean done;
+        int result;
+    }
+
+    /**
+     * Worker
+     * Kernel thread that takes requests off the queue and performs them.
+     */
+    private class Worker extends Thread
+    {
+        public void run( )
+        {
+            while (true)
+            {
+                Request request = next();
+                if (request.write)
+                    request.result = fileSystem.write(request.entry, request.buffer);
+                else
+                    request.result = fileSystem.read(request.entry, request.buffer);
+                finish(request);
+            }
+        }
+    }
+
+    /**
+     * AsyncIO(FileSystem fileSystem, int workers)
+     * Overloaded constructor starts workers threads performing requests against fileSystem.
+     * @param fileSystem
+     * @param workers
+     */
+    public AsyncIO( FileSystem fileSystem, int workers )
+    {
+        this.fileSystem = fileSystem;
+        this.requests = new Request[maxRequests];
+        this.queue = new Vector<Request>( );
+        this.chains = new Hashtable<FileTableEntry, Vector<Request>>( );
+        for (int i = 0; i < workers; i++)
+        {
+            Worker worker = new Worker();
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * submit(FileTableEntry entry, boolean write, byte buffer[])
+     * Starts reading into or writing from buffer at the seek pointer of entry.  The request is queued right away
+     * unless an earlier request on the same entry is unfinished, in which case it runs after that one.
+     * @param entry
+     * @param write
+     * @param buffer
+     * @return int completion handle, -1 if every handle is in use
+     */
+    public synchronized int submit( FileTableEntry entry, boolean write, byte buffer[] )
+    {
+        int handle = free();
+        if (handle < 0)
+        {
+            for (int i = 0; i < maxRequests; i++)
+                if (requests[i] != null && requests[i].owner != null && !requests[i].owner.isAlive())
+                    release(requests[i]);
+            handle = free();
+        }
+        if (handle < 0)
+        {
+            rejected++;
+            return -1;
+        }
+
+        Request request = new Request();
+        request.handle = handle;
+        request.owner = Thread.currentThread();
+        request.entry = entry;
+        request.write = write;
+        request.buffer = buffer;
+        requests[handle] = request;
+
+        Vector<Request> chain = chains.get(entry);
+        if (chain == null)
+        {
+            chain = new Vector<Request>( );
+            chains.put(entry, chain);
+            queue.addElement(request);
+            notifyAll();
+        }
+        chain.addElement(request);
+
+        submitted++;
+        peak = Math.max(peak, (int) (submitted - completed));
+        return handle;
+    }
+
+    /**
+     * poll(int handle)
+     * Reaps a completed request without waiting.  The handle is free again once its result has been returned.
+     * @param handle
+     * @return int bytes read or written, -1 on error or a handle of another thread, PENDING if it has not completed
+     */
+    public synchronized int poll( int handle )
+    {
+        Request request = request(handle);
+        if (request == null)
+            return -1;
+        if (!request.done)
+            return PENDING;
+        requests[handle] = null;
+        return request.result;
+    }
+
+    /**
+     * await(int handle)
+     * Waits until a request completes and reaps it.
+     * @param handle
+     * @return int bytes read or written, -1 on error or a handle of another thread
+     */
+    public synchronized int await( int handle )
+    {
+        Request request = request(handle);
+        if (request == null)
+            return -1;
+        while (!request.done)
+            waitIO();
+        requests[handle] = null;
+        return request.result;
+    }
+
+    /**
+     * awaitAny(int handles[])
+     * Waits until at least one of the handles has completed.  Nothing is reaped; aioPoll or aioWait on the handle
+     * returns its result without waiting.
+     * @param handles
+     * @return int index in handles of a completed request, -1 if any handle is invalid, of another thread, or
+     * there are none
+     */
+    public synchronized int awaitAny( int handles[] )
+    {
+        if (handles == null || handles.length == 0)
+            return -1;
+        Request[] waited = new Request[handles.length];
+        for (int i = 0; i < handles.length; i++)
+        {
+            waited[i] = request(handles[i]);
+            if (waited[i] == null)
+                return -1;
+        }
+        while (true)
+        {
+            for (int i = 0; i < waited.length; i++)
+                if (waited[i].done)
+                    return i;
+            waitIO();
+        }
+    }
+
+    /**
+     * exit(Thread owner)
+     * Frees the handles owner has not reaped, as it exits.  A request still running keeps its handle until it
+     * completes.
+     * @param owner
+     */
+    public synchronized void exit( Thread owner )
+    {
+        for (int i = 0; i < maxRequests; i++)
+            if (requests[i] != null && requests[i].owner == owner)
+                release(requests[i]);
+    }
+
+    /**
+     * drain(FileTableEntry entry)
+     * Waits until every request on entry has finished, so the entry can be closed.
+     * @param entry
+     */
+    public synchronized void drain( FileTableEntry entry )
+    {
+        while (chains.containsKey(entry))
+            waitIO();
+    }
+
+    /**
+     * next()
+     * @return Request the oldest request ready to run, waiting for one if there is none
+     */
+    private synchronized Request next( )
+    {
+        while (queue.isEmpty())
+            waitIO();
+        return queue.remove(0);
+    }
+
+    /**
+     * finish(Request request)
+     * Marks a request completed, queues the next request on the same entry and wakes the waiting threads.
+     * @param request
+     */
+    private synchronized void finish( Request request )
+    {
+        request.done = true;
+        request.buffer = null;
+        if (request.owner == null)
+            requests[request.handle] = null;   // nobody is left to reap it
+        Vector<Request> chain = chains.get(request.entry);
+        chain.removeElementAt(0);
+        if (chain.isEmpty())
+            chains.remove(request.entry);
+        else
+            queue.addElement(chain.firstElement());
+        completed++;
+        notifyAll();
+    }
+
+    /**
+     * release(Request request)
+     * Gives up the request of a thread that has exited: its handle is freed now if it has completed, or else as
+     * soon as it does.
+     * @param request
+     */
+    private void release( Request request )
+    {
+        request.owner = null;
+        if (request.done)
+            requests[request.handle] = null;
+    }
+
+    /**
+     * free()
+     * @return int lowest free handle, -1 if every handle is in use
+     */
+    private int free( )
+    {
+        for (int handle = 0; handle < maxRequests; handle++)
+            if (requests[handle] == null)
+                return handle;
+        return -1;
+    }
+
+    /**
+     * request(int handle)
+     * @param handle
+     * @return Request outstanding under handle for the calling thread, null if the handle is out of range, free or
+     * owned by another thread
+     */
+    private Request request( int handle )
+    {
+        if (handle < 0 || handle >= maxRequests)
+            return null;
+        Request request = requests[handle];
+        if (request == null || request.owner != Thread.currentThread())
+            return null;
+        return request;
+    }
+
+    private void waitIO( )
+    {
+        try
+        {
+            wait();
+        }
+        catch (InterruptedException e)
+        {
+            SysLib.cerr(e.toString() + "\n");
+        }
+    }
+
+    /**
+     * toString()
+     * Reports the submitted, completed and rejected counters and the most requests outstanding at once.
+     * @return String counters of the asynchronous requests
+     */
+    public synchronized String toString( )
+    {
+        return "aio submitted=" + submitted + " completed=" + completed + " rejected=" + rejected
+                + " peak=" + peak;
+    }
+}
@@ -0,0 +1,344 @@
+import java.util.Arrays;
+
+/**
+ * @Project: Final_Project
+ * @file: BlockBitmap.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * The free-block bitmap records which disk blocks are in use, one bit per block (1 = used, 0 = free).  It is packed
+ * into the dedicated bitmap blocks that follow the inode blocks, starting at SuperBlock.bitmapStart(), so block b
+ * is bit (b % 8) of byte (b / 8) of the bitmap area.  The data region begins at SuperBlock.freeList.
+ *
+ * In memory the bitmap is kept as 64-bit words together with a summary level holding one bit per word that is set
+ * when the word is completely full.  Allocation is next-fit: it resumes from the word where the previous allocation
+ * was made and skips 64 full words per summary bit, so finding a free block costs about the same on a nearly full
+ * disk as on an empty one.  Changed bitmap blocks are tracked and only those are written back on sync(), through
+ * the journal.
+ *
+ * A freed block is not handed out again right away: it stays in use in memory, pending, until the journal
+ * transaction that freed it has committed and the file system calls release().  Otherwise a crash before the commit
+ * could leave the old file, which still owns the block on disk, pointing at another file's data.  The bitmap
+ * written to disk already shows pending blocks as free, so releasing them needs no further write.
+ */
+
+public class BlockBitmap
+{
+    private final static int bitsPerWord = 64;
+    private final static int bitsPerBlock = Disk.blockSize * 8;
+    private final static int wordsPerBlock = Disk.blockSize / 8;
+
+    private final int totalBlocks;                  // blocks on the disk
+    private final int bitmapStart;                  // first block of the bitmap on disk
+    private final int freeList;                     // first data block, right after the bitmap
+    private final int journalStart;                 // first journal block, the end of the data blocks
+    private long[] words;                           // one bit per disk block, 1 = used
+    private long[] fullWords;                       // one bit per entry of words, 1 = word has no free bit
+    private long[] pendingWords;                    // one bit per disk block, 1 = freed but not released
+    private int[] pending;                          // pending block numbers, in the order they were freed
+    private int pendingCount;                       // entries of pending in use
+    private boolean[] dirty;                        // bitmap blocks changed since the last sync
+    private int cursor;                             // word where the next search starts
+    private int freeBlocks;                         // number of free data blocks
+
+    /**
+     * BlockBitmap(int totalBlocks, int bitmapStart, int freeList, int journalStart)
+     * Overloaded constructor sizes the bitmap for a disk laid out as the superblock describes it: the bitmap takes
+     * the blocks from bitmapStart up to freeList, and the data blocks run from freeList up to journalStart.  The
+     * bitmap starts empty, call load() to read it from disk.
+     * @param totalBlocks
+     * @param bitmapStart
+     * @param freeList
+     * @param journalStart
+     */
+    public BlockBitmap( int totalBlocks, int bitmapStart, int freeList, int journalStart )
+    {
+        this.totalBlocks = totalBlocks;
+        this.bitmapStart = bitmapStart;
+        this.freeList = freeList;
+        this.journalStart = journalStart;
+        int totalWords = (totalBlocks + bitsPerWord - 1) / bitsPerWord;
+        words = new long[totalWords];
+        fullWords = new long[(totalWords + bitsPerWord - 1) / bitsPerWord];
+        pendingWords = new long[totalWords];
+        pending = new int[64];
+        dirty = new boolean[freeList - bitmapStart];
+        cursor = freeList / bitsPerWord;
+    }
+
+    /**
+     * load()
+     * Reads the bitmap blocks from disk and rebuilds the summary level.  The superblock, inode and bitmap blocks,
+     * the journal, and the padding bits past the end of the disk, are always marked used.
+     */
+    public synchronized void load( )
+    {
+        byte[] data = new byte[Disk.blockSize];
+        for (int i = 0; i < dirty.length; i++)
+        {
+            SysLib.cread(bitmapStart + i, data);
+            for (int w = 0; w < wordsPerBlock; w++)
+            {
+                int word = i * wordsPerBlock + w;
+                if (word >= words.length)
+                    break;
+                long bits = 0;
+                for (int b = 0; b < 8; b++)
+                {
+                    bits |= (data[w * 8 + b] & 0xffL) << (8 * b);
+                }
+                words[word] = bits;
+            }
+            dirty[i] = false;
+        }
+        for (int i = 0; i < freeList; i++)
+        {
+            setUsed(i);
+        }
+        for (int i = journalStart; i < totalBlocks; i++)
+        {
+            setUsed(i);
+        }
+        for (int i = totalBlocks; i < words.length * bitsPerWord; i++)
+        {
+            words[i / bitsPerWord] |= 1L << (i % bitsPerWord);
+        }
+        freeBlocks = 0;
+        for (int i = 0; i < words.length; i++)
+        {
+            freeBlocks += Long.bitCount(~words[i]);
+            updateSummary(i);
+        }
+        // summary bits past the last word are marked full so the search never lands on them
+        for (int i = words.length; i < fullWords.length * bitsPerWord; i++)
+        {
+            fullWords[i / bitsPerWord] |= 1L << (i % bitsPerWord);
+        }
+    }
+
+    /**
+     * sync()
+     * Writes every bitmap block changed since the last sync into the cache as part of the running journal
+     * transaction.  Pending blocks are written as free.
+     */
+    public synchronized void sync( )
+    {
+        byte[] data = new byte[Disk.blockSize];
+        for (int i = 0; i < dirty.length; i++)
+        {
+            if (!dirty[i])
+                continue;
+            for (int w = 0; w < wordsPerBlock; w++)
+            {
+                int word = i * wordsPerBlock + w;
+                long bits = (word < words.length) ? words[word] & ~pendingWords[word] : 0;
+                for (int b = 0; b < 8; b++)
+                {
+                    data[w * 8 + b] = (byte) (bits >>> (8 * b));
+                }
+            }
+            Kernel.journal.write(bitmapStart + i, data);
+            dirty[i] = false;
+        }
+    }
+
+    /**
+     * allocate()
+     * Finds a free block starting at the next-fit cursor, marks it used and returns it.
+     * @return int block number, -1 if the disk is full
+     */
+    public synchronized int allocate( )
+    {
+        int start = cursor / bitsPerWord;
+        for (int s = 0; s < fullWords.length; s++)
+        {
+            int summary = (start + s) % fullWords.length;
+            long open = ~fullWords[summary];
+            // on the first summary word only consider words at or after the cursor
+            if (s == 0)
+                open &= -1L << (cursor % bitsPerWord);
+            if (open != 0)
+            {
+                int word = summary * bitsPerWord + Long.numberOfTrailingZeros(open);
+                return takeFrom(word);
+            }
+        }
+        // wrap around to the words before the cursor in its own summary word
+        long open = ~fullWords[start] & ~(-1L << (cursor % bitsPerWord));
+        if (open != 0)
+            return takeFrom(start * bitsPerWord + Long.numberOfTrailingZeros(open));
+        return -1;
+    }
+
+    /**
+     * allocateAt(int block, int want)
+     * Allocates up to want blocks starting exactly at block, stopping at the first block that is already in use.
+     * Used to grow an extent in place.
+     * @param block
+     * @param want
+     * @return int number of blocks allocated, 0 if block itself is not free
+     */
+    public synchronized int allocateAt( int block, int want )
+    {
+        int count = 0;
+        while (count < want && block + count < journalStart && block + count >= freeList
+                && isFree(block + count))
+        {
+            setUsed(block + count);
+            freeBlocks--;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * allocateRun(int want, int[] run)
+     * Allocates a run of contiguous blocks: the first free block found next-fit, extended with the blocks that
+     * follow it for as long as they are free, up to want blocks.
+     * @param want
+     * @param run receives the first block in run[0] and the number of blocks in run[1]
+     * @return true if at least one block was allocated, false if the disk is full
+     */
+    public synchronized boolean allocateRun( int want, int[] run )
+    {
+        int start = allocate();
+        if (start < 0)
+            return false;
+        run[0] = start;
+        run[1] = 1 + allocateAt(start + 1, want - 1);
+        return true;
+    }
+
+    /**
+     * free(int block)
+     * Marks a data block free again.  It stays pending, and is not allocated, until release().  Reserved blocks,
+     * blocks outside the data region and blocks already free or pending are ignored.
+     * @param block
+     * @return true if the block was in use and is now pending, else false
+     */
+    public synchronized boolean free( int block )
+    {
+        if (block < freeList || block >= journalStart || isFree(block))
+            return false;
+        long bit = 1L << (block % bitsPerWord);
+        if ((pendingWords[block / bitsPerWord] & bit) != 0)
+            return false;
+        pendingWords[block / bitsPerWord] |= bit;
+        if (pendingCount == pending.length)
+            pending = Arrays.copyOf(pending, pending.length * 2);
+        pending[pendingCount++] = block;
+        dirty[block / bitsPerBlock] = true;
+        return true;
+    }
+
+    /**
+     * free(int[] blocks, int count)
+     * Marks the first count blocks of the array free under a single lock acquisition, so reclaiming a whole file
+     * costs one bitmap update rather than one per block.
+     * @param blocks
+     * @param count
+     * @return int number of blocks actually freed
+     */
+    public synchronized int free( int[] blocks, int count )
+    {
+        int freed = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (free(blocks[i]))
+                freed++;
+        }
+        return freed;
+    }
+
+    /**
+     * pendingMark()
+     * @return int number of blocks freed so far and not released, to be passed to release() once the transaction
+     *             that freed them has committed
+     */
+    public synchronized int pendingMark( )
+    {
+        return pendingCount;
+    }
+
+    /**
+     * release(int mark)
+     * Makes the first mark pending blocks free for allocation.
+     * @param mark as returned by pendingMark() before the commit
+     * @return int number of blocks released
+     */
+    public synchronized int release( int mark )
+    {
+        int count = Math.min(mark, pendingCount);
+        for (int i = 0; i < count; i++)
+        {
+            int block = pending[i];
+            long bit = 1L << (block % bitsPerWord);
+            words[block / bitsPerWord] &= ~bit;
+            pendingWords[block / bitsPerWord] &= ~bit;
+            updateSummary(block / bitsPerWord);
+        }
+        pendingCount -= count;
+        System.arraycopy(pending, count, pending, 0, pendingCount);
+        freeBlocks += count;
+        return count;
+    }
+
+    /**
+     * isFree(int block)
+     * @param block
+     * @return true if block is not in use
+     */
+    public synchronized boolean isFree( int block )
+    {
+        return (words[block / bitsPerWord] & (1L << (block % bitsPerWord))) == 0;
+    }
+
+    /**
+     * freeBlocks()
+     * @return int number of free data blocks
+     */
+    public synchronized int freeBlocks( )
+    {
+        return freeBlocks;
+    }
+
+    /**
+     * takeFrom(int word)
+     * Allocates the lowest free bit of a word known to have one and moves the cursor to that word.
+     * @param word
+     * @return int allocated block number
+     */
+    private int takeFrom( int word )
+    {
+        int block = word * bitsPerWord + Long.numberOfTrailingZeros(~words[word]);
+        setUsed(block);
+        cursor = word;
+        freeBlocks--;
+        return block;
+    }
+
+    /**
+     * setUsed(int block)
+     * Sets the bit for block, keeping the summary and dirty flags current.
+     * @param block
+     */
+    private void setUsed( int block )
+    {
+        words[block / bitsPerWord] |= 1L << (block % bitsPerWord);
+        updateSummary(block / bitsPerWord);
+        dirty[block / bitsPerBlock] = true;
+    }
+
+    /**
+     * updateSummary(int word)
+     * Sets or clears the summary bit for word depending on whether it is full.
+     * @param word
+     */
+    private void updateSummary( int word )
+    {
+        if (words[word] == -1L)
+            fullWords[word / bitsPerWord] |= 1L << (word % bitsPerWord);
+        else
+            fullWords[word / bitsPerWord] &= ~(1L << (word % bitsPerWord));
+    }
+}
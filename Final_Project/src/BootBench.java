@@ -0,0 +1,88 @@
+/**
+ * @Project: Final_Project
+ * @file: BootBench.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Startup benchmark for the file system.  It formats the disk, creates a few files and syncs, then times building
+ * the file system the way Kernel BOOT does, from a cold (flushed) cache:
+ *      mount: the superblock is recognized and the existing files, bitmap and directory are loaded
+ *      format: the superblock is wiped first, so boot has to format the disk, which is what every boot used to do
+ * The mounted file system is checked to still hold the files.  The disk is formatted again when done, so run it on
+ * a disk whose contents can be thrown away.
+ *
+ * Run from the ThreadOS shell:  l BootBench [rounds]
+ */
+
+public class BootBench extends Thread
+{
+    private final static int diskBlocks = 1000;
+    private final static int files = 8;
+    private final static int inodes = 64;       // as many as boot gives a blank disk
+    private final int rounds;
+
+    public BootBench( String args[] )
+    {
+        rounds = Integer.parseInt(args[0]);
+    }
+
+    public BootBench( )
+    {
+        rounds = 3;
+    }
+
+    public void run( )
+    {
+        SysLib.format(inodes);
+        byte[] data = new byte[4 * Disk.blockSize];
+        for (int i = 0; i < files; i++)
+        {
+            int fd = SysLib.open("boot" + i, "w");
+            SysLib.write(fd, data);
+            SysLib.close(fd);
+        }
+        SysLib.sync();
+
+        long mount = 0;
+        for (int i = 0; i < rounds; i++)
+        {
+            SysLib.flush();
+            long start = System.currentTimeMillis();
+            FileSystem fileSystem = new FileSystem(diskBlocks);
+            mount += System.currentTimeMillis() - start;
+            if (!check(fileSystem))
+                SysLib.cout("mount lost files\n");
+        }
+
+        long format = 0;
+        for (int i = 0; i < rounds; i++)
+        {
+            SysLib.cwrite(0, new byte[Disk.blockSize]);
+            SysLib.flush();
+            long start = System.currentTimeMillis();
+            new FileSystem(diskBlocks);
+            format += System.currentTimeMillis() - start;
+        }
+
+        // the kernel's file system no longer matches the disk, start over from a clean format
+        SysLib.format(inodes);
+        SysLib.cout("boot by mount:  " + mount / rounds + " ms\n");
+        SysLib.cout("boot by format: " + format / rounds + " ms\n");
+        SysLib.exit();
+    }
+
+    private boolean check( FileSystem fileSystem )
+    {
+        for (int i = 0; i < files; i++)
+        {
+            FileTableEntry entry = fileSystem.open("boot" + i, "r");
+            if (entry == null)
+                return false;
+            int size = fileSystem.fsize(entry);
+            fileSystem.close(entry);
+            if (size != 4 * Disk.blockSize)
+                return false;
+        }
+        return true;
+    }
+}
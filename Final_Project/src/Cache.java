@@ -0,0 +1,796 @@
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * @Project: Final_Project
+ * @file: Cache.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Write-back disk block cache shared by the file system.  The cache holds a fixed number of block-sized pages and
+ * replaces them with the second-chance (clock) algorithm:
+ *      frame: the disk block number cached in this page, -1 if the page is empty
+ *      reference: set on every access, cleared as the victim pointer sweeps past
+ *      dirty: set on write, the page is written back to disk only when it is evicted, synced or flushed
+ *      pinned: metadata written through the Journal and not committed yet, the page is never written back
+ *      metadata: the page holds metadata written through the Journal, until it is written back
+ *
+ * Every block the file system touches (superblock, inode blocks, indirect index blocks and data blocks) goes
+ * through this cache by way of SysLib.cread/cwrite, so a small SysLib.write only costs a disk operation when the
+ * page is evicted.  Hit, miss and write-back counters are kept so the behavior can be reported on SYNC.
+ *
+ * Large transfers use readv()/writev() instead: blocks already cached are served from (or updated in) their pages,
+ * and all the others move to or from disk in a single vectored request without being cached, so streaming a big
+ * file neither pays one disk round-trip per block nor flushes the small working set out of the cache.
+ *
+ * Read-ahead: prefetch() queues a list of blocks for the cache's own ReadAhead thread, which reads the ones not yet
+ * cached in a single vectored request and installs them with their reference bit set, so they survive one sweep of
+ * the clock hand while the reader catches up with them.  Blocks are tracked while in flight, and one written to
+ * disk in the meantime is not installed, so a prefetch never brings back stale data.  A read of a block that is in
+ * flight waits for it rather than reading it a second time.  Prefetched pages that are later read count as
+ * read-ahead hits, those evicted or overwritten unread count as waste.
+ *
+ * Journal support: writePinned() pins a metadata page until the Journal commits it and calls unpin().  The clock
+ * hand skips pinned pages; if every page is pinned the cache grows by one page rather than break the write-ahead
+ * rule, and shrinks back to its size once pages are unpinned.  syncData() writes back only non-metadata pages, the
+ * ordered-mode step before a commit, and syncMetadata() writes back the committed metadata for a checkpoint.
+ */
+
+public class Cache
+{
+    private int blockSize;                          // size of each cached page
+    private int diskBlocks;                         // blocks on the disk, the first invalid blockId
+    private Vector<byte[]> pages;                   // the cached block contents
+    private int victim;                             // clock hand for second-chance replacement
+    private Entry[] pageTable = null;               // page descriptors, indexed like pages
+    private int capacity;                           // number of pages the cache shrinks back to
+
+    private long hits;                              // reads or writes that found their block cached
+    private long misses;                            // reads or writes that had to claim a page
+    private long writeBacks;                        // dirty pages written to disk
+    private long vectored;                          // blocks moved by readv/writev without being cached
+
+    private Vector<int[]> prefetchQueue;            // block lists waiting for the read-ahead thread
+    private Hashtable<Integer, Integer> inFlight;   // blocks being prefetched, dropped when written meanwhile
+    private final static int maxQueued = 4;         // prefetch requests beyond this are ignored
+    private long readAheads;                        // blocks installed by read-ahead
+    private long readAheadHits;                     // prefetched pages read before eviction
+    private long readAheadWaste;                    // prefetched pages evicted or overwritten unread
+
+    private int[] scratchIndexes = new int[0];      // working arrays of readv/writev, see scratchIndexes()
+    private int[] scratchBlocks = new int[0];
+    private byte[] scratchData = new byte[0];
+    private int[] loadBlocks = new int[0];          // working arrays of the read-ahead thread, see load()
+    private byte[] loadData = new byte[0];
+
+    /**
+     * Entry
+     * Page table entry describing one cached page.
+     */
+    private class Entry
+    {
+        public static final int INVALID = -1;
+        public boolean reference;
+        public boolean dirty;
+        public boolean prefetched;                  // installed by read-ahead and not read yet
+        public boolean pinned;                      // uncommitted journal metadata, never written back
+        public boolean metadata;                    // journal metadata not written back yet
+        public int frame;
+
+        public Entry( )
+        {
+            reference = false;
+            dirty = false;
+            prefetched = false;
+            pinned = false;
+            metadata = false;
+            frame = INVALID;
+        }
+    }
+
+    /**
+     * ReadAhead
+     * Background thread that serves the prefetch queue, so the thread asking for read-ahead never waits on it.
+     */
+    private class ReadAhead extends Thread
+    {
+        public void run( )
+        {
+            while (true)
+            {
+                int[] blocks;
+                synchronized (prefetchQueue)
+                {
+                    while (prefetchQueue.isEmpty())
+                    {
+                        try
+                        {
+                            prefetchQueue.wait();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            return;
+                        }
+                    }
+                    blocks = prefetchQueue.remove(0);
+                }
+                load(blocks);
+            }
+        }
+    }
+
+    /**
+     * Cache(int blockSize, int cacheBlocks, int diskBlocks)
+     * Overloaded constructor allocates cacheBlocks pages of blockSize bytes, all of them initially empty, for a
+     * disk of diskBlocks blocks.
+     * @param blockSize
+     * @param cacheBlocks
+     * @param diskBlocks
+     */
+    public Cache( int blockSize, int cacheBlocks, int diskBlocks )
+    {
+        this.blockSize = blockSize;
+        this.diskBlocks = diskBlocks;
+        pages = new Vector<byte[]>( );
+        for (int i = 0; i < cacheBlocks; i++)
+        {
+            byte[] page = new byte[blockSize];
+            pages.addElement(page);
+        }
+        victim = cacheBlocks - 1;
+        capacity = cacheBlocks;
+        pageTable = new Entry[cacheBlocks];
+        for (int i = 0; i < cacheBlocks; i++)
+        {
+            pageTable[i] = new Entry();
+        }
+        prefetchQueue = new Vector<int[]>( );
+        inFlight = new Hashtable<Integer, Integer>( );
+        ReadAhead readAhead = new ReadAhead();
+        readAhead.setDaemon(true);
+        readAhead.start();
+    }
+
+    /**
+     * findPage(int blockId)
+     * Returns the page currently caching blockId, or -1 if the block is not cached.
+     * @param blockId
+     * @return int page number, -1 if not found
+     */
+    private int findPage( int blockId )
+    {
+        for (int i = 0; i < pageTable.length; i++)
+        {
+            if (pageTable[i].frame == blockId)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * validBlock(int blockId)
+     * @param blockId
+     * @return true if blockId is a block of the disk
+     */
+    private boolean validBlock( int blockId )
+    {
+        return blockId >= 0 && blockId < diskBlocks;
+    }
+
+    /**
+     * findFreePage()
+     * Returns the first empty page, or -1 if every page is in use.
+     * @return int page number, -1 if none free
+     */
+    private int findFreePage( )
+    {
+        return findPage(Entry.INVALID);
+    }
+
+    /**
+     * nextVictim()
+     * Advances the clock hand until it finds a page whose reference bit is clear, clearing reference bits on the
+     * way.  Pinned pages are skipped; when two sweeps find nothing but pinned pages, a new page is added.
+     * @return int page number of the victim
+     */
+    private int nextVictim( )
+    {
+        for (int i = 0; i < 2 * pageTable.length; i++)
+        {
+            victim = (victim + 1) % pageTable.length;
+            if (pageTable[victim].pinned)
+                continue;
+            if (!pageTable[victim].reference)
+                return victim;
+            pageTable[victim].reference = false;
+        }
+        return addPage();
+    }
+
+    /**
+     * addPage()
+     * Grows the cache by one empty page.
+     * @return int page number of the new page
+     */
+    private int addPage( )
+    {
+        Entry[] grown = new Entry[pageTable.length + 1];
+        System.arraycopy(pageTable, 0, grown, 0, pageTable.length);
+        grown[pageTable.length] = new Entry();
+        pageTable = grown;
+        pages.addElement(new byte[blockSize]);
+        return pageTable.length - 1;
+    }
+
+    /**
+     * shrink()
+     * Drops unpinned pages, writing them back first, until the cache is back to its capacity.
+     */
+    private void shrink( )
+    {
+        for (int i = pageTable.length - 1; i >= 0 && pageTable.length > capacity; i--)
+        {
+            if (pageTable[i].pinned)
+                continue;
+            writeBack(i);
+            if (pageTable[i].prefetched)
+                readAheadWaste++;
+            Entry[] shrunk = new Entry[pageTable.length - 1];
+            System.arraycopy(pageTable, 0, shrunk, 0, i);
+            System.arraycopy(pageTable, i + 1, shrunk, i, pageTable.length - i - 1);
+            pageTable = shrunk;
+            pages.removeElementAt(i);
+        }
+        victim = victim % pageTable.length;
+    }
+
+    /**
+     * writeBack(int victimEntry)
+     * Writes the page back to disk if it holds a dirty block.
+     * @param victimEntry
+     */
+    private void writeBack( int victimEntry )
+    {
+        if (pageTable[victimEntry].frame != Entry.INVALID && pageTable[victimEntry].dirty
+                && !pageTable[victimEntry].pinned)
+        {
+            byte[] page = pages.elementAt(victimEntry);
+            if (!inFlight.isEmpty())
+                inFlight.remove(Integer.valueOf(pageTable[victimEntry].frame));
+            SysLib.rawwrite(pageTable[victimEntry].frame, page);
+            pageTable[victimEntry].dirty = false;
+            pageTable[victimEntry].metadata = false;
+            writeBacks++;
+        }
+    }
+
+    /**
+     * claimPage(int blockId)
+     * Finds a page for a block that is not cached, evicting (and writing back) a victim if the cache is full.
+     * @param blockId
+     * @return int page number now assigned to blockId
+     */
+    private int claimPage( int blockId )
+    {
+        int page = findFreePage();
+        if (page == -1)
+        {
+            page = nextVictim();
+            writeBack(page);
+            if (pageTable[page].prefetched)
+                readAheadWaste++;
+        }
+        pageTable[page].frame = blockId;
+        pageTable[page].dirty = false;
+        pageTable[page].prefetched = false;
+        pageTable[page].metadata = false;
+        return page;
+    }
+
+    /**
+     * touch(int page, boolean reading)
+     * Marks a page referenced and settles its read-ahead accounting on the first access after it was prefetched.
+     * @param page
+     * @param reading true for a read, which makes the prefetch a hit; a write makes it waste
+     */
+    private void touch( int page, boolean reading )
+    {
+        if (pageTable[page].prefetched)
+        {
+            if (reading)
+                readAheadHits++;
+            else
+                readAheadWaste++;
+            pageTable[page].prefetched = false;
+        }
+        pageTable[page].reference = true;
+    }
+
+    /**
+     * awaitPrefetch(int blockId)
+     * Waits while blockId is being read by the read-ahead thread, so the caller picks up the prefetched page
+     * instead of reading the block a second time.  Must be called holding the cache.
+     * @param blockId
+     */
+    private void awaitPrefetch( int blockId )
+    {
+        while (!inFlight.isEmpty() && findPage(blockId) == -1 && inFlight.containsKey(Integer.valueOf(blockId)))
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * read(int blockId, byte buffer[])
+     * Copies blockId into buffer, reading it from disk first if it is not cached.
+     * @param blockId
+     * @param buffer
+     * @return true upon success, false if blockId is invalid or the disk could not read it
+     */
+    public synchronized boolean read( int blockId, byte buffer[] )
+    {
+        if (!validBlock(blockId))
+            return false;
+
+        awaitPrefetch(blockId);
+        int page = findPage(blockId);
+        if (page != -1)
+        {
+            hits++;
+        }
+        else
+        {
+            misses++;
+            page = claimPage(blockId);
+            if (SysLib.rawread(blockId, pages.elementAt(page)) == Kernel.ERROR)
+            {
+                pageTable[page].frame = Entry.INVALID;      // the page holds no block, hand it out again
+                return false;
+            }
+        }
+        System.arraycopy(pages.elementAt(page), 0, buffer, 0, blockSize);
+        touch(page, true);
+        return true;
+    }
+
+    /**
+     * write(int blockId, byte buffer[])
+     * Copies buffer into the page caching blockId and marks it dirty.  The disk is not touched until the page is
+     * evicted, synced or flushed.
+     * @param blockId
+     * @param buffer
+     * @return true upon success, false if blockId is invalid
+     */
+    public synchronized boolean write( int blockId, byte buffer[] )
+    {
+        if (!validBlock(blockId))
+            return false;
+
+        int page = findPage(blockId);
+        if (page != -1)
+        {
+            hits++;
+        }
+        else
+        {
+            misses++;
+            page = claimPage(blockId);
+        }
+        System.arraycopy(buffer, 0, pages.elementAt(page), 0, blockSize);
+        pageTable[page].dirty = true;
+        pageTable[page].metadata = false;
+        touch(page, false);
+        return true;
+    }
+
+    /**
+     * readv(int blockIds[], int count, byte buffer[])
+     * Copies the first count blocks of blockIds into buffer, the i-th one at i * blockSize.  Cached blocks are
+     * copied from their pages (so unsynced writes are seen), the rest are read from disk in one vectored request,
+     * straight into buffer when none of them is cached.
+     * @param blockIds
+     * @param count
+     * @param buffer
+     * @return true upon success, false if a blockId or count is invalid or the disk could not read the blocks
+     */
+    public synchronized boolean readv( int blockIds[], int count, byte buffer[] )
+    {
+        if (count < 0 || count > blockIds.length)
+            return false;
+        // wait for blocks being prefetched before taking the scratch arrays: waiting lets go of the cache, and
+        // another readv or writev would take them meanwhile
+        for (int i = 0; i < count; i++)
+        {
+            if (!validBlock(blockIds[i]))
+                return false;
+            awaitPrefetch(blockIds[i]);
+        }
+        int[] missing = scratchIndexes(count);
+        int absent = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int page = findPage(blockIds[i]);
+            if (page != -1)
+            {
+                hits++;
+                System.arraycopy(pages.elementAt(page), 0, buffer, i * blockSize, blockSize);
+                touch(page, true);
+            }
+            else
+            {
+                missing[absent++] = i;
+            }
+        }
+        if (absent == 0)
+            return true;
+
+        if (absent == count)
+        {
+            if (SysLib.rawreadv(blockIds, count, buffer) == Kernel.ERROR)
+                return false;
+        }
+        else
+        {
+            int[] blocks = scratchBlocks(absent);
+            for (int i = 0; i < absent; i++)
+                blocks[i] = blockIds[missing[i]];
+            byte[] data = scratchData(absent);
+            if (SysLib.rawreadv(blocks, absent, data) == Kernel.ERROR)
+                return false;
+            for (int i = 0; i < absent; i++)
+                System.arraycopy(data, i * blockSize, buffer, missing[i] * blockSize, blockSize);
+        }
+        vectored += absent;
+        return true;
+    }
+
+    /**
+     * writev(int blockIds[], int count, byte buffer[])
+     * Writes buffer to the first count blocks of blockIds, the bytes at i * blockSize to the i-th one.  Cached
+     * blocks are updated in their pages and marked dirty, the rest are written to disk in one vectored request,
+     * straight from buffer when none of them is cached.
+     * @param blockIds
+     * @param count
+     * @param buffer
+     * @return true upon success, false if a blockId or count is invalid
+     */
+    public synchronized boolean writev( int blockIds[], int count, byte buffer[] )
+    {
+        if (count < 0 || count > blockIds.length)
+            return false;
+        for (int i = 0; i < count; i++)
+        {
+            if (!validBlock(blockIds[i]))
+                return false;                       // before any page is changed
+        }
+        int[] missing = scratchIndexes(count);
+        int absent = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int page = findPage(blockIds[i]);
+            if (page != -1)
+            {
+                hits++;
+                System.arraycopy(buffer, i * blockSize, pages.elementAt(page), 0, blockSize);
+                pageTable[page].dirty = true;
+                touch(page, false);
+            }
+            else
+            {
+                if (!inFlight.isEmpty())
+                    inFlight.remove(Integer.valueOf(blockIds[i]));
+                missing[absent++] = i;
+            }
+        }
+        if (absent == 0)
+            return true;
+
+        if (absent == count)
+        {
+            SysLib.rawwritev(blockIds, count, buffer);
+        }
+        else
+        {
+            int[] blocks = scratchBlocks(absent);
+            byte[] data = scratchData(absent);
+            for (int i = 0; i < absent; i++)
+            {
+                blocks[i] = blockIds[missing[i]];
+                System.arraycopy(buffer, missing[i] * blockSize, data, i * blockSize, blockSize);
+            }
+            SysLib.rawwritev(blocks, absent, data);
+        }
+        vectored += absent;
+        return true;
+    }
+
+    /**
+     * scratchIndexes(int count), scratchBlocks(int count), scratchData(int count)
+     * Working arrays of readv()/writev(), kept between calls and grown when a request needs more, so a vectored
+     * transfer allocates nothing.  They are only used holding the cache, from the time they are taken to the end
+     * of the call with no wait() in between, and the disk is done with them when the raw request made with them
+     * returns.
+     * @param count blocks the array must cover
+     * @return the array, at least that long
+     */
+    private int[] scratchIndexes( int count )
+    {
+        if (scratchIndexes.length < count)
+            scratchIndexes = new int[count];
+        return scratchIndexes;
+    }
+
+    private int[] scratchBlocks( int count )
+    {
+        if (scratchBlocks.length < count)
+            scratchBlocks = new int[count];
+        return scratchBlocks;
+    }
+
+    private byte[] scratchData( int count )
+    {
+        if (scratchData.length < count * blockSize)
+            scratchData = new byte[count * blockSize];
+        return scratchData;
+    }
+
+    /**
+     * prefetch(int blockIds[])
+     * Asks the read-ahead thread to bring blockIds into the cache and returns at once.  At most prefetchLimit()
+     * blocks are taken from one request, and requests arriving while the queue is full are dropped since read-ahead
+     * is only a hint.
+     * @param blockIds
+     * @return int number of blocks queued, the first ones of blockIds, 0 if the request was dropped
+     */
+    public int prefetch( int blockIds[] )
+    {
+        return prefetch(blockIds, blockIds.length);
+    }
+
+    /**
+     * prefetch(int blockIds[], int count)
+     * Same as prefetch(blockIds) for the first count entries of blockIds only, so a caller can pass a reused array.
+     * The blocks are copied before returning.
+     * @param blockIds
+     * @param count
+     * @return int number of blocks queued, the first ones of blockIds, 0 if the request was dropped
+     */
+    public int prefetch( int blockIds[], int count )
+    {
+        if (blockIds == null || count <= 0 || count > blockIds.length)
+            return 0;
+        count = Math.min(count, prefetchLimit());
+        int[] blocks = new int[count];
+        System.arraycopy(blockIds, 0, blocks, 0, count);
+        synchronized (prefetchQueue)
+        {
+            if (prefetchQueue.size() >= maxQueued)
+                return 0;
+            prefetchQueue.addElement(blocks);
+            prefetchQueue.notify();
+        }
+        return count;
+    }
+
+    /**
+     * prefetchLimit()
+     * Half of the cache's pages, so read-ahead cannot push the whole working set out: 5 blocks with the default 10
+     * page cache.  Pages the cache grew by while every page was pinned do not count.
+     * @return int most blocks one prefetch request brings in
+     */
+    public int prefetchLimit( )
+    {
+        return Math.max(1, capacity / 2);
+    }
+
+    /**
+     * load(int blockIds[])
+     * Runs on the read-ahead thread.  Reads the blocks that are neither cached nor already in flight with one
+     * vectored request, made without holding the cache so other threads are not held up, then installs those that
+     * were not cached or written in the meantime.  Its working arrays belong to the read-ahead thread.
+     * @param blockIds
+     */
+    private void load( int blockIds[] )
+    {
+        if (loadBlocks.length < blockIds.length)
+        {
+            loadBlocks = new int[blockIds.length];
+            loadData = new byte[blockIds.length * blockSize];
+        }
+        int[] blocks = loadBlocks;
+        int count = 0;
+        synchronized (this)
+        {
+            for (int i = 0; i < blockIds.length; i++)
+            {
+                Integer block = Integer.valueOf(blockIds[i]);
+                if (validBlock(blockIds[i]) && findPage(blockIds[i]) == -1 && !inFlight.containsKey(block))
+                {
+                    inFlight.put(block, block);
+                    blocks[count++] = blockIds[i];
+                }
+            }
+        }
+        if (count == 0)
+            return;
+
+        byte[] data = loadData;
+        SysLib.rawreadv(blocks, count, data);
+
+        synchronized (this)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                if (inFlight.remove(Integer.valueOf(blocks[i])) == null || findPage(blocks[i]) != -1)
+                    continue;
+                int page = claimPage(blocks[i]);
+                System.arraycopy(data, i * blockSize, pages.elementAt(page), 0, blockSize);
+                pageTable[page].prefetched = true;
+                pageTable[page].reference = true;
+                readAheads++;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * writePinned(int blockId, byte buffer[])
+     * Writes a metadata block like write(), and pins its page until the Journal commits it.
+     * @param blockId
+     * @param buffer
+     * @return true upon success, false if blockId is invalid
+     */
+    public synchronized boolean writePinned( int blockId, byte buffer[] )
+    {
+        if (!write(blockId, buffer))
+            return false;
+        int page = findPage(blockId);
+        pageTable[page].pinned = true;
+        pageTable[page].metadata = true;
+        return true;
+    }
+
+    /**
+     * pinnedCount()
+     * @return int number of pinned pages
+     */
+    public synchronized int pinnedCount( )
+    {
+        int count = 0;
+        for (int i = 0; i < pageTable.length; i++)
+        {
+            if (pageTable[i].pinned)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * overCapacity()
+     * @return true if pinned pages made the cache grow past its size
+     */
+    public synchronized boolean overCapacity( )
+    {
+        return pageTable.length > capacity;
+    }
+
+    /**
+     * pinnedBlocks()
+     * @return int[] block numbers of the pinned pages
+     */
+    public synchronized int[] pinnedBlocks( )
+    {
+        int[] blocks = new int[pinnedCount()];
+        int count = 0;
+        for (int i = 0; i < pageTable.length; i++)
+        {
+            if (pageTable[i].pinned)
+                blocks[count++] = pageTable[i].frame;
+        }
+        return blocks;
+    }
+
+    /**
+     * pinnedImages(int blockIds[])
+     * @param blockIds blocks as returned by pinnedBlocks()
+     * @return byte[] copy of their pages, the i-th at i * blockSize
+     */
+    public synchronized byte[] pinnedImages( int blockIds[] )
+    {
+        byte[] images = new byte[blockIds.length * blockSize];
+        for (int i = 0; i < blockIds.length; i++)
+            System.arraycopy(pages.elementAt(findPage(blockIds[i])), 0, images, i * blockSize, blockSize);
+        return images;
+    }
+
+    /**
+     * unpin(int blockIds[])
+     * Releases committed pages: they stay dirty and are written back like any other page from now on.  A cache
+     * that grew while pages were pinned shrinks back to its size.
+     * @param blockIds
+     */
+    public synchronized void unpin( int blockIds[] )
+    {
+        for (int i = 0; i < blockIds.length; i++)
+        {
+            int page = findPage(blockIds[i]);
+            if (page != -1)
+                pageTable[page].pinned = false;
+        }
+        if (pageTable.length > capacity)
+            shrink();
+    }
+
+    /**
+     * syncData()
+     * Writes back every dirty page that does not hold journal metadata.
+     */
+    public synchronized void syncData( )
+    {
+        for (int i = 0; i < pageTable.length; i++)
+        {
+            if (!pageTable[i].metadata)
+                writeBack(i);
+        }
+    }
+
+    /**
+     * syncMetadata()
+     * Writes back every dirty page holding committed journal metadata.
+     */
+    public synchronized void syncMetadata( )
+    {
+        for (int i = 0; i < pageTable.length; i++)
+        {
+            if (pageTable[i].metadata)
+                writeBack(i);
+        }
+    }
+
+    /**
+     * sync()
+     * Writes every dirty page back to disk, keeping the pages cached.  Pinned pages wait for their commit.
+     */
+    public synchronized void sync( )
+    {
+        for (int i = 0; i < pageTable.length; i++)
+            writeBack(i);
+    }
+
+    /**
+     * flush()
+     * Writes every dirty page back to disk and invalidates the whole cache, except pinned pages.
+     */
+    public synchronized void flush( )
+    {
+        for (int i = 0; i < pageTable.length; i++)
+        {
+            if (pageTable[i].pinned)
+                continue;
+            writeBack(i);
+            if (pageTable[i].prefetched)
+                readAheadWaste++;
+            pageTable[i].prefetched = false;
+            pageTable[i].reference = false;
+            pageTable[i].frame = Entry.INVALID;
+        }
+    }
+
+    /**
+     * toString()
+     * Reports the hit, miss, write-back, vectored and read-ahead counters.
+     * @return String counters of this cache
+     */
+    public synchronized String toString( )
+    {
+        return "cache hits=" + hits + " misses=" + misses + " writebacks=" + writeBacks + " vectored=" + vectored
+                + " readahead=" + readAheads + " readahead hits=" + readAheadHits + " waste=" + readAheadWaste;
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @Project: Final_Project
+ * @file: DentryCache.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Directory entry cache used by path resolution.  It maps a (directory iNumber, name) pair to the iNumber the name
+ * resolves to in that subdirectory, so opening a deep path again does not read the entry blocks of every directory
+ * on the way.  Names that were looked up and not found are cached too, as negative entries holding -1, so repeated
+ * misses, such as an open that is about to create the file, are just as cheap.  Names compare ignoring case, like
+ * the root directory's.
+ *
+ * The cache holds at most capacity entries and evicts the least recently used one.  The file system keeps it
+ * current: every entry it adds or removes in a subdirectory is put here as well.  The root directory has its own
+ * in-memory index and is not cached.
+ */
+
+public class DentryCache
+{
+    public final static int UNKNOWN = -2;           // get(): nothing is cached for the name
+
+    private final int capacity;
+    private LinkedHashMap<Key, Short> entries;      // Key to iNumber, -1 if negative, in LRU order
+
+    private long hits;                              // lookups answered with an iNumber
+    private long negativeHits;                      // lookups answered with "does not exist"
+    private long misses;                            // lookups that had to read the directory
+    private long evictions;                         // entries dropped to stay within capacity
+
+    /**
+     * Key
+     * A (directory iNumber, name) pair.  The name hashes and compares ignoring case as it is, so a lookup neither
+     * builds a string nor lowercases the name.
+     */
+    private static class Key
+    {
+        final short dir;
+        final String name;
+        final int hash;
+
+        Key( short dir, String name )
+        {
+            this.dir = dir;
+            this.name = name;
+            int h = dir;
+            for (int i = 0; i < name.length(); i++)
+                h = 31 * h + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+            this.hash = h;
+        }
+
+        public int hashCode( )
+        {
+            return hash;
+        }
+
+        public boolean equals( Object other )
+        {
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return key.dir == dir && key.hash == hash && key.name.equalsIgnoreCase(name);
+        }
+    }
+
+    /**
+     * DentryCache(int capacity)
+     * Overloaded constructor creates an empty cache of up to capacity entries.
+     * @param capacity
+     */
+    public DentryCache( int capacity )
+    {
+        this.capacity = capacity;
+        entries = new LinkedHashMap<Key, Short>(capacity * 2, 0.75f, true)
+        {
+            protected boolean removeEldestEntry( Map.Entry<Key, Short> eldest )
+            {
+                if (size() <= DentryCache.this.capacity)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * get(short dir, String name)
+     * @param dir iNumber of the directory
+     * @param name
+     * @return int iNumber of name in dir, -1 if it is known not to exist, UNKNOWN if it is not cached
+     */
+    public synchronized int get( short dir, String name )
+    {
+        Short iNumber = entries.get(new Key(dir, name));
+        if (iNumber == null)
+        {
+            misses++;
+            return UNKNOWN;
+        }
+        if (iNumber.shortValue() < 0)
+            negativeHits++;
+        else
+            hits++;
+        return iNumber.shortValue();
+    }
+
+    /**
+     * put(short dir, String name, short iNumber)
+     * Records what name resolves to in dir, -1 for a name that does not exist.
+     * @param dir
+     * @param name
+     * @param iNumber
+     */
+    public synchronized void put( short dir, String name, short iNumber )
+    {
+        entries.put(new Key(dir, name), Short.valueOf(iNumber < 0 ? -1 : iNumber));
+    }
+
+    /**
+     * toString()
+     * Reports the hit, negative hit, miss and eviction counters and the hit rate.
+     * @return String counters of this cache
+     */
+    public synchronized String toString( )
+    {
+        long lookups = hits + negativeHits + misses;
+        long rate = (lookups == 0) ? 0 : (100 * (hits + negativeHits)) / lookups;
+        return "dentry cache entries=" + entries.size() + " hits=" + hits + " negative hits=" + negativeHits
+                + " misses=" + misses + " evictions=" + evictions + " hit rate=" + rate + "%";
+    }
+}
@@ -1,3 +1,7 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Hashtable;
+import java.util.Vector;
+
 /**
  * @Project: ${PACKAGE_NAME}
  * @file: ${FILE_NAME}
@@ -22,12 +26,40 @@
 
 /**
  * Directory class
+ *
+ * Besides the on-disk arrays the directory keeps two in-memory indexes so open() does not scan every slot:
+ *      nameIndex: a hash index from file name to iNumber (names compare ignoring case, as namei always has)
+ *      freeSlots: a stack of unused iNumbers, popped by iAlloc and pushed by iFree
+ * Both are kept in sync by iAlloc/iFree and rebuilt by bytes2directory.  The directory is its own lock, so
+ * FileTable and FileSystem can look names up without holding any other lock.
+ *
+ * On disk the directory file holds the fileSize array (4 bytes per slot) followed by the names (2 * maxChars bytes
+ * per slot, in UTF-8, so a name may have at most maxChars chars and 2 * maxChars bytes; see validName).  iAlloc and
+ * iFree mark the blocks of the directory file that hold the changed slot dirty, and sync writes only those, each
+ * serialized by blockBytes straight into the block buffer.
+ *
+ * Directories nest.  Since every used inode has a slot here, the root directory is also the inode allocator: a
+ * slot's size word holds the name length in its low bits and two flags above it:
+ *      DIRECTORY: the inode is a directory
+ *      NESTED: the name belongs to a subdirectory, not to the root, so it is not in the name index
+ * A subdirectory is a file of entrySize byte entries, each an int iNumber (0 = unused) and the name in 2 * maxChars
+ * bytes, laid out the same way as the names here; putEntry, entryINumber and entryName read and write them.
  */
 public class Directory
 {
     private static int maxChars = 30; // max characters of each file name
+    public final static int DIRECTORY = 0x40000000;    // slot flag, the inode is a directory
+    public final static int NESTED = 0x20000000;       // slot flag, the name is in a subdirectory
+    public final static int entrySize = 4 + 2 * maxChars;  // bytes per entry of a subdirectory file
+    private final static int lengthMask = 0xffff;      // name length bits of a size word
     private int fileSize[];
+    private int flags[];              // DIRECTORY and NESTED flags of each slot
     private char fileName[][];
+    private Hashtable<String, Short> nameIndex;   // lower-cased file name to iNumber
+    private int freeSlots[];          // stack of unused iNumbers, lowest on top
+    private int freeTop;              // number of iNumbers on the freeSlots stack
+    private boolean dirty[];          // blocks of the directory file changed since they were last written
+    private byte slotBytes[];         // scratch for encoding one name
 
     /**
      * Directory( int maxInumber )
@@ -43,9 +75,42 @@ public class Directory
         for ( int i = 0; i < maxInumber; i++ )
             fileSize[i] = 0;
         fileName = new char[maxInumber][maxChars];
+        flags = new int[maxInumber];
         String root = "/";
         fileSize[0] = root.length( );
+        flags[0] = DIRECTORY;
         root.getChars( 0, fileSize[0], fileName[0], 0 );
+        freeSlots = new int[maxInumber];
+        dirty = new boolean[(byteSize() + Disk.blockSize - 1) / Disk.blockSize];
+        slotBytes = new byte[2 * maxChars];
+        rebuildIndex();
+        markAll(true);
+    }
+
+    /**
+     * byteSize()
+     * @return int size of the directory file in bytes
+     */
+    public int byteSize( )
+    {
+        return fileName.length * (4 + 2 * maxChars);
+    }
+
+    /**
+     * rebuildIndex()
+     * Rebuilds the name index and the free-slot stack from the fileSize and fileName arrays.
+     */
+    private void rebuildIndex( )
+    {
+        nameIndex = new Hashtable<String, Short>(fileName.length * 2);
+        freeTop = 0;
+        for (int i = fileName.length - 1; i >= 0; i--)
+        {
+            if (fileSize[i] > 0 && (flags[i] & NESTED) == 0)
+                nameIndex.put(new String(fileName[i], 0, fileSize[i]).toLowerCase(), Short.valueOf((short) i));
+            else if (fileSize[i] == 0 && i > 0)
+                freeSlots[freeTop++] = i;
+        }
     }
 
     /**
@@ -54,21 +119,30 @@ public class Directory
      * @param byteData
      * @return int returns 0 upon success
      */
-    public int bytes2directory( byte byteData[] )
+    public synchronized int bytes2directory( byte byteData[] )
     {
         int set = 0;
         for (int i = 0; i < fileName.length; i++)
         {
             set = i * 4;
-            fileSize[i] = SysLib.bytes2int(byteData, set);
+            int word = SysLib.bytes2int(byteData, set);
+            fileSize[i] = word & lengthMask;
+            flags[i] = word & ~lengthMask;
         }
         set += 4;
         for (int i = 0; i < fileName.length; i++)
         {
-            String name = new String(byteData, set + (i * (2 * maxChars)), 2 * maxChars);
+            int start = set + (i * (2 * maxChars));
+            int length = 0;
+            while (length < 2 * maxChars && byteData[start + length] != 0)
+                length++;
+            String name = new String(byteData, start, length, StandardCharsets.UTF_8);
+            // a name stored cut short keeps its length, so the slot stays in use, with '?' for the chars lost
             for (int j = 0; j < fileSize[i]; j++)
-                fileName[i][j] = name.charAt(j);
+                fileName[i][j] = (j < name.length()) ? name.charAt(j) : '?';
         }
+        rebuildIndex();
+        markAll(false);
         return 0;
     }
 
@@ -79,43 +153,252 @@ public class Directory
      * note: only meaning ful directory information should be converted into bytes
      * @return byte[] array of byte data that is the directory
      */
-    public byte[] directory2bytes( )
+    public synchronized byte[] directory2bytes( )
     {
-        byte[] directoryBytes = new byte[(4 * fileName.length) + (fileName.length * (2 * maxChars))];
-        int offset = 0;
-        for (int i = 0; i < fileName.length; i++)
+        byte[] directoryBytes = new byte[byteSize()];
+        serialize(0, directoryBytes, directoryBytes.length);
+        return directoryBytes;
+    }
+
+    /**
+     * blockBytes( int block, byte buffer[] )
+     * Serializes one block of the directory file into buffer if it changed since it was last written, and marks
+     * it clean.
+     * @param block block number within the directory file
+     * @param buffer Disk.blockSize bytes
+     * @return boolean true if the block was dirty and buffer now holds it, else false
+     */
+    public synchronized boolean blockBytes( int block, byte buffer[] )
+    {
+        if (block < 0 || block >= dirty.length || !dirty[block])
+            return false;
+        int length = Math.min(Disk.blockSize, byteSize() - block * Disk.blockSize);
+        serialize(block * Disk.blockSize, buffer, length);
+        for (int i = length; i < buffer.length; i++)
+            buffer[i] = 0;
+        dirty[block] = false;
+        return true;
+    }
+
+    /**
+     * markAll( boolean changed )
+     * Marks every block of the directory file dirty, or clean once the whole file has been written.
+     * @param changed
+     */
+    public synchronized void markAll( boolean changed )
+    {
+        for (int i = 0; i < dirty.length; i++)
+            dirty[i] = changed;
+    }
+
+    /**
+     * serialize( int from, byte buffer[], int length )
+     * Writes length bytes of the directory file, starting at byte from, into buffer.  Names are encoded directly
+     * from the fileName arrays, in UTF-8 like String.getBytes, and padded with zeros to 2 * maxChars bytes.
+     * @param from
+     * @param buffer
+     * @param length
+     */
+    private void serialize( int from, byte buffer[], int length )
+    {
+        int to = from + length;
+        int names = 4 * fileName.length;
+        // fileSize array, every int that overlaps the range
+        for (int i = Math.max(0, from / 4); i < fileName.length && i * 4 < to; i++)
         {
-            SysLib.int2bytes(fileSize[i], directoryBytes, offset);
-            offset += 4;
+            for (int b = 0; b < 4; b++)
+            {
+                int at = i * 4 + b;
+                if (at >= from && at < to)
+                    buffer[at - from] = (byte) ((fileSize[i] | flags[i]) >>> (24 - 8 * b));
+            }
         }
-        for (int i = 0; i < fileName.length; i++)
+        // names, every slot that overlaps the range
+        int slotSize = 2 * maxChars;
+        for (int i = Math.max(0, (from - names) / slotSize); i < fileName.length && names + i * slotSize < to; i++)
         {
-            String theName = new String(fileName[i], 0, fileSize[i]);
-            byte[] nameHolder = theName.getBytes();
-            System.arraycopy(nameHolder, 0, directoryBytes, offset, nameHolder.length);
-            offset += (maxChars * 2);
+            int start = names + i * slotSize;
+            if (start + slotSize <= from)
+                continue;
+            encodeName(fileName[i], fileSize[i], slotBytes, 0);
+            int first = Math.max(start, from);
+            int last = Math.min(start + slotSize, to);
+            System.arraycopy(slotBytes, first - start, buffer, first - from, last - first);
         }
-        return directoryBytes;
     }
 
     /**
-     * The name is the filename of a file to be created. Allocates a new inode number for this filename
+     * encodeName( char name[], int length, byte buffer[], int offset )
+     * Encodes the first length chars of name into the 2 * maxChars bytes of buffer at offset as UTF-8, zero padded.
+     * Encoding stops at the first char that does not fit, so a name too long for the slot is cut short rather than
+     * stored with chars missing from its middle; validName keeps such names out.
      * @param name
-     * @return short returns inode number associated with filename upon success, else 0 is failure
+     * @param length
+     * @param buffer
+     * @param offset
      */
-    public short iAlloc( String name )
+    private static void encodeName( char name[], int length, byte buffer[], int offset )
     {
-        for (int i = 0; i < fileName.length; i++) {
-            if (fileSize[i] == 0) {
-                fileSize[i] = name.length();
-                for (int j = 0; j < fileSize[i]; j++)
-                {
-                    fileName[i][j] = name.charAt(j);
-                }
-                return (short)i;
+        int n = offset;
+        int end = offset + 2 * maxChars;
+        for (int j = 0; j < length; j++)
+        {
+            char c = name[j];
+            int bytes = charBytes(c, (j + 1 < length) ? name[j + 1] : 0);
+            if (bytes < 0 || n + bytes > end)
+                break;
+            if (bytes == 1)
+                buffer[n++] = (byte) c;
+            else if (bytes == 2)
+            {
+                buffer[n++] = (byte) (0xc0 | (c >> 6));
+                buffer[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (bytes == 3)
+            {
+                buffer[n++] = (byte) (0xe0 | (c >> 12));
+                buffer[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else
+            {
+                int code = Character.toCodePoint(c, name[++j]);
+                buffer[n++] = (byte) (0xf0 | (code >> 18));
+                buffer[n++] = (byte) (0x80 | ((code >> 12) & 0x3f));
+                buffer[n++] = (byte) (0x80 | ((code >> 6) & 0x3f));
+                buffer[n++] = (byte) (0x80 | (code & 0x3f));
             }
         }
-        return 0;
+        while (n < end)
+            buffer[n++] = 0;
+    }
+
+    /**
+     * charBytes( char c, char next )
+     * @param c
+     * @param next the char after c, 0 if there is none
+     * @return int UTF-8 bytes of c, 4 for c and next together if they are a surrogate pair, -1 for a lone surrogate
+     */
+    private static int charBytes( char c, char next )
+    {
+        if (c < 0x80)
+            return 1;
+        if (c < 0x800)
+            return 2;
+        if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next))
+            return 4;
+        if (Character.isSurrogate(c))
+            return -1;
+        return 3;
+    }
+
+    /**
+     * validName( String name )
+     * @param name
+     * @return boolean true if name can be stored in a slot or an entry: not empty, without "/", at most maxChars
+     * chars and at most 2 * maxChars bytes in UTF-8, and without a lone surrogate
+     */
+    public static boolean validName( String name )
+    {
+        if (name.length() == 0 || name.length() > maxChars || name.indexOf('/') >= 0)
+            return false;
+        int bytes = 0;
+        for (int j = 0; j < name.length(); j++)
+        {
+            int size = charBytes(name.charAt(j), (j + 1 < name.length()) ? name.charAt(j + 1) : 0);
+            if (size < 0)
+                return false;
+            if (size == 4)
+                j++;
+            bytes += size;
+        }
+        return bytes <= 2 * maxChars;
+    }
+
+    /**
+     * putEntry( byte buffer[], int offset, short iNumber, String name )
+     * Stores a subdirectory entry at offset, or clears it if iNumber is 0.
+     * @param buffer
+     * @param offset
+     * @param iNumber
+     * @param name
+     */
+    public static void putEntry( byte buffer[], int offset, short iNumber, String name )
+    {
+        SysLib.int2bytes(iNumber, buffer, offset);
+        char[] chars = name.toCharArray();
+        encodeName(chars, (iNumber == 0) ? 0 : chars.length, buffer, offset + 4);
+    }
+
+    /**
+     * entryINumber( byte buffer[], int offset )
+     * @param buffer
+     * @param offset
+     * @return short iNumber of the subdirectory entry at offset, 0 if the entry is unused
+     */
+    public static short entryINumber( byte buffer[], int offset )
+    {
+        return (short) SysLib.bytes2int(buffer, offset);
+    }
+
+    /**
+     * entryName( byte buffer[], int offset )
+     * @param buffer
+     * @param offset
+     * @return String name of the subdirectory entry at offset, decoded from UTF-8 as encodeName wrote it
+     */
+    public static String entryName( byte buffer[], int offset )
+    {
+        int length = 0;
+        while (length < 2 * maxChars && buffer[offset + 4 + length] != 0)
+            length++;
+        return new String(buffer, offset + 4, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * markSlot( int slot )
+     * Marks the blocks holding the size and the name of slot dirty.
+     * @param slot
+     */
+    private void markSlot( int slot )
+    {
+        int name = 4 * fileName.length + slot * 2 * maxChars;
+        dirty[slot * 4 / Disk.blockSize] = true;
+        dirty[name / Disk.blockSize] = true;
+        dirty[(name + 2 * maxChars - 1) / Disk.blockSize] = true;
+    }
+
+    /**
+     * The name is the filename of a file to be created. Allocates a new inode number for this filename by popping
+     * the free-slot stack
+     * @param name
+     * @return short returns inode number associated with filename upon success, else 0 is failure
+     */
+    public synchronized short iAlloc( String name )
+    {
+        return iAlloc(name, 0);
+    }
+
+    /**
+     * iAlloc( String name, int kind )
+     * Allocates a new inode number like iAlloc(name), for a directory if kind has DIRECTORY, and for a name kept in
+     * a subdirectory rather than in the root if kind has NESTED.
+     * @param name
+     * @param kind DIRECTORY and NESTED flags
+     * @return short inode number upon success, else 0 if the directory is full or the name is invalid
+     */
+    public synchronized short iAlloc( String name, int kind )
+    {
+        if (freeTop == 0 || !validName(name))
+            return 0;
+        int i = freeSlots[--freeTop];
+        fileSize[i] = name.length();
+        flags[i] = kind & (DIRECTORY | NESTED);
+        name.getChars(0, fileSize[i], fileName[i], 0);
+        if ((flags[i] & NESTED) == 0)
+            nameIndex.put(name.toLowerCase(), Short.valueOf((short) i));
+        markSlot(i);
+        return (short)i;
     }
 
     /**
@@ -124,39 +407,69 @@ public class Directory
      * @param iNumber
      * @return boolean True is inode freed, else false is failure
      */
-    public boolean iFree( short iNumber )
+    public synchronized boolean iFree( short iNumber )
     {
-        if (iNumber > fileSize.length || iNumber < 0 || fileSize[iNumber] == 0)
+        if (iNumber >= fileSize.length || iNumber <= 0 || fileSize[iNumber] == 0)
         {
             return false;
         }
         else
         {
+            if ((flags[iNumber] & NESTED) == 0)
+                nameIndex.remove(new String(fileName[iNumber], 0, fileSize[iNumber]).toLowerCase());
+            freeSlots[freeTop++] = iNumber;
             fileSize[iNumber] = 0;
+            flags[iNumber] = 0;
             fileName[iNumber][0] = '0';
             for (int i = 0; i < maxChars; i++)
             {
                 fileName[iNumber][i] = '0';
             }
+            markSlot(iNumber);
             return true;
         }
     }
 
     /**
      * namei(String name)
-     * returns the inumber corresponding to this filename
+     * returns the inumber corresponding to this filename, looked up in the name index
      * @param name
-     * @return
+     * @return short inumber, -1 if the name is not in the directory
      */
-    public short namei( String name )
+    public synchronized short namei( String name )
     {
-        for (short i = 0; i < fileName.length; i++) {
-            String testedName = new String(fileName[i], 0, fileSize[i]);
-            if (fileSize[i] > 0 && name.equalsIgnoreCase(testedName))
-            {
-                return i;
-            }
+        Short iNumber = nameIndex.get(name.toLowerCase());
+        return (iNumber == null) ? -1 : iNumber.shortValue();
+    }
+
+    /**
+     * isDirectory( short iNumber )
+     * @param iNumber
+     * @return boolean true if iNumber is in use and is a directory, the root included
+     */
+    public synchronized boolean isDirectory( short iNumber )
+    {
+        return iNumber >= 0 && iNumber < fileSize.length && fileSize[iNumber] > 0
+                && (flags[iNumber] & DIRECTORY) != 0;
+    }
+
+    /**
+     * list( Vector<String> names )
+     * Adds the name of every file and directory in the root to names, directories with a trailing "/".
+     * @param names
+     * @return int number of names added
+     */
+    public synchronized int list( Vector<String> names )
+    {
+        int count = 0;
+        for (int i = 1; i < fileSize.length; i++)
+        {
+            if (fileSize[i] == 0 || (flags[i] & NESTED) != 0)
+                continue;
+            String name = new String(fileName[i], 0, fileSize[i]);
+            names.addElement(((flags[i] & DIRECTORY) != 0) ? name + "/" : name);
+            count++;
         }
-        return -1;
+        return count;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+/**
+ * @Project: Final_Project
+ * @file: DirectoryBench.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Microbenchmark for the Directory lookups done on every open().  For directories of 64 up to 4096 inodes it fills
+ * every slot, then times namei() hits, namei() misses and iFree()/iAlloc() pairs.  With the hash index and free-slot
+ * stack the time per operation should stay flat as the number of inodes grows.
+ *
+ * Run from the ThreadOS shell:  l DirectoryBench [rounds]
+ */
+
+public class DirectoryBench extends Thread
+{
+    private final static int[] sizes = { 64, 256, 1024, 2048, 4096 };
+    private final int rounds;
+
+    public DirectoryBench( String args[] )
+    {
+        rounds = Integer.parseInt(args[0]);
+    }
+
+    public DirectoryBench( )
+    {
+        rounds = 200000;
+    }
+
+    public void run( )
+    {
+        SysLib.cout("inodes    namei hit ns    namei miss ns    iFree+iAlloc ns\n");
+        for (int s = 0; s < sizes.length; s++)
+        {
+            int inodes = sizes[s];
+            Directory directory = new Directory(inodes);
+            String[] names = new String[inodes];
+            for (int i = 1; i < inodes; i++)
+            {
+                names[i] = "file" + i;
+                directory.iAlloc(names[i]);
+            }
+
+            // warm up, then measure
+            lookup(directory, names, rounds);
+            long hit = lookup(directory, names, rounds);
+            long miss = miss(directory, rounds);
+            long churn = churn(directory, names, rounds);
+
+            SysLib.cout(pad(inodes, 6) + pad(hit, 16) + pad(miss, 17) + pad(churn, 19) + "\n");
+        }
+        SysLib.exit();
+    }
+
+    private long lookup( Directory directory, String[] names, int count )
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+        {
+            if (directory.namei(names[1 + i % (names.length - 1)]) < 0)
+                SysLib.cout("lookup failed\n");
+        }
+        return (System.nanoTime() - start) / count;
+    }
+
+    private long miss( Directory directory, int count )
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+        {
+            if (directory.namei("missing") >= 0)
+                SysLib.cout("lookup should have missed\n");
+        }
+        return (System.nanoTime() - start) / count;
+    }
+
+    private long churn( Directory directory, String[] names, int count )
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+        {
+            short iNumber = directory.namei(names[1 + i % (names.length - 1)]);
+            directory.iFree(iNumber);
+            directory.iAlloc(names[1 + i % (names.length - 1)]);
+        }
+        return (System.nanoTime() - start) / count;
+    }
+
+    private String pad( long value, int width )
+    {
+        String text = Long.toString(value);
+        while (text.length() < width)
+            text = " " + text;
+        return text;
+    }
+}
@@ -0,0 +1,493 @@
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * @Project: Final_Project
+ * @file: Disk.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * The simulated disk.  It runs as its own thread and keeps the whole disk image in memory, loaded from and synced
+ * to the "DISK" file.  A request is handed over with read()/write()/sync() (or the vectored readv()/writev()),
+ * which only succeed while the disk is idle and its previous result has been collected; the disk thread then seeks,
+ * performs the transfer and raises a disk interrupt, after which the requesting thread collects the result with
+ * testAndResetReady().
+ *
+ * Seeking costs transferTime plus delayPerTrack for every track (trackSize blocks) between the current and the
+ * target block.  A vectored request pays that once for its first block; every following block that is the next
+ * block on disk only pays for the tracks it crosses, so a run of consecutive blocks costs one handshake and about
+ * one seek instead of one of each per block.
+ *
+ * Other backends extend this class and keep its request protocol: they replace the protected seek(), transfer()
+ * and persist() steps and may perform each request right away in the requesting thread (synchronous()), in which
+ * case no disk thread runs.  See MappedDisk and MemoryDisk.  A disk may also be a member of an array of disks
+ * (StripedDisk), which then collects its completions instead of the kernel.
+ */
+
+public class Disk extends Thread
+{
+    public static final int blockSize = 512;
+
+    private final int trackSize = 10;
+    private final int transferTime = 20;
+    private final int delayPerTrack = 1;
+    protected int diskSize;
+    protected String fileName;                      // file the disk contents are kept in
+    protected boolean created;                      // the file did not exist, the disk starts empty
+    private Disk array;                             // disk array this disk is a member of, null if none
+
+    private byte[] data;
+    private int command;
+    private final int IDLE = 0;
+    private final int READ = 1;
+    private final int WRITE = 2;
+    private final int SYNC = 3;
+    private final int READV = 4;
+    private final int WRITEV = 5;
+    private boolean readyBuffer;
+    private byte[] buffer;
+    private int[] targetBlocks;                     // block list of the current vectored request
+    private int targetCount;                        // blocks of targetBlocks it moves
+    private int currentBlockId;
+    private int targetBlockId;
+
+    /**
+     * Disk(int totalBlocks)
+     * Overloaded constructor creates a disk of totalBlocks blocks and loads its contents from the DISK file.
+     * @param totalBlocks
+     */
+    public Disk( int totalBlocks )
+    {
+        this(totalBlocks, true, "DISK");
+    }
+
+    /**
+     * Disk(int totalBlocks, String fileName)
+     * Overloaded constructor creates a disk of totalBlocks blocks kept in fileName instead of DISK.
+     * @param totalBlocks
+     * @param fileName
+     */
+    public Disk( int totalBlocks, String fileName )
+    {
+        this(totalBlocks, true, fileName);
+    }
+
+    /**
+     * Disk(int totalBlocks, boolean inMemory, String fileName)
+     * Creates a disk of totalBlocks blocks kept in fileName.  Backends that keep the disk contents elsewhere pass
+     * false, and no in-memory image is allocated or loaded.
+     * @param totalBlocks
+     * @param inMemory
+     * @param fileName
+     */
+    protected Disk( int totalBlocks, boolean inMemory, String fileName )
+    {
+        diskSize = (totalBlocks > 0) ? totalBlocks : 1;
+        this.fileName = fileName;
+        command = IDLE;
+        readyBuffer = false;
+        buffer = null;
+        currentBlockId = 0;
+        targetBlockId = 0;
+        if (!inMemory)
+            return;
+        data = new byte[diskSize * blockSize];
+        try
+        {
+            FileInputStream ifstream = new FileInputStream(fileName);
+            int readableSize = (ifstream.available() < data.length) ? ifstream.available() : data.length;
+            ifstream.read(data, 0, readableSize);
+            ifstream.close();
+        }
+        catch (FileNotFoundException e)
+        {
+            SysLib.cerr("threadOS: " + fileName + " created\n");
+            created = true;
+        }
+        catch (IOException e)
+        {
+            SysLib.cerr(e.toString() + "\n");
+        }
+    }
+
+    /**
+     * read(int blockId, byte buffer[])
+     * Requests blockId to be read into buffer.
+     * @param blockId
+     * @param buffer
+     * @return true if the request was accepted, false if the disk is busy or blockId is wrong
+     */
+    public synchronized boolean read( int blockId, byte buffer[] )
+    {
+        if (blockId < 0 || blockId >= diskSize)
+        {
+            SysLib.cerr("threadOS: a wrong blockId for read\n");
+            return false;
+        }
+        if (command == IDLE && readyBuffer == false)
+        {
+            this.buffer = buffer;
+            targetBlockId = blockId;
+            command = READ;
+            dispatch();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * write(int blockId, byte buffer[])
+     * Requests buffer to be written to blockId.
+     * @param blockId
+     * @param buffer
+     * @return true if the request was accepted, false if the disk is busy or blockId is wrong
+     */
+    public synchronized boolean write( int blockId, byte buffer[] )
+    {
+        if (blockId < 0 || blockId >= diskSize)
+        {
+            SysLib.cerr("threadOS: a wrong blockId for write\n");
+            return false;
+        }
+        if (command == IDLE && readyBuffer == false)
+        {
+            this.buffer = buffer;
+            targetBlockId = blockId;
+            command = WRITE;
+            dispatch();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * readv(int blockIds[], byte buffer[])
+     * Requests every block of blockIds to be read, the i-th one into buffer at i * blockSize, as one request.
+     * @param blockIds
+     * @param buffer at least blockIds.length * blockSize bytes
+     * @return true if the request was accepted, false if the disk is busy or a blockId is wrong
+     */
+    public synchronized boolean readv( int blockIds[], byte buffer[] )
+    {
+        return readv(blockIds, (blockIds != null) ? blockIds.length : 0, buffer);
+    }
+
+    /**
+     * readv(int blockIds[], int count, byte buffer[])
+     * Requests the first count blocks of blockIds to be read, the i-th one into buffer at i * blockSize, as one
+     * request.
+     * @param blockIds
+     * @param count
+     * @param buffer at least count * blockSize bytes
+     * @return true if the request was accepted, false if the disk is busy or a blockId is wrong
+     */
+    public synchronized boolean readv( int blockIds[], int count, byte buffer[] )
+    {
+        if (!validVector(blockIds, count, buffer))
+        {
+            SysLib.cerr("threadOS: a wrong blockId for readv\n");
+            return false;
+        }
+        if (command == IDLE && readyBuffer == false)
+        {
+            this.buffer = buffer;
+            targetBlocks = blockIds;
+            targetCount = count;
+            command = READV;
+            dispatch();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * writev(int blockIds[], byte buffer[])
+     * Requests buffer to be written, the bytes at i * blockSize to the i-th block of blockIds, as one request.
+     * @param blockIds
+     * @param buffer at least blockIds.length * blockSize bytes
+     * @return true if the request was accepted, false if the disk is busy or a blockId is wrong
+     */
+    public synchronized boolean writev( int blockIds[], byte buffer[] )
+    {
+        return writev(blockIds, (blockIds != null) ? blockIds.length : 0, buffer);
+    }
+
+    /**
+     * writev(int blockIds[], int count, byte buffer[])
+     * Requests buffer to be written, the bytes at i * blockSize to the i-th of the first count blocks of blockIds,
+     * as one request.
+     * @param blockIds
+     * @param count
+     * @param buffer at least count * blockSize bytes
+     * @return true if the request was accepted, false if the disk is busy or a blockId is wrong
+     */
+    public synchronized boolean writev( int blockIds[], int count, byte buffer[] )
+    {
+        if (!validVector(blockIds, count, buffer))
+        {
+            SysLib.cerr("threadOS: a wrong blockId for writev\n");
+            return false;
+        }
+        if (command == IDLE && readyBuffer == false)
+        {
+            this.buffer = buffer;
+            targetBlocks = blockIds;
+            targetCount = count;
+            command = WRITEV;
+            dispatch();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * sync()
+     * Requests the disk image to be written back to its file.
+     * @return true if the request was accepted, false if the disk is busy
+     */
+    public synchronized boolean sync( )
+    {
+        if (command == IDLE && readyBuffer == false)
+        {
+            command = SYNC;
+            dispatch();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * testAndResetReady()
+     * Collects the result of a finished request.
+     * @return true if a request had finished, and the disk is now free for the next one
+     */
+    public synchronized boolean testAndResetReady( )
+    {
+        if (command == IDLE && readyBuffer == true)
+        {
+            readyBuffer = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * testReady()
+     * @return true if a request has finished and its result was not collected yet
+     */
+    public synchronized boolean testReady( )
+    {
+        if (command == IDLE && readyBuffer == true)
+            return true;
+        return false;
+    }
+
+    /**
+     * validVector(int blockIds[], int count, byte buffer[])
+     * @param blockIds
+     * @param count
+     * @param buffer
+     * @return true if the first count block ids are on the disk and buffer can hold all of them
+     */
+    protected boolean validVector( int blockIds[], int count, byte buffer[] )
+    {
+        if (blockIds == null || buffer == null || count < 0 || count > blockIds.length
+                || buffer.length < count * blockSize)
+            return false;
+        for (int i = 0; i < count; i++)
+        {
+            if (blockIds[i] < 0 || blockIds[i] >= diskSize)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * dispatch()
+     * Hands an accepted request to the disk thread, or performs it right away if the backend is synchronous.  The
+     * requesting thread then finds the result ready in testAndResetReady() without waiting for a disk interrupt.
+     */
+    private void dispatch( )
+    {
+        if (!synchronous())
+        {
+            notify();
+            return;
+        }
+        perform();
+        command = IDLE;
+        readyBuffer = true;
+    }
+
+    /**
+     * synchronous()
+     * @return true if requests are performed in the requesting thread, false if by the disk thread
+     */
+    protected boolean synchronous( )
+    {
+        return false;
+    }
+
+    private synchronized void waitCommand( )
+    {
+        while (command == IDLE)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                SysLib.cerr(e.toString() + "\n");
+            }
+            readyBuffer = false;
+        }
+    }
+
+    /**
+     * seek(boolean transfer)
+     * Moves the head to targetBlockId, sleeping for the simulated seek time.
+     * @param transfer false when the target is the block right after the previous one of the same request, in
+     *                 which case only the track delay is paid
+     */
+    protected void seek( boolean transfer )
+    {
+        int seekTime = (transfer ? transferTime : 0)
+                + delayPerTrack * Math.abs(targetBlockId / trackSize - currentBlockId / trackSize);
+        try
+        {
+            if (seekTime > 0)
+                Thread.sleep(seekTime);
+        }
+        catch (InterruptedException e)
+        {
+            SysLib.cerr(e.toString() + "\n");
+        }
+        currentBlockId = targetBlockId;
+    }
+
+    private void finishCommand( )
+    {
+        synchronized (this)
+        {
+            command = IDLE;
+            readyBuffer = true;
+        }
+        if (array != null)
+            array.memberFinished(this);             // the array interrupts once all of its members are done
+        else
+            SysLib.disk();                          // a disk interrupt
+    }
+
+    /**
+     * members()
+     * @return int number of disks serving requests in parallel, 1 for a single disk
+     */
+    public int members( )
+    {
+        return 1;
+    }
+
+    /**
+     * join(Disk array)
+     * Makes this disk a member of array, which is told of every finished request in place of the kernel and
+     * collects the result itself.
+     * @param array
+     */
+    void join( Disk array )
+    {
+        this.array = array;
+    }
+
+    /**
+     * memberFinished(Disk member)
+     * Called by the thread of a member disk when it finishes a request, without holding the member's lock.  A
+     * single disk has no members.
+     * @param member
+     */
+    protected void memberFinished( Disk member )
+    {
+    }
+
+    /**
+     * transfer(boolean write, int blockId, byte buffer[], int offset)
+     * Copies one block between the disk and buffer.
+     * @param write true to copy buffer to the disk, false to copy the disk to buffer
+     * @param blockId
+     * @param buffer
+     * @param offset where the block starts in buffer
+     */
+    protected void transfer( boolean write, int blockId, byte buffer[], int offset )
+    {
+        if (write)
+            System.arraycopy(buffer, offset, data, blockId * blockSize, blockSize);
+        else
+            System.arraycopy(data, blockId * blockSize, buffer, offset, blockSize);
+    }
+
+    /**
+     * persist()
+     * Writes the disk image back to its file.
+     */
+    protected void persist( )
+    {
+        try
+        {
+            FileOutputStream ofstream = new FileOutputStream(fileName);
+            ofstream.write(data);
+            ofstream.close();
+        }
+        catch (FileNotFoundException e)
+        {
+            SysLib.cerr(e.toString());
+        }
+        catch (IOException e)
+        {
+            SysLib.cerr(e.toString());
+        }
+    }
+
+    /**
+     * perform()
+     * Carries out the current request.
+     */
+    private void perform( )
+    {
+        switch (command)
+        {
+            case READ:
+            case WRITE:
+                seek(true);
+                transfer(command == WRITE, targetBlockId, buffer, 0);
+                break;
+            case READV:
+            case WRITEV:
+                for (int i = 0; i < targetCount; i++)
+                {
+                    targetBlockId = targetBlocks[i];
+                    seek(i == 0 || targetBlockId != targetBlocks[i - 1] + 1);
+                    transfer(command == WRITEV, targetBlockId, buffer, i * blockSize);
+                }
+                targetBlocks = null;
+                break;
+            case SYNC:
+                seek(true);
+                persist();
+                break;
+        }
+    }
+
+    public void run( )
+    {
+        if (synchronous())
+            return;                                 // requests never reach a disk thread
+        while (true)
+        {
+            waitCommand();
+            perform();
+            finishCommand();
+        }
+    }
+}
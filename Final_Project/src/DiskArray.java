@@ -0,0 +1,326 @@
+/**
+ * @Project: Final_Project
+ * @file: DiskArray.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * A disk made of several member disks, each with its own thread and file (see StripedDisk and MirroredDisk).  It
+ * keeps the request protocol of Disk, so the disk queue drives it like a single disk: an accepted request is turned
+ * by the subclass into parts that are handed to their members at once, so the members work in parallel.  Members
+ * report their completions to the array instead of the kernel, and when the last part finishes the array raises a
+ * single disk interrupt and the request is ready.  Members performing requests in the requesting thread
+ * (MappedDisk, MemoryDisk) are done before the request is accepted.
+ *
+ * A subclass may also run internal steps of its own on the members, such as copying blocks from one member to
+ * another.  A request arriving during a step waits for it, and steps wait for waiting requests, so requests go
+ * first.
+ */
+
+public abstract class DiskArray extends Disk
+{
+    protected final static int READ = 1;
+    protected final static int WRITE = 2;
+    protected final static int SYNC = 3;
+    protected final static int INTERNAL = 4;
+
+    protected final Disk[] members;
+    protected int command;                          // request or step in progress, 0 when idle
+    protected int outstanding;                      // parts handed to members and not finished yet
+    private boolean ready;                          // request finished and not collected yet
+    private int waiting;                            // requests waiting for an internal step to end
+    private int[] single;                           // block list of a one block request
+
+    /**
+     * DiskArray(int totalBlocks, Disk members[])
+     * Overloaded constructor creates a disk of totalBlocks blocks served by members.
+     * @param totalBlocks
+     * @param members
+     */
+    protected DiskArray( int totalBlocks, Disk members[] )
+    {
+        super(totalBlocks, false, null);
+        this.members = members;
+        single = new int[1];
+        for (int m = 0; m < members.length; m++)
+            members[m].join(this);
+    }
+
+    public synchronized boolean read( int blockId, byte buffer[] )
+    {
+        if (blockId < 0 || blockId >= diskSize)
+        {
+            SysLib.cerr("threadOS: a wrong blockId for read\n");
+            return false;
+        }
+        if (!idle())
+            return false;
+        single[0] = blockId;
+        command = READ;
+        start(READ, single, 1, buffer);
+        dispatched();
+        return true;
+    }
+
+    public synchronized boolean write( int blockId, byte buffer[] )
+    {
+        if (blockId < 0 || blockId >= diskSize)
+        {
+            SysLib.cerr("threadOS: a wrong blockId for write\n");
+            return false;
+        }
+        if (!idle())
+            return false;
+        single[0] = blockId;
+        command = WRITE;
+        start(WRITE, single, 1, buffer);
+        dispatched();
+        return true;
+    }
+
+    public synchronized boolean readv( int blockIds[], int count, byte buffer[] )
+    {
+        if (!validVector(blockIds, count, buffer))
+        {
+            SysLib.cerr("threadOS: a wrong blockId for readv\n");
+            return false;
+        }
+        if (!idle())
+            return false;
+        command = READ;
+        start(READ, blockIds, count, buffer);
+        dispatched();
+        return true;
+    }
+
+    public synchronized boolean writev( int blockIds[], int count, byte buffer[] )
+    {
+        if (!validVector(blockIds, count, buffer))
+        {
+            SysLib.cerr("threadOS: a wrong blockId for writev\n");
+            return false;
+        }
+        if (!idle())
+            return false;
+        command = WRITE;
+        start(WRITE, blockIds, count, buffer);
+        dispatched();
+        return true;
+    }
+
+    /**
+     * sync()
+     * Requests every attached member to write its contents back to its file.
+     * @return true if the request was accepted, false if the disk is busy
+     */
+    public synchronized boolean sync( )
+    {
+        if (!idle())
+            return false;
+        command = SYNC;
+        for (int m = 0; m < members.length; m++)
+        {
+            if (!attached(m))
+                continue;
+            outstanding++;
+            members[m].sync();
+            collectSynchronous(m);
+        }
+        dispatched();
+        return true;
+    }
+
+    public synchronized boolean testAndResetReady( )
+    {
+        if (!ready)
+            return false;
+        ready = false;
+        notifyAll();                                // an internal step may be waiting for the array to be free
+        return true;
+    }
+
+    public synchronized boolean testReady( )
+    {
+        return ready;
+    }
+
+    /**
+     * members()
+     * @return int number of member disks
+     */
+    public int members( )
+    {
+        return members.length;
+    }
+
+    /**
+     * start(int command, int blockIds[], int count, byte buffer[])
+     * Hands the parts of a read or write of the first count blocks of blockIds to the members with dispatch().
+     * Called holding the array lock, with command set.
+     * @param command READ or WRITE
+     * @param blockIds
+     * @param count
+     * @param buffer
+     */
+    protected abstract void start( int command, int blockIds[], int count, byte buffer[] );
+
+    /**
+     * finish()
+     * Called holding the array lock when every part of a read or write has finished, before it is ready.
+     */
+    protected void finish( )
+    {
+    }
+
+    /**
+     * attached(int m)
+     * @param m
+     * @return true if member m takes part in syncs
+     */
+    protected boolean attached( int m )
+    {
+        return true;
+    }
+
+    /**
+     * dispatch(int m, boolean write, int blockIds[], int count, byte buffer[])
+     * Hands one part to member m, which must be idle.  Called holding the array lock.
+     * @param m
+     * @param write
+     * @param blockIds
+     * @param count
+     * @param buffer
+     */
+    protected void dispatch( int m, boolean write, int blockIds[], int count, byte buffer[] )
+    {
+        outstanding++;
+        if (write)
+            members[m].writev(blockIds, count, buffer);
+        else
+            members[m].readv(blockIds, count, buffer);
+        collectSynchronous(m);
+    }
+
+    /**
+     * beginInternal()
+     * Waits until the array is free and no request is waiting, then holds it for an internal step.  Called holding
+     * the array lock, which the step keeps except while waiting.
+     */
+    protected void beginInternal( )
+    {
+        while (command != 0 || ready || waiting > 0)
+            waitArray();
+        command = INTERNAL;
+    }
+
+    /**
+     * awaitInternal()
+     * Waits until every part an internal step has dispatched has finished.
+     */
+    protected void awaitInternal( )
+    {
+        while (outstanding > 0)
+            waitArray();
+    }
+
+    /**
+     * endInternal()
+     * Frees the array at the end of an internal step.
+     */
+    protected void endInternal( )
+    {
+        command = 0;
+        notifyAll();
+    }
+
+    /**
+     * memberFinished(Disk member)
+     * Collects the part a member disk thread has finished.  Once every part of a request is done it raises the disk
+     * interrupt of the array; an internal step is woken instead.
+     * @param member
+     */
+    protected void memberFinished( Disk member )
+    {
+        boolean done;
+        synchronized (this)
+        {
+            member.testAndResetReady();
+            done = (--outstanding == 0);
+            if (done && command == INTERNAL)
+            {
+                notifyAll();
+                done = false;
+            }
+            else if (done)
+                complete();
+        }
+        if (done)
+            SysLib.disk();                          // a disk interrupt
+    }
+
+    /**
+     * idle()
+     * Waits for an internal step to end.
+     * @return true if no request is in progress or waiting to be collected
+     */
+    private boolean idle( )
+    {
+        while (command == INTERNAL)
+        {
+            waiting++;
+            waitArray();
+            waiting--;
+        }
+        return command == 0 && !ready;
+    }
+
+    /**
+     * dispatched()
+     * Completes a request right away when all of its parts are done already.
+     */
+    private void dispatched( )
+    {
+        if (outstanding == 0)
+            complete();
+    }
+
+    private void complete( )
+    {
+        finish();
+        command = 0;
+        ready = true;
+    }
+
+    /**
+     * collectSynchronous(int m)
+     * Collects the part just handed to member m if the member performed it right away, as a member performing
+     * requests in the requesting thread never reports back.
+     * @param m
+     */
+    private void collectSynchronous( int m )
+    {
+        if (members[m].synchronous() && members[m].testAndResetReady())
+            outstanding--;
+    }
+
+    protected void waitArray( )
+    {
+        try
+        {
+            wait();
+        }
+        catch (InterruptedException e)
+        {
+            SysLib.cerr(e.toString() + "\n");
+        }
+    }
+
+    /**
+     * run()
+     * Starts the member disks.  The array has no disk thread of its own.
+     */
+    public void run( )
+    {
+        for (int m = 0; m < members.length; m++)
+            members[m].start();
+    }
+}
@@ -0,0 +1,503 @@
+import java.util.Vector;
+
+/**
+ * @Project: Final_Project
+ * @file: DiskQueue.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Request queue in front of the disk.  Every raw disk request of the kernel (rawread, rawwrite, their vectored
+ * forms and the disk sync of csync/jsync) is placed in this queue, and the disk is handed one request at a time in
+ * the order chosen by the policy:
+ *      FIFO:   in order of arrival, as the threads used to win the disk
+ *      C-LOOK: the request with the lowest block number after the head, wrapping to the lowest block number
+ *              of all when none is left ahead, so the head sweeps the disk in one direction
+ * Under C-LOOK a request of consecutive blocks also takes along the waiting requests in the same direction that
+ * continue its run, up to maxMerge blocks, and the disk performs them all as one vectored request.  On a disk made
+ * of several member disks (StripedDisk) any waiting request in the same direction is taken along up to maxMerge
+ * blocks, as its members serve the blocks of one request in parallel.  A sync is served as soon as the disk is
+ * free.
+ *
+ * The queue has no thread of its own.  The thread whose request is picked performs the disk handshake for its
+ * request and the ones merged into it, then wakes the others, whose requests are either done or next in line.
+ *
+ * The time from entering the queue to completion of every request is recorded in a histogram of powers of two
+ * milliseconds, reported with the mean and maximum by toString(), and every thread reports the time its request
+ * waited in the queue and on the disk to Stats.  The policy is chosen at boot with -DthreadOS.diskQueue=fifo or
+ * c-look (the default).
+ */
+
+public class DiskQueue
+{
+    public final static int FIFO = 0;
+    public final static int CLOOK = 1;
+    private final static int maxMerge = 64;                 // blocks in one merged request
+    private final static int buckets = 12;                  // latency histogram: <1, <2, <4 .. ms, the last open
+
+    private final static int READ = 0;                      // the same as Trace.READ .. SYNC
+    private final static int WRITE = 1;
+    private final static int SYNC = 2;
+
+    private final Disk disk;
+    private final SyncQueue ioQueue;
+    private final int policy;
+    private Vector<Request> pending;        // requests waiting for the disk, in order of arrival
+    private Vector<Request> batch;          // requests the busy thread is performing, reused for every batch
+    private Vector<Request> spares;         // finished requests kept for reuse
+    private int[] mergeBlocks;              // block list of a merged request, used by the busy thread only
+    private byte[] mergeData;               // data of a merged request, grown on demand
+    private boolean busy;                   // a thread is performing a request on the disk
+    private int head;                       // last block the disk served
+
+    private long requests;                  // requests completed
+    private long merged;                    // requests performed as part of another one
+    private long totalNanos;                // sum of their latencies
+    private long maxNanos;
+    private long[] histogram;
+
+    /**
+     * Request
+     * One disk request waiting in the queue.
+     */
+    private static class Request
+    {
+        int command;
+        int[] blocks;
+        int[] single = new int[1];          // blocks of a one block request
+        int count;                          // blocks of the request, the first ones of blocks
+        byte[] buffer;
+        int last;                           // last block if the blocks are consecutive, -1 otherwise
+        long arrival;
+        long taken;                         // when the disk was handed the request
+        boolean done;
+    }
+
+    /**
+     * DiskQueue(Disk disk, SyncQueue ioQueue, int policy)
+     * Overloaded constructor queues the requests for disk, waiting for its interrupts on ioQueue.
+     * @param disk
+     * @param ioQueue
+     * @param policy FIFO or CLOOK
+     */
+    public DiskQueue( Disk disk, SyncQueue ioQueue, int policy )
+    {
+        this.disk = disk;
+        this.ioQueue = ioQueue;
+        this.policy = policy;
+        this.pending = new Vector<Request>( );
+        this.batch = new Vector<Request>( );
+        this.spares = new Vector<Request>( );
+        this.mergeBlocks = new int[maxMerge];
+        this.mergeData = new byte[0];
+        this.histogram = new long[buckets];
+    }
+
+    /**
+     * read(int blockId, byte buffer[])
+     * Reads blockId into buffer.
+     * @param blockId
+     * @param buffer
+     * @return true upon success, false if blockId is not on the disk
+     */
+    public boolean read( int blockId, byte buffer[] )
+    {
+        return submit(READ, blockId, null, 1, buffer);
+    }
+
+    /**
+     * write(int blockId, byte buffer[])
+     * Writes buffer to blockId.
+     * @param blockId
+     * @param buffer
+     * @return true upon success, false if blockId is not on the disk
+     */
+    public boolean write( int blockId, byte buffer[] )
+    {
+        return submit(WRITE, blockId, null, 1, buffer);
+    }
+
+    /**
+     * readv(int blockIds[], int count, byte buffer[])
+     * Reads the first count blocks of blockIds, the i-th one into buffer at i * blockSize.
+     * @param blockIds
+     * @param count
+     * @param buffer
+     * @return true upon success, false if a blockId is wrong or buffer too short
+     */
+    public boolean readv( int blockIds[], int count, byte buffer[] )
+    {
+        return submit(READ, 0, blockIds, count, buffer);
+    }
+
+    /**
+     * writev(int blockIds[], int count, byte buffer[])
+     * Writes buffer, the bytes at i * blockSize to the i-th of the first count blocks of blockIds.
+     * @param blockIds
+     * @param count
+     * @param buffer
+     * @return true upon success, false if a blockId is wrong or buffer too short
+     */
+    public boolean writev( int blockIds[], int count, byte buffer[] )
+    {
+        return submit(WRITE, 0, blockIds, count, buffer);
+    }
+
+    /**
+     * sync()
+     * Writes the disk back to its file.
+     */
+    public void sync( )
+    {
+        submit(SYNC, 0, null, 0, null);
+    }
+
+    /**
+     * submit(int command, int block, int blocks[], int count, byte buffer[])
+     * Queues a request and waits until it is done, performing it (and the requests merged into it) when the
+     * policy picks it.  Request objects are reused, so a one block request allocates nothing.
+     * @param command
+     * @param block the block of a one block request, when blocks is null
+     * @param blocks
+     * @param count blocks of the request, the first ones of blocks
+     * @param buffer
+     * @return true upon success, false if the request is invalid
+     */
+    private boolean submit( int command, int block, int blocks[], int count, byte buffer[] )
+    {
+        Request request;
+        synchronized (this)
+        {
+            request = spares.isEmpty() ? new Request() : spares.remove(spares.size() - 1);
+        }
+        if (blocks == null && command != SYNC)
+        {
+            request.single[0] = block;
+            blocks = request.single;
+        }
+        if (command != SYNC && !valid(blocks, count, buffer))
+        {
+            synchronized (this)
+            {
+                recycle(request);
+            }
+            return false;
+        }
+        request.command = command;
+        request.blocks = blocks;
+        request.count = count;
+        request.buffer = buffer;
+        request.last = (command == SYNC) ? -1 : consecutive(blocks, count);
+        request.arrival = System.nanoTime();
+        request.done = false;
+        if (Trace.enabled)
+            Trace.request(command, blocks, count);
+
+        synchronized (this)
+        {
+            pending.addElement(request);
+            while (!request.done && (busy || pick() != request))
+                waitQueue();
+            if (request.done)
+            {
+                Stats.diskOp(request.arrival, request.taken);
+                recycle(request);                       // merged into another thread's request
+                return true;
+            }
+            busy = true;
+            take(request);
+            long now = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++)
+                batch.elementAt(i).taken = now;
+        }
+
+        perform(batch);
+
+        synchronized (this)
+        {
+            long now = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++)
+            {
+                Request done = batch.elementAt(i);
+                done.done = true;
+                record(now - done.arrival);
+            }
+            merged += batch.size() - 1;
+            if (command != SYNC)
+            {
+                Request tail = batch.lastElement();
+                head = (tail.last >= 0) ? tail.last : tail.blocks[tail.count - 1];
+            }
+            busy = false;
+            Stats.diskOp(request.arrival, request.taken);
+            recycle(request);
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * recycle(Request request)
+     * Keeps a finished request for reuse.  Only the thread that submitted it may do this, once it has seen the
+     * request done, and only holding the queue lock.
+     * @param request
+     */
+    private void recycle( Request request )
+    {
+        request.blocks = null;
+        request.buffer = null;
+        spares.addElement(request);
+    }
+
+    /**
+     * pick()
+     * @return Request the policy serves next among the pending ones
+     */
+    private Request pick( )
+    {
+        if (policy == FIFO)
+            return pending.firstElement();
+        Request ahead = null;
+        Request lowest = null;
+        for (int i = 0; i < pending.size(); i++)
+        {
+            Request request = pending.elementAt(i);
+            if (request.command == SYNC)
+                return request;
+            int position = request.blocks[0];
+            if (position > head && (ahead == null || position < ahead.blocks[0]))
+                ahead = request;
+            if (lowest == null || position < lowest.blocks[0])
+                lowest = request;
+        }
+        return (ahead != null) ? ahead : lowest;
+    }
+
+    /**
+     * take(Request first)
+     * Fills batch with first, removed from the queue, and under C-LOOK the waiting requests that continue its run
+     * of blocks, in block order, then on a disk of several members the other waiting requests in the same
+     * direction, in order of arrival.
+     * @param first
+     */
+    private void take( Request first )
+    {
+        batch.removeAllElements();
+        pending.removeElement(first);
+        batch.addElement(first);
+        if (policy == FIFO || first.command == SYNC)
+            return;
+
+        int end = first.last;
+        int count = first.count;
+        boolean found = (end >= 0);
+        while (found)
+        {
+            found = false;
+            for (int i = 0; i < pending.size(); i++)
+            {
+                Request next = pending.elementAt(i);
+                if (next.command == first.command && next.last >= 0 && next.blocks[0] == end + 1
+                        && count + next.count <= maxMerge)
+                {
+                    pending.removeElementAt(i);
+                    batch.addElement(next);
+                    end = next.last;
+                    count += next.count;
+                    found = true;
+                    break;
+                }
+            }
+        }
+
+        if (disk.members() < 2)
+            return;
+        for (int i = 0; i < pending.size(); )
+        {
+            Request next = pending.elementAt(i);
+            if (next.command == first.command && count + next.count <= maxMerge)
+            {
+                pending.removeElementAt(i);
+                batch.addElement(next);
+                count += next.count;
+            }
+            else
+                i++;
+        }
+    }
+
+    /**
+     * perform(Vector<Request> batch)
+     * Hands the requests of batch to the disk as one request and waits for it to finish.
+     * @param batch
+     */
+    private void perform( Vector<Request> batch )
+    {
+        Request first = batch.firstElement();
+        if (batch.size() == 1)
+        {
+            handshake(first.command, first.blocks, first.count, first.buffer);
+            return;
+        }
+
+        int count = 0;
+        for (int i = 0; i < batch.size(); i++)
+            count += batch.elementAt(i).count;
+        int[] blocks = mergeBlocks;
+        if (mergeData.length < count * Disk.blockSize)
+            mergeData = new byte[count * Disk.blockSize];
+        byte[] buffer = mergeData;
+        for (int i = 0, at = 0; i < batch.size(); i++)
+        {
+            Request request = batch.elementAt(i);
+            System.arraycopy(request.blocks, 0, blocks, at, request.count);
+            if (first.command == WRITE)
+                System.arraycopy(request.buffer, 0, buffer, at * Disk.blockSize, request.count * Disk.blockSize);
+            at += request.count;
+        }
+
+        handshake(first.command, blocks, count, buffer);
+
+        if (first.command == READ)
+        {
+            for (int i = 0, at = 0; i < batch.size(); i++)
+            {
+                Request request = batch.elementAt(i);
+                System.arraycopy(buffer, at * Disk.blockSize, request.buffer, 0, request.count * Disk.blockSize);
+                at += request.count;
+            }
+        }
+    }
+
+    /**
+     * handshake(int command, int blocks[], int count, byte buffer[])
+     * Passes one request to the disk, retrying while it is busy, and waits for the disk interrupt of its
+     * completion.
+     * @param command
+     * @param blocks
+     * @param count
+     * @param buffer
+     */
+    private void handshake( int command, int blocks[], int count, byte buffer[] )
+    {
+        while (!accepted(command, blocks, count, buffer))
+            ioQueue.enqueueAndSleep(Kernel.COND_DISK_REQ);
+        while (!disk.testAndResetReady())
+            ioQueue.enqueueAndSleep(Kernel.COND_DISK_FIN);
+        ioQueue.dequeueAndWakeup(Kernel.COND_DISK_REQ);
+    }
+
+    /**
+     * accepted(int command, int blocks[], int count, byte buffer[])
+     * @param command
+     * @param blocks
+     * @param count
+     * @param buffer
+     * @return true if the disk took the request
+     */
+    private boolean accepted( int command, int blocks[], int count, byte buffer[] )
+    {
+        if (command == SYNC)
+            return disk.sync();
+        if (count == 1)
+            return (command == WRITE) ? disk.write(blocks[0], buffer) : disk.read(blocks[0], buffer);
+        return (command == WRITE) ? disk.writev(blocks, count, buffer) : disk.readv(blocks, count, buffer);
+    }
+
+    /**
+     * valid(int blocks[], int count, byte buffer[])
+     * @param blocks
+     * @param count
+     * @param buffer
+     * @return true if the first count blocks are on the disk and buffer can hold them all
+     */
+    private boolean valid( int blocks[], int count, byte buffer[] )
+    {
+        if (blocks == null || count <= 0 || count > blocks.length || buffer == null
+                || buffer.length < count * Disk.blockSize)
+            return false;
+        for (int i = 0; i < count; i++)
+        {
+            if (blocks[i] < 0 || blocks[i] >= disk.diskSize)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * consecutive(int blocks[], int count)
+     * @param blocks
+     * @param count
+     * @return int last block if each of the first count blocks follows the previous one, -1 otherwise
+     */
+    private static int consecutive( int blocks[], int count )
+    {
+        for (int i = 1; i < count; i++)
+        {
+            if (blocks[i] != blocks[i - 1] + 1)
+                return -1;
+        }
+        return blocks[count - 1];
+    }
+
+    /**
+     * record(long nanos)
+     * Adds the latency of one completed request to the statistics.
+     * @param nanos
+     */
+    private void record( long nanos )
+    {
+        requests++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < buckets - 1 && millis >= (1L << bucket))
+            bucket++;
+        histogram[bucket]++;
+    }
+
+    /**
+     * percentile(int percent)
+     * @param percent
+     * @return long upper bound in ms of the histogram bucket holding the given percentile, past the last bound the
+     *              maximum rounded up
+     */
+    private long percentile( int percent )
+    {
+        long wanted = (requests * percent + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < buckets; bucket++)
+        {
+            seen += histogram[bucket];
+            if (seen >= wanted)
+                return (bucket < buckets - 1) ? (1L << bucket) : maxNanos / 1000000 + 1;
+        }
+        return 0;
+    }
+
+    private void waitQueue( )
+    {
+        try
+        {
+            wait();
+        }
+        catch (InterruptedException e)
+        {
+            SysLib.cerr(e.toString() + "\n");
+        }
+    }
+
+    /**
+     * toString()
+     * Reports the policy, the number of requests and merged requests, and their mean, median, 99th percentile and
+     * maximum latency.  Percentiles are the histogram bounds they fall under.
+     * @return String statistics of this queue
+     */
+    public synchronized String toString( )
+    {
+        long mean = (requests > 0) ? totalNanos / requests / 1000 : 0;
+        return "diskqueue " + (policy == FIFO ? "fifo" : "c-look") + " requests=" + requests + " merged=" + merged
+                + " mean=" + (mean / 1000) + "." + (mean % 1000 / 100) + "ms p50<" + percentile(50)
+                + "ms p99<" + percentile(99) + "ms max=" + (maxNanos / 1000000) + "ms";
+    }
+}
@@ -1,3 +1,6 @@
+import java.util.Arrays;
+import java.util.Vector;
+
 /**
  * @Project: ${PACKAGE_NAME}
  * @file: ${FILE_NAME}
@@ -16,6 +19,19 @@
  *     system must write back the Directory information onto the disk. The bytes2directory() method will
  *     initialize the Directory instance with a byte array read from the disk and the directory2bytes()
  *     method converts the Directory instance into a byte array that can be written back to the disk.
+ *
+ *     Metadata (inodes, index and extent blocks, the free-block bitmap and the superblock) is written through the
+ *     journal.  Every write, truncation or fallocate is one journal operation: when it changes which blocks the
+ *     file owns, the inode and the bitmap are written inside the same operation, so the change commits as a
+ *     whole.  Blocks freed by a truncation are reused only after the transaction freeing them has committed.
+ *
+ *     Directories nest: a path name such as "/logs/2026/app.log" (the leading "/" is optional, every path starts
+ *     at the root) names a file inside subdirectories created with mkdir.  The root is the Directory above; a
+ *     subdirectory is a file of Directory.entrySize byte entries.  Path resolution looks each component up in its
+ *     directory through the DentryCache, so opening a deep path again reads no directory blocks.  Creating,
+ *     deleting and removing names is serialized on the namespace lock, and each of them writes the entry block and
+ *     the changed blocks of the root directory in one journal operation.  The time spent waiting for the namespace
+ *     lock and for file entries in use by another thread is reported to Stats.
  */
 
 public class FileSystem
@@ -23,18 +39,90 @@ public class FileSystem
     private SuperBlock superblock;
     private Directory directory;
     private FileTable filetable;
-    private boolean[] freeBlockTable;   // "true" equals free, "false" equals full
+    private BlockBitmap freeBlockMap;   // persistent free-block bitmap
+    private DentryCache dentries;       // subdirectory entries looked up by path resolution
+    private final int readAheadLimit;   // largest read-ahead window, at most what the cache prefetches at once
+    private final Object namespace = new Object();  // held while names are looked up, created or removed
+    private final Vector<Scratch> spares = new Vector<Scratch>();  // Scratch buffers of reads and writes not in use
+    private final ThreadLocal<int[]> allocations = new ThreadLocal<int[]>()   // blocks each thread has allocated
+    {
+        protected int[] initialValue( )
+        {
+            return new int[1];
+        }
+    };
+
+    private final static int maxVector = 64;    // most blocks moved by one vectored request
+    private final static int minReadAhead = 2;  // read-ahead window once access turns sequential
+    private final static int maxReadAhead = 8;  // largest read-ahead window, if the cache takes that many
+    private final static int flushInterval = 5000;  // ms between writes of dirty inodes by the InodeFlusher
+    private final static int reclaimThreshold = 64;    // spare free blocks below which freed blocks are released
+    private final static int dentryEntries = 256;      // capacity of the dentry cache
+
+    /**
+     * InodeFlusher
+     * Background thread that periodically writes the dirty inodes of open files back through the cache, so a file
+     * that stays open long does not keep its size and block pointers in memory only, and releases the blocks freed
+     * since the last round once their transaction has committed.
+     */
+    private class InodeFlusher extends Thread
+    {
+        public void run( )
+        {
+            while (true)
+            {
+                try
+                {
+                    Thread.sleep(flushInterval);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                filetable.sync();
+                releaseFreed();
+            }
+        }
+    }
+
+    /**
+     * Scratch
+     * Working space of one read or write: room for the block list and the data of one vectored request, the first
+     * block of which also serves single-block transfers.  A read or write borrows one for the whole call and gives
+     * it back at the end, so moving data allocates nothing once every concurrent caller has had a Scratch.  The
+     * cache copies in and out of it before its calls return, so it is free for reuse as soon as they have.
+     */
+    private static class Scratch
+    {
+        final int[] run = new int[maxVector];
+        final byte[] data = new byte[maxVector * Disk.blockSize];
+    }
 
     /**
      * FileSystem(int diskBlocks)
      *     Overloaded constructor takes in the number of diskBlocks and instantiates a virtual file system of passed
-     *     in size and creates and creates a freeBlockTable for tracking free and used blocks within the virtual file
-     *     system.
+     *     in size and loads the free-block bitmap for tracking free and used blocks within the virtual file
+     *     system.  An existing file system is mounted with its files, free blocks and directory as last synced.
+     *     The read-ahead window grows up to maxReadAhead blocks.
      * @param diskBlocks
      */
     public FileSystem(int diskBlocks)
     {
-        // create SuperBlock, and format disk with 64 iNodes in default
+        this(diskBlocks, maxReadAhead);
+    }
+
+    /**
+     * FileSystem(int diskBlocks, int prefetchLimit)
+     *     Same as FileSystem(diskBlocks) on a cache that prefetches at most prefetchLimit blocks per request (see
+     *     Cache.prefetchLimit()), so the read-ahead window never grows past what the cache takes.
+     * @param diskBlocks
+     * @param prefetchLimit
+     */
+    public FileSystem(int diskBlocks, int prefetchLimit)
+    {
+        readAheadLimit = Math.max(1, Math.min(maxReadAhead, prefetchLimit));
+
+        // create SuperBlock, mounting the disk, or formatting it with 64 iNodes in default if it is blank
         superblock = new SuperBlock(diskBlocks);
 
         // create directory, and register "/" in directory entry 0
@@ -42,19 +130,12 @@ public class FileSystem
 
         // file table is created, and store directory in the file table
         filetable = new FileTable(directory);
+        dentries = new DentryCache(dentryEntries);
 
-        // set freeBlockTable all blocks to free
-        // i = 3 to skip SuperBlock and iNodes
-        freeBlockTable = new boolean[diskBlocks];
-        // covers SuperBlock, and iNode blocks from being overwritten
-        for (int i = 0; i < 3; i++)
-        {
-            freeBlockTable[i] = false;
-        }
-        for (int i = 3; i < diskBlocks; i++)
-        {
-            freeBlockTable[i] = true;
-        }
+        // load the free-block bitmap, SuperBlock, iNode and bitmap blocks are always reserved
+        freeBlockMap = new BlockBitmap(superblock.totalBlocks, superblock.bitmapStart(), superblock.freeList,
+                                       superblock.journalStart);
+        freeBlockMap.load();
         // directory reconstruction
         FileTableEntry dirEnt = open("/", "r");
         int dirSize = fsize(dirEnt);
@@ -64,35 +145,125 @@ public class FileSystem
             directory.bytes2directory(dirData);
         }
         close(dirEnt);
+
+        InodeFlusher flusher = new InodeFlusher();
+        flusher.setDaemon(true);
+        flusher.start();
     } // FileSystem overloaded
 
     /**
      * sync
-     * Syncs the cache back to the physical disk.
+     * Writes the directory and superblock into the block cache, then syncs the cache back to the physical disk.
      */
     void sync()
     {
-        FileTableEntry ftEnt = this.open("/", "w");
-        byte[] data = this.directory.directory2bytes();
-        this.write(ftEnt, data);
-        this.close(ftEnt);
+        this.syncDirectory();
+        this.filetable.sync();
+        this.freeBlockMap.sync();
         this.superblock.sync();
+        SysLib.csync();
+        releaseFreed();
+    }
+
+    /**
+     * syncDirectory()
+     * Writes the directory file.  A directory file that does not have its full size yet, right after a format, is
+     * written whole; otherwise only the blocks holding slots changed since the last sync are written, in place and
+     * through the journal, so a sync after a few creates or deletes writes a block or two.
+     */
+    private void syncDirectory()
+    {
+        synchronized (namespace)
+        {
+            // the directory always has the same size, "w+" overwrites it in place instead of truncating it
+            FileTableEntry dirEnt = this.open("/", "w+");
+            if (this.fsize(dirEnt) < this.directory.byteSize())
+            {
+                this.directory.markAll(false);
+                this.write(dirEnt, this.directory.directory2bytes());
+            }
+            else
+            {
+                byte[] data = new byte[Disk.blockSize];
+                int blocks = (this.directory.byteSize() + Disk.blockSize - 1) / Disk.blockSize;
+                Kernel.journal.begin();
+                for (int i = 0; i < blocks; i++)
+                {
+                    int location = this.findTargetBlock(dirEnt, i * Disk.blockSize);
+                    if (location >= 0 && this.directory.blockBytes(i, data))
+                        Kernel.journal.write(location, data);
+                }
+                Kernel.journal.end();
+            }
+            this.close(dirEnt);
+        }
+    }
+
+    /**
+     * fsync(FileTableEntry fileEntry)
+     * Makes one file durable: writes its inode if dirty, the directory and the free-block bitmap into the cache,
+     * commits the journal and syncs the data back to the physical disk.  The committed metadata is only written
+     * to its home blocks later; after a crash the journal replays it.
+     * @param fileEntry
+     * @return int 0 upon success, -1 if fileEntry is null
+     */
+    int fsync(FileTableEntry fileEntry)
+    {
+        if (fileEntry == null)
+            return -1;
+        this.filetable.flush(fileEntry);
+        this.syncDirectory();
+        this.freeBlockMap.sync();
+        SysLib.jsync();
+        releaseFreed();
+        return 0;
     }
 
     /**
      * format(int files)
      * <p>
-     *     Performs a full format of the disk, erases all data and recreates the superblock, directory, and file
-     *     tables.  Once called all data is lost.
+     *     Performs a full format of the disk in the default inode format version.  Once called all data is lost.
      * </p>
      * @param files amount of files to be formatted
      * @return true upon successful format of file system
      */
     boolean format(int files)
     {
-        superblock.format(files);
+        return format(files, Inode.VERSION_INT);
+    }
+
+    /**
+     * format(int files, int version)
+     * <p>
+     *     Performs a full format of the disk, erases all data and recreates the superblock, directory, and file
+     *     tables.  Once called all data is lost.  version selects the inode format: Inode.VERSION_SHORT for 11
+     *     short direct pointers and one indirect block, Inode.VERSION_INT for int pointers with double and triple
+     *     indirect blocks, Inode.VERSION_EXTENT for extent lists of contiguous blocks.  Short pointers cannot
+     *     address disks of more than 32K blocks.
+     * </p>
+     * @param files amount of files to be formatted
+     * @param version inode format version
+     * @return true upon successful format of file system, false if the version cannot be used on this disk
+     */
+    boolean format(int files, int version)
+    {
+        if (version != Inode.VERSION_SHORT && version != Inode.VERSION_INT && version != Inode.VERSION_EXTENT)
+            return false;
+        if (version == Inode.VERSION_SHORT && superblock.totalBlocks > Short.MAX_VALUE)
+            return false;
+
+        // commit and write home everything logged so far, so no old metadata is replayed over the new format
+        SysLib.csync();
+        superblock.format(files, version);
+        freeBlockMap = new BlockBitmap(superblock.totalBlocks, superblock.bitmapStart(), superblock.freeList,
+                                       superblock.journalStart);
+        freeBlockMap.load();
+        freeBlockMap.sync();
         directory = new Directory(superblock.totalInodes);
         filetable = new FileTable(directory);
+        dentries = new DentryCache(dentryEntries);
+        // the freshly formatted superblock and inodes only live in the cache until it is synced
+        SysLib.csync();
         return true;
     }
 
@@ -104,7 +275,10 @@ public class FileSystem
      *              "w": write
      *              "r": read
      *              "a": append- write to end of file
-     *     Creates a FileTableEntry object passing in filename and mode to FileTable class to be instantiated.
+     *     filename is a path name; a file that does not exist is created unless the mode is "r", as long as its
+     *     parent directory exists.  Directories themselves cannot be opened, only "/" for the file system's own
+     *     use.  Creates a FileTableEntry object passing in the inode number and mode to FileTable class to be
+     *     instantiated.  Opening with "w" truncates the file, returning all of its blocks to the free-block bitmap.
      * </p>
      * @param filename
      * @param mode
@@ -115,7 +289,17 @@ public class FileSystem
     {
         if (mode == "w" || mode == "w+" || mode == "r" || mode == "a")
         {
-            FileTableEntry entry = filetable.fAlloc(filename, mode);
+            short iNumber = resolve(filename, (mode == "r") ? -1 : 0);
+            // directories change only through mkdir and rmdir, and are listed with readdir
+            if (iNumber < 0 || (iNumber != 0 && directory.isDirectory(iNumber)))
+                return null;
+            FileTableEntry entry = filetable.fAlloc(iNumber, mode);
+            // fAlloc only grants "w" once no other entry reads or writes this file, so truncating is safe
+            if (entry != null && mode == "w" && !deallocAllBlocks(entry))
+            {
+                close(entry);
+                return null;
+            }
             return entry;
         }
         else
@@ -187,11 +371,36 @@ public class FileSystem
         int itrSize = 0;
 
         // FileTableEntry object is synchronized to prevent multiple threads access congruently
+        long since = Stats.now();
         synchronized(fileEntry)
         {
+            Stats.lockWait(since);
+            Scratch scratch = borrow();
+            int start = fileEntry.seekPtr;
             // Loop for reading data from disk, seekPtr must be less than file size, and file must have data
             while (fileEntry.seekPtr < fsize(fileEntry) && (size > 0))
             {
+                // keeps track of offset from FileTableEntry seekPtr for location within block
+                int dataOffset = fileEntry.seekPtr % blockSize;
+                // number of bytes left to read in from disk
+                int fileLeft = fsize(fileEntry) - fileEntry.seekPtr;
+
+                // whole blocks that sit next to each other on disk are read with a single vectored request
+                if (dataOffset == 0 && Math.min(size, fileLeft) >= 2 * blockSize)
+                {
+                    int count = gatherRun(fileEntry, Math.min(size, fileLeft) / blockSize, false, scratch.run);
+                    if (count > 0)
+                    {
+                        int bytes = count * blockSize;
+                        SysLib.creadv(scratch.run, count, scratch.data);
+                        System.arraycopy(scratch.data, 0, buffer, rBuffer, bytes);
+                        rBuffer += bytes;
+                        fileEntry.seekPtr += bytes;
+                        size -= bytes;
+                        continue;
+                    }
+                }
+
                 // find block that contains data that corresponds with file
                 int currentBlock = findTargetBlock(fileEntry, fileEntry.seekPtr);
                 // if system cannot find block corresponding with file break from loop
@@ -199,17 +408,13 @@ public class FileSystem
                 {
                     break;
                 }
-                // block sized buffer for reading in data from disk block
-                byte[] data = new byte[blockSize];
+                // the first block of the scratch buffer takes the data from the disk block
+                byte[] data = scratch.data;
                 // read from disk to data buffer
-                SysLib.rawread(currentBlock, data);
+                SysLib.cread(currentBlock, data);
 
-                // keeps track of offset from FileTableEntry seekPtr for location within block
-                int dataOffset = fileEntry.seekPtr % blockSize;
-                // number of blocks left to read into system
-                int blocksLeft = blockSize - itrSize;
-                // number of bytes left to read in from disk
-                int fileLeft = fsize(fileEntry) - fileEntry.seekPtr;
+                // number of bytes left in this block
+                int blocksLeft = blockSize - dataOffset;
 
                 // check to reset size of
                 if (blocksLeft < fileLeft)
@@ -226,28 +431,140 @@ public class FileSystem
                 fileEntry.seekPtr += itrSize;
                 size -= itrSize;
             }
+            readAhead(fileEntry, start, scratch.run);
+            giveBack(scratch);
             return rBuffer;
         }
     }
 
     /**
-     * findFreeBlock()
-     * Finds a free block in memory by iterating through the freeBlockTable (table of boolean values: True indicates
-     * block is free, False indicates that block is currently has data.  Returns short value that is free block number
-     * @return short indicating free block table
+     * readAhead(FileTableEntry fileEntry, int start, int[] blocks)
+     * Called after every read.  A read starting where the previous one ended is sequential: the window doubles
+     * from minReadAhead up to readAheadLimit, and once at least half of the window past the seek pointer has not been
+     * asked for yet, those blocks are handed to the cache to prefetch in the background.  Any other read collapses
+     * the window.
+     * @param fileEntry
+     * @param start seek pointer at the beginning of this read
+     * @param blocks scratch array of at least maxReadAhead entries for the block numbers handed to the cache
+     */
+    private void readAhead(FileTableEntry fileEntry, int start, int[] blocks)
+    {
+        if (start != fileEntry.nextRead)
+        {
+            fileEntry.readAhead = 0;
+            fileEntry.prefetched = 0;
+        }
+        else if (fileEntry.readAhead == 0)
+            fileEntry.readAhead = Math.min(minReadAhead, readAheadLimit);
+        else
+            fileEntry.readAhead = Math.min(fileEntry.readAhead * 2, readAheadLimit);
+        fileEntry.nextRead = fileEntry.seekPtr;
+        if (fileEntry.readAhead == 0)
+            return;
+
+        int first = Math.max(fileEntry.seekPtr / Disk.blockSize, fileEntry.prefetched);
+        int last = Math.min(fileEntry.seekPtr / Disk.blockSize + fileEntry.readAhead,
+                (fsize(fileEntry) + Disk.blockSize - 1) / Disk.blockSize);
+        // top the window up only once half of it is used, so each prefetch moves several blocks in one request
+        if (last - first < Math.max(1, fileEntry.readAhead / 2))
+            return;
+        int count = 0;
+        while (first + count < last)
+        {
+            int block = mapBlock(fileEntry.iNode, first + count, false, 0);
+            if (block < 0)
+                break;
+            blocks[count++] = block;
+        }
+        if (count == 0)
+            return;
+        // the cache may take only part of the window, the rest is asked for again after the next read
+        fileEntry.prefetched = first + SysLib.cprefetch(blocks, count);
+    }
+
+    /**
+     * gatherRun(FileTableEntry entry, int blocks, boolean allocate, int[] run)
+     * Maps up to blocks whole file blocks starting at the (block aligned) seek pointer, stopping at the first one
+     * that is not the disk block right after the previous one, so the result can be moved in one vectored request.
+     * At most maxVector blocks are gathered.  When allocate is set, missing blocks are allocated on the way; a block
+     * allocated out of sequence stays mapped and is picked up by the caller's next pass.
+     * @param entry
+     * @param blocks number of whole blocks the caller wants to move
+     * @param allocate
+     * @param run receives the disk addresses of the run, at least maxVector long
+     * @return int number of blocks in the run, 0 if it would be shorter than two blocks
      */
-    short findFreeBlock()
+    private int gatherRun(FileTableEntry entry, int blocks, boolean allocate, int[] run)
     {
-        for(short i = 3; i < freeBlockTable.length; i++)
+        int first = entry.seekPtr / Disk.blockSize;
+        int length = Math.min(blocks, maxVector);
+        int count = 0;
+        while (count < length)
         {
-            if (freeBlockTable[i])
+            int block = mapBlock(entry.iNode, first + count, false, 0);
+            if (block < 0 && allocate)
+                block = mapBlock(entry.iNode, first + count, true, blocks - count);
+            if (block < 0 || (count > 0 && block != run[count - 1] + 1))
+                break;
+            run[count++] = block;
+        }
+        return (count < 2) ? 0 : count;
+    }
+
+    /**
+     * borrow()
+     * @return Scratch a scratch buffer no other call is using, a new one if none is spare
+     */
+    private Scratch borrow()
+    {
+        synchronized (spares)
+        {
+            if (!spares.isEmpty())
             {
-                freeBlockTable[i] = false;
-                return i;
+                Scratch scratch = spares.lastElement();
+                spares.removeElementAt(spares.size() - 1);
+                return scratch;
             }
         }
-        System.out.print("Error, disk is full");
-        return -1;
+        return new Scratch();
+    }
+
+    /**
+     * giveBack(Scratch scratch)
+     * Returns a borrowed scratch buffer for the next read or write.
+     * @param scratch
+     */
+    private void giveBack(Scratch scratch)
+    {
+        spares.addElement(scratch);
+    }
+
+    /**
+     * findFreeBlock()
+     * Allocates a free block from the free-block bitmap, resuming the search where the last allocation left off.
+     * Returns int value that is free block number
+     * @return int free block number, -1 if the disk is full
+     */
+    int findFreeBlock()
+    {
+        int block = freeBlockMap.allocate();
+        if (block < 0)
+            System.out.print("Error, disk is full");
+        else
+            allocations.get()[0]++;
+        return block;
+    }
+
+    /**
+     * allocated()
+     * Returns how many blocks the calling thread has allocated so far.  An operation compares it at its end with
+     * its value at the start to learn whether it allocated any block itself, whatever other threads allocated or
+     * released in the meantime.
+     * @return int blocks allocated by the calling thread
+     */
+    private int allocated()
+    {
+        return allocations.get()[0] & Integer.MAX_VALUE;
     }
 
     /**
@@ -272,40 +589,68 @@ public class FileSystem
         // if mode is read exit method with -1 indicating error
         if (entry == null || entry.mode.equals("r"))
             return -1;
+        if (freeBlockMap.freeBlocks() < bufferSize / blockSize + reclaimThreshold)
+            releaseFreed();
+        long since = Stats.now();
         synchronized (entry)
         {
+            Stats.lockWait(since);
+            Kernel.journal.begin();
+            Scratch scratch = borrow();
+            int allocatedBefore = allocated();
             // while buffer has data continue
             while (bufferSize > 0)
             {
+                // a long write goes on in a new journal operation once it has pinned most of its share
+                if (Kernel.journal.crowded())
+                {
+                    entry.iNode.fileSize = Math.max(entry.iNode.fileSize, entry.seekPtr);
+                    entry.iNode.markDirty();
+                    allocatedBefore = restartOperation(entry, allocatedBefore);
+                }
+                // whole blocks that land next to each other on disk are written with a single vectored request
+                if (entry.seekPtr % blockSize == 0 && bufferSize >= 2 * blockSize)
+                {
+                    int count = gatherRun(entry, bufferSize / blockSize, true, scratch.run);
+                    if (count > 0)
+                    {
+                        int bytes = count * blockSize;
+                        System.arraycopy(buffer, bytesWritten, scratch.data, 0, bytes);
+                        SysLib.cwritev(scratch.run, count, scratch.data);
+                        entry.seekPtr += bytes;
+                        bytesWritten += bytes;
+                        bufferSize -= bytes;
+                        continue;
+                    }
+                }
+
                 // variable for holding write location within target block
                 int location = findTargetBlock(entry, entry.seekPtr);
-                // if location is -1 get a new block for writing
+                // if location is -1 get a new block for writing, along with any index blocks leading to it
                 if (location == -1)
                 {
-                    short newLocation = this.findFreeBlock();
-
-                    int pointer = registerTargetBlock(entry, entry.seekPtr, newLocation);
-
-                    // if testPtr = -3 block error return -1
-                    if (pointer == -3)
+                    // ask for enough blocks to hold the rest of the buffer, extent files get them contiguously
+                    int wanted = (entry.seekPtr + bufferSize - 1) / blockSize - entry.seekPtr / blockSize + 1;
+                    location = registerTargetBlock(entry, entry.seekPtr, wanted);
+                    if (location < 0)
                     {
-                        short freeBlock = this.findFreeBlock();
-                        if (!registerIndexBlock(entry, freeBlock))
-                            return -1;
-
-                        if (registerTargetBlock(entry, entry.seekPtr, newLocation) != 0)
-                            return -1;
-                    }
-                    else if (pointer == -2 || pointer == -1)
+                        giveBack(scratch);
+                        endOperation(entry, allocatedBefore);
                         return -1;
-                    location = newLocation;
+                    }
                 }
 
-                // buffer for holding data read from memory befor pushed to disk
-                byte [] tempBuff = new byte[blockSize];
-                // read memory from memory to temp buffer
-                SysLib.rawread(location, tempBuff);
+                // the first block of the scratch buffer holds the block while it is updated
+                byte [] tempBuff = scratch.data;
                 int tempPtr = entry.seekPtr % blockSize;
+                // read block into temp buffer through the cache, unless this write overwrites all of the block that
+                // lies inside the file; the rest is past the end of the file, never read, and is cleared to zeros
+                // so nothing left in the scratch buffer by another file reaches the disk
+                int blockEnd = Math.min(entry.seekPtr - tempPtr + blockSize, entry.iNode.fileSize);
+                if (tempPtr != 0 || entry.seekPtr + bufferSize < blockEnd)
+                    SysLib.cread(location, tempBuff);
+                else if (bufferSize < blockSize)
+                    Arrays.fill(tempBuff, bufferSize, blockSize, (byte) 0);
                 // counter for holding how much more data the block can hold
                 int difference = blockSize - tempPtr;
 
@@ -313,14 +658,14 @@ public class FileSystem
                 if (difference > bufferSize)
                 {
                     System.arraycopy(buffer, bytesWritten, tempBuff, tempPtr, bufferSize);
-                    SysLib.rawwrite(location, tempBuff);
+                    SysLib.cwrite(location, tempBuff);
                     entry.seekPtr += bufferSize;
                     bytesWritten += bufferSize;
                     bufferSize = 0;
                 }
                 else {
                     System.arraycopy(buffer, bytesWritten, tempBuff, tempPtr, difference);
-                    SysLib.rawwrite(location, tempBuff);
+                    SysLib.cwrite(location, tempBuff);
                     entry.seekPtr += difference;
                     bytesWritten += difference;
                     bufferSize -= difference;
@@ -332,21 +677,514 @@ public class FileSystem
             {
                 entry.iNode.fileSize = entry.seekPtr;
             }
-            entry.iNode.toDisk(entry.iNumber);
+            entry.iNode.markDirty();
+            giveBack(scratch);
+            endOperation(entry, allocatedBefore);
             return bytesWritten;
         }
     }
 
     /**
      * delete(String filename)
-     * This method takes in a filename and deletes it from system.  Returns True if deleted, else false error
+     * This method takes in a path name and deletes the file from its directory.  Opening the file with "w" waits
+     * for every other reader and writer to close it, and truncates it so all of its data and index blocks are
+     * reclaimed before its name is removed and the inode number is freed, both before the entry is closed.
+     * Directories are removed with rmdir.
+     * Returns True if deleted, else false error
      * @param filename
      * @return
      */
     boolean delete(String filename)
     {
-        FileTableEntry entry = open(filename, "w");
-        return close(entry) && directory.iFree(entry.iNumber);
+        String[] parts = split(filename);
+        if (parts == null || parts.length == 0)
+            return false;
+        String name = parts[parts.length - 1];
+        short dir;
+        short iNumber;
+        long since = Stats.now();
+        synchronized (namespace)
+        {
+            Stats.lockWait(since);
+            dir = walk(parts, parts.length - 1);
+            iNumber = (dir < 0) ? -1 : lookup(dir, name);
+        }
+        if (iNumber <= 0 || directory.isDirectory(iNumber))
+            return false;
+        // waiting for the file to be closed happens outside the namespace lock
+        FileTableEntry entry = filetable.fAlloc(iNumber, "w");
+        boolean truncated = deallocAllBlocks(entry);
+        // the name goes while the entry still keeps everyone else out, so the truncated file cannot be looked up and
+        // opened again before it is unlinked; the namespace lock is held up to the close so its inode number is not
+        // handed out again before
+        synchronized (namespace)
+        {
+            boolean unlinked = truncated && lookup(dir, name) == iNumber;  // or deleted by someone else meanwhile
+            if (unlinked)
+                unlink(dir, name, iNumber);
+            return close(entry) && unlinked;
+        }
+    }
+
+    /**
+     * mkdir(String path)
+     * Creates an empty directory.  Its parent must exist and path must not.
+     * @param path
+     * @return int 0 upon success, -1 if the parent does not exist, the name is taken or no inode is left
+     */
+    int mkdir(String path)
+    {
+        String[] parts = split(path);
+        if (parts == null || parts.length == 0)
+            return -1;
+        String name = parts[parts.length - 1];
+        long since = Stats.now();
+        synchronized (namespace)
+        {
+            Stats.lockWait(since);
+            short dir = walk(parts, parts.length - 1);
+            if (dir < 0 || lookup(dir, name) >= 0)
+                return -1;
+            return (link(dir, name, Directory.DIRECTORY) > 0) ? 0 : -1;
+        }
+    }
+
+    /**
+     * rmdir(String path)
+     * Removes an empty directory, returning the blocks of its entries and its inode.
+     * @param path
+     * @return int 0 upon success, -1 if path is not a directory, is the root or is not empty
+     */
+    int rmdir(String path)
+    {
+        String[] parts = split(path);
+        if (parts == null || parts.length == 0)
+            return -1;
+        String name = parts[parts.length - 1];
+        long since = Stats.now();
+        synchronized (namespace)
+        {
+            Stats.lockWait(since);
+            short dir = walk(parts, parts.length - 1);
+            short iNumber = (dir < 0) ? -1 : lookup(dir, name);
+            if (iNumber <= 0 || !directory.isDirectory(iNumber))
+                return -1;
+            byte[] data = entries(iNumber);
+            for (int offset = 0; offset + Directory.entrySize <= data.length; offset += Directory.entrySize)
+            {
+                if (Directory.entryINumber(data, offset) != 0)
+                    return -1;
+            }
+            FileTableEntry entry = filetable.fAlloc(iNumber, "w");
+            deallocAllBlocks(entry);
+            close(entry);
+            unlink(dir, name, iNumber);
+            return 0;
+        }
+    }
+
+    /**
+     * readdir(String path, Vector<String> names)
+     * Lists a directory: adds the name of each of its files, and of each directory with a trailing "/", to names.
+     * @param path
+     * @param names
+     * @return int number of names added, -1 if path is not a directory
+     */
+    int readdir(String path, Vector<String> names)
+    {
+        String[] parts = split(path);
+        if (parts == null)
+            return -1;
+        long since = Stats.now();
+        synchronized (namespace)
+        {
+            Stats.lockWait(since);
+            short dir = walk(parts, parts.length);
+            if (dir < 0)
+                return -1;
+            if (dir == 0)
+                return directory.list(names);
+            byte[] data = entries(dir);
+            int count = 0;
+            for (int offset = 0; offset + Directory.entrySize <= data.length; offset += Directory.entrySize)
+            {
+                short iNumber = Directory.entryINumber(data, offset);
+                if (iNumber == 0)
+                    continue;
+                String name = Directory.entryName(data, offset);
+                names.addElement(directory.isDirectory(iNumber) ? name + "/" : name);
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * dentries()
+     * @return DentryCache the cache used by path resolution, for its statistics
+     */
+    DentryCache dentries()
+    {
+        return dentries;
+    }
+
+    /**
+     * split(String path)
+     * Splits a path name into its components, ignoring empty ones, so "/", "//a" and "a/" work as expected.
+     * @param path
+     * @return String[] components, empty for the root, null if path is empty
+     */
+    private static String[] split(String path)
+    {
+        if (path == null || path.length() == 0)
+            return null;
+        Vector<String> parts = new Vector<String>();
+        int start = 0;
+        while (start < path.length())
+        {
+            int end = path.indexOf('/', start);
+            if (end < 0)
+                end = path.length();
+            if (end > start)
+                parts.addElement(path.substring(start, end));
+            start = end + 1;
+        }
+        String[] components = new String[parts.size()];
+        parts.copyInto(components);
+        return components;
+    }
+
+    /**
+     * resolve(String path, int create)
+     * Translates a path name into an inode number.  If the last component does not exist and create is not -1, it
+     * is created: as a file, or as a directory if create has Directory.DIRECTORY.
+     * @param path
+     * @param create -1 to only look the path up, else the Directory flags of a new name
+     * @return short iNumber, -1 if the path does not exist and was not created
+     */
+    private short resolve(String path, int create)
+    {
+        String[] parts = split(path);
+        if (parts == null)
+            return -1;
+        if (parts.length == 0)
+            return 0;
+        String name = parts[parts.length - 1];
+        long since = Stats.now();
+        synchronized (namespace)
+        {
+            Stats.lockWait(since);
+            short dir = walk(parts, parts.length - 1);
+            if (dir < 0)
+                return -1;
+            short iNumber = lookup(dir, name);
+            if (iNumber >= 0 || create < 0)
+                return iNumber;
+            return link(dir, name, create);
+        }
+    }
+
+    /**
+     * walk(String parts[], int count)
+     * Follows the first count components of a path from the root.  Must be called holding the namespace lock.
+     * @param parts
+     * @param count
+     * @return short iNumber of the directory reached, -1 if a component is missing or is not a directory
+     */
+    private short walk(String parts[], int count)
+    {
+        short dir = 0;
+        for (int i = 0; i < count; i++)
+        {
+            dir = lookup(dir, parts[i]);
+            if (dir < 0 || !directory.isDirectory(dir))
+                return -1;
+        }
+        return dir;
+    }
+
+    /**
+     * lookup(short dir, String name)
+     * Finds name in one directory: the root through its name index, a subdirectory through the dentry cache, reading
+     * its entries only on a cache miss.  Must be called holding the namespace lock.
+     * @param dir
+     * @param name
+     * @return short iNumber, -1 if dir has no such name
+     */
+    private short lookup(short dir, String name)
+    {
+        if (dir == 0)
+            return directory.namei(name);
+        int cached = dentries.get(dir, name);
+        if (cached != DentryCache.UNKNOWN)
+            return (short) cached;
+        short iNumber = -1;
+        byte[] data = entries(dir);
+        for (int offset = 0; offset + Directory.entrySize <= data.length; offset += Directory.entrySize)
+        {
+            short entry = Directory.entryINumber(data, offset);
+            if (entry != 0 && Directory.entryName(data, offset).equalsIgnoreCase(name))
+            {
+                iNumber = entry;
+                break;
+            }
+        }
+        dentries.put(dir, name, iNumber);
+        return iNumber;
+    }
+
+    /**
+     * entries(short dir)
+     * Reads the whole entry file of a subdirectory.  Must be called holding the namespace lock.
+     * @param dir
+     * @return byte[] the entries
+     */
+    private byte[] entries(short dir)
+    {
+        FileTableEntry dirEnt = filetable.fAlloc(dir, "r");
+        byte[] data = new byte[fsize(dirEnt)];
+        read(dirEnt, data);
+        close(dirEnt);
+        return data;
+    }
+
+    /**
+     * link(short dir, String name, int kind)
+     * Allocates an inode for a new file or directory and enters it in dir under name, in one journal operation with
+     * the root directory blocks that changed.  Must be called holding the namespace lock.
+     * @param dir
+     * @param name
+     * @param kind Directory.DIRECTORY for a directory, 0 for a file
+     * @return short iNumber of the new name, -1 if no inode is left, the name is invalid or dir is full
+     */
+    private short link(short dir, String name, int kind)
+    {
+        if (!Directory.validName(name))
+            return -1;
+        short iNumber = directory.iAlloc(name, (dir == 0) ? kind : kind | Directory.NESTED);
+        if (iNumber <= 0)
+            return -1;
+        Kernel.journal.begin();
+        if (dir != 0 && !storeEntry(dir, freeEntry(dir), iNumber, name))
+        {
+            directory.iFree(iNumber);
+            iNumber = -1;
+        }
+        syncDirectory();
+        Kernel.journal.end();
+        if (dir != 0)
+            dentries.put(dir, name, iNumber);
+        return iNumber;
+    }
+
+    /**
+     * unlink(short dir, String name, short iNumber)
+     * Removes name from dir and frees its inode number, in one journal operation with the root directory blocks
+     * that changed.  The file must already be truncated.  Must be called holding the namespace lock.
+     * @param dir
+     * @param name
+     * @param iNumber
+     */
+    private void unlink(short dir, String name, short iNumber)
+    {
+        Kernel.journal.begin();
+        if (dir != 0)
+        {
+            byte[] data = entries(dir);
+            for (int offset = 0; offset + Directory.entrySize <= data.length; offset += Directory.entrySize)
+            {
+                if (Directory.entryINumber(data, offset) == iNumber)
+                {
+                    storeEntry(dir, offset, (short) 0, "");
+                    break;
+                }
+            }
+            dentries.put(dir, name, (short) -1);
+        }
+        directory.iFree(iNumber);
+        syncDirectory();
+        Kernel.journal.end();
+    }
+
+    /**
+     * freeEntry(short dir)
+     * @param dir
+     * @return int offset of the first unused entry of a subdirectory, its size if every entry is used
+     */
+    private int freeEntry(short dir)
+    {
+        byte[] data = entries(dir);
+        for (int offset = 0; offset + Directory.entrySize <= data.length; offset += Directory.entrySize)
+        {
+            if (Directory.entryINumber(data, offset) == 0)
+                return offset;
+        }
+        return data.length;
+    }
+
+    /**
+     * storeEntry(short dir, int offset, short iNumber, String name)
+     * Writes one entry of a subdirectory through the journal, allocating a block when the directory grows.
+     * @param dir
+     * @param offset
+     * @param iNumber 0 to clear the entry
+     * @param name
+     * @return true upon success, false if the disk is full
+     */
+    private boolean storeEntry(short dir, int offset, short iNumber, String name)
+    {
+        FileTableEntry dirEnt = filetable.fAlloc(dir, "w+");
+        boolean stored;
+        synchronized (dirEnt)
+        {
+            Kernel.journal.begin();
+            int allocatedBefore = allocated();
+            byte[] data = new byte[Disk.blockSize];
+            int location = findTargetBlock(dirEnt, offset);
+            if (location < 0)
+                location = registerTargetBlock(dirEnt, offset, 1);     // a new block starts out all unused
+            else
+                SysLib.cread(location, data);
+            stored = location >= 0;
+            if (stored)
+            {
+                Directory.putEntry(data, offset % Disk.blockSize, iNumber, name);
+                Kernel.journal.write(location, data);
+                if (offset + Directory.entrySize > dirEnt.iNode.fileSize)
+                {
+                    dirEnt.iNode.fileSize = offset + Directory.entrySize;
+                    dirEnt.iNode.markDirty();
+                    filetable.flush(dirEnt);
+                }
+            }
+            endOperation(dirEnt, allocatedBefore);
+        }
+        close(dirEnt);
+        return stored;
+    }
+
+    /**
+     * deallocAllBlocks(FileTableEntry fileEntry)
+     * Walks the inode of the file and returns every direct block, every data and index block reachable from the
+     * indirect, double-indirect and triple-indirect pointers (or every block of every extent and the extent block),
+     * to the free-block bitmap in batches of up to one block's worth of addresses, then resets the inode to an
+     * empty file.  Blocks reserved past the end of the file by fallocate are reclaimed as well.  The freed blocks
+     * stay pending in the bitmap until the truncation has committed.
+     * The caller must hold the file exclusively (opened with "w").
+     * @param fileEntry
+     * @return true if the blocks were reclaimed, else false
+     */
+    boolean deallocAllBlocks(FileTableEntry fileEntry)
+    {
+        if (fileEntry == null)
+            return false;
+
+        synchronized (fileEntry)
+        {
+            Kernel.journal.begin();
+            Inode iNode = fileEntry.iNode;
+            int[] batch = new int[Disk.blockSize];
+            int count = 0;
+
+            for (int i = 0; i < iNode.direct.length; i++)
+            {
+                if (iNode.direct[i] > 0)
+                    count = reclaimBlock(batch, count, iNode.direct[i]);
+            }
+            if (Inode.version == Inode.VERSION_EXTENT)
+            {
+                for (int i = 0; i < Inode.inlineExtents; i++)
+                {
+                    for (int j = 0; j < iNode.extentLength[i]; j++)
+                        count = reclaimBlock(batch, count, iNode.extentStart[i] + j);
+                }
+                if (iNode.indirect > 0)
+                    count = reclaimExtents(batch, count, iNode.indirect);
+            }
+            else if (iNode.indirect > 0)
+                count = reclaimTree(batch, count, iNode.indirect, 1);
+            if (iNode.doubleIndirect > 0)
+                count = reclaimTree(batch, count, iNode.doubleIndirect, 2);
+            if (iNode.tripleIndirect > 0)
+                count = reclaimTree(batch, count, iNode.tripleIndirect, 3);
+            freeBlockMap.free(batch, count);
+
+            iNode.clearPointers();
+            iNode.fileSize = 0;
+            fileEntry.seekPtr = 0;
+            iNode.markDirty();
+            endOperation(fileEntry, -1);
+            return true;
+        }
+    }
+
+    /**
+     * reclaimBlock(int[] batch, int count, int block)
+     * Adds a block to the batch of blocks being freed, handing a full batch to the free-block bitmap first.
+     * @param batch
+     * @param count number of blocks already in the batch
+     * @param block
+     * @return int number of blocks in the batch afterwards
+     */
+    private int reclaimBlock(int[] batch, int count, int block)
+    {
+        if (count == batch.length)
+        {
+            freeBlockMap.free(batch, count);
+            count = 0;
+        }
+        batch[count++] = block;
+        return count;
+    }
+
+    /**
+     * reclaimExtents(int[] batch, int count, int block)
+     * Adds every block of the extents listed in an extent block, and the extent block itself, to the batch of
+     * blocks being freed.
+     * @param batch
+     * @param count number of blocks already in the batch
+     * @param block extent block
+     * @return int number of blocks in the batch afterwards
+     */
+    private int reclaimExtents(int[] batch, int count, int block)
+    {
+        byte[] data = new byte[Disk.blockSize];
+        SysLib.cread(block, data);
+        for (int i = 0; i < Disk.blockSize / Inode.extentSize; i++)
+        {
+            int start = SysLib.bytes2int(data, i * Inode.extentSize);
+            int length = SysLib.bytes2int(data, i * Inode.extentSize + 4);
+            for (int j = 0; j < length; j++)
+                count = reclaimBlock(batch, count, start + j);
+        }
+        return reclaimBlock(batch, count, block);
+    }
+
+    /**
+     * reclaimTree(int[] batch, int count, int block, int levels)
+     * Adds an index block and everything below it to the batch of blocks being freed.
+     * @param batch
+     * @param count number of blocks already in the batch
+     * @param block index block at the top of the tree
+     * @param levels 1 if block points at data blocks, 2 if it points at single index blocks, and so on
+     * @return int number of blocks in the batch afterwards
+     */
+    private int reclaimTree(int[] batch, int count, int block, int levels)
+    {
+        byte[] data = new byte[Disk.blockSize];
+        SysLib.cread(block, data);
+        int perBlock = Disk.blockSize / Inode.pointerSize();
+        for (int i = 0; i < perBlock; i++)
+        {
+            int child = Inode.readPointer(data, i);
+            if (child < 0)
+                continue;
+            if (levels > 1)
+                count = reclaimTree(batch, count, child, levels - 1);
+            else
+                count = reclaimBlock(batch, count, child);
+        }
+        return reclaimBlock(batch, count, block);
     }
 
     /**
@@ -388,118 +1226,326 @@ public class FileSystem
                         fileEntry.seekPtr = this.fsize(fileEntry) + offset;
                     break;
             }
+            // a seek anywhere but where the last read ended breaks sequential access, so drop the read-ahead window
+            if (fileEntry.seekPtr != fileEntry.nextRead)
+            {
+                fileEntry.nextRead = -1;
+                fileEntry.readAhead = 0;
+                fileEntry.prefetched = 0;
+            }
             return fileEntry.seekPtr;
         }
     }
 
     /**
-     * registerTargetBlock(FileTableEntry fileEntry, int entry, short offset)
-     * This method adds a block to an inodes pointer if 11 or less blocks added to
-     * direct pointer, if greater than 11 but less than 267 indirect pointer
+     * registerTargetBlock(FileTableEntry fileEntry, int offset, int wanted)
+     * This method allocates the data block holding byte offset of the file, together with any index block on the
+     * way to it that does not exist yet: the indirect block past the direct pointers, then the double-indirect and
+     * triple-indirect trees when the inode format version has them.  Extent files instead allocate a contiguous
+     * run of up to wanted blocks, growing the last extent in place when the blocks after it are free.
      * @param fileEntry
-     * @param entry
      * @param offset
-     * @return
+     * @param wanted number of blocks the caller is about to fill, starting with this one
+     * @return int address of the new block, -1 indicating error
+     */
+    int registerTargetBlock(FileTableEntry fileEntry, int offset, int wanted)
+    {
+        return mapBlock(fileEntry.iNode, offset / Disk.blockSize, true, wanted);
+    }
+
+    /**
+     * registerIndexBlock()
+     * This method finds a free block to be used as an index block and fills it with unused (-1) addresses.
+     * @return int address of the index block, -1 if the disk is full
      */
-    int registerTargetBlock(FileTableEntry fileEntry, int entry, short offset){
-        int target = entry/Disk.blockSize;
+    int registerIndexBlock()
+    {
+        int blockNumber = findFreeBlock();
+        if (blockNumber < 0)
+            return -1;
 
-        if (target < 11)
+        // -1 is all one bits in both the short and int address formats
+        byte[] data = new byte[Disk.blockSize];
+        for (int i = 0; i < Disk.blockSize; i++)
         {
-            if(fileEntry.iNode.direct[target] >= 0){
-                return -1;
-            }
+            data[i] = (byte) 0xff;
+        }
+        Kernel.journal.write(blockNumber, data);
+        return blockNumber;
+    }
 
-            if ((target > 0 ) && (fileEntry.iNode.direct[target - 1 ] == -1))
-            {
-                return -2;
-            }
+    /**
+     * findTargetBlock(FileTableEntry fileEntry, int offset)
+     * This is used to find the address of a target block that is being read from.  If block
+     * is found on disk returns address, else -1 indicating error
+     * @param fileEntry
+     * @param offset
+     * @return int address of block, -1 indicating error
+     */
+    int findTargetBlock(FileTableEntry fileEntry, int offset)
+    {
+        return mapBlock(fileEntry.iNode, offset / Disk.blockSize, false, 0);
+    }
 
-            fileEntry.iNode.direct[target] = offset;
-            return 0;
-        }
+    /**
+     * mapBlock(Inode iNode, int target, boolean allocate, int wanted)
+     * Translates the target-th block of a file into a disk address.  Blocks past the direct pointers are found by
+     * walking the indirect, double-indirect or triple-indirect tree; the index blocks along the walk are cached by
+     * the inode so sequential access reads each of them once.  When allocate is set, missing index and data blocks
+     * are allocated on the way.  Extent files are handed to mapExtent.
+     * @param iNode
+     * @param target block number within the file
+     * @param allocate
+     * @param wanted number of blocks to allocate contiguously for extent files
+     * @return int address of block, -1 if it does not exist (or could not be allocated)
+     */
+    private int mapBlock(Inode iNode, int target, boolean allocate, int wanted)
+    {
+        if (Inode.version == Inode.VERSION_EXTENT)
+            return mapExtent(iNode, target, allocate, wanted);
 
-        if (fileEntry.iNode.indirect < 0)
+        synchronized (iNode)
         {
-            return -3;
-        }
+            if (target < iNode.direct.length)
+            {
+                if (iNode.direct[target] < 0 && allocate)
+                    iNode.direct[target] = findFreeBlock();
+                return iNode.direct[target];
+            }
 
-        else{
-            byte[] data = new byte[Disk.blockSize];
-            SysLib.rawread(fileEntry.iNode.indirect,data);
+            int perBlock = Disk.blockSize / Inode.pointerSize();
+            int index = target - iNode.direct.length;
+            int span = perBlock;
+            int levels = 1;
+            while (index >= span)
+            {
+                index -= span;
+                span *= perBlock;
+                levels++;
+                if (levels > Inode.indirectLevels())
+                    return -1;              // past the largest file this format can describe
+            }
 
-            int blockSpace = (target - 11) * 2;
-            if ( SysLib.bytes2short(data, blockSpace) > 0)
+            int block = (levels == 1) ? iNode.indirect : (levels == 2) ? iNode.doubleIndirect : iNode.tripleIndirect;
+            if (block < 0)
             {
-                return -1;
+                if (!allocate || (block = registerIndexBlock()) < 0)
+                    return -1;
+                if (levels == 1)
+                    iNode.indirect = block;
+                else if (levels == 2)
+                    iNode.doubleIndirect = block;
+                else
+                    iNode.tripleIndirect = block;
             }
-            else
+
+            for (int level = 0; level < levels; level++)
             {
-                SysLib.short2bytes(offset, data, blockSpace);
-                SysLib.rawwrite(fileEntry.iNode.indirect, data);
+                span /= perBlock;
+                int slot = (index / span) % perBlock;
+                int next = Inode.readPointer(iNode.readIndex(level, block), slot);
+                if (next < 0)
+                {
+                    if (!allocate)
+                        return -1;
+                    next = (level == levels - 1) ? findFreeBlock() : registerIndexBlock();
+                    if (next < 0)
+                        return -1;
+                    iNode.writeIndex(level, block, slot, next);
+                }
+                block = next;
             }
+            return block;
         }
-        return 0;
     }
 
     /**
-     * registerIndexBlock(FileTableEntry fileEntry, short blockNumber)
-     * This method finds a free block to assign to the 12th direct address pointer in an inode
-     * to be used as an index block for indirect pointers within the inode
-     * @param fileEntry
-     * @param blockNumber
-     * @return true if index block allocated, else return false
+     * mapExtent(Inode iNode, int target, boolean allocate, int wanted)
+     * Translates the target-th block of an extent file into a disk address by walking its extents in file order,
+     * first the ones in the inode and then the ones in its extent block.  Extent files only grow at their end, so
+     * when allocate is set and target is the first unmapped block, up to wanted blocks are allocated: in place
+     * after the last extent when those blocks are free, otherwise as a new extent starting wherever the allocator
+     * finds a free run.
+     * @param iNode
+     * @param target block number within the file
+     * @param allocate
+     * @param wanted number of blocks to allocate contiguously
+     * @return int address of block, -1 if it does not exist (or could not be allocated)
      */
-    boolean registerIndexBlock(FileTableEntry fileEntry, short blockNumber)
+    private int mapExtent(Inode iNode, int target, boolean allocate, int wanted)
     {
-        for (int i = 0; i < 11; i++)
+        synchronized (iNode)
         {
-            if (fileEntry.iNode.direct[i] == -1)
+            int slots = Inode.inlineExtents + Disk.blockSize / Inode.extentSize;
+            int base = 0;                   // file block number where the current extent starts
+            int slot = 0;
+            int lastStart = -1;             // the last extent in use
+            int lastLength = 0;
+            for (; slot < slots; slot++)
             {
-                return false;
+                int start;
+                int length;
+                if (slot < Inode.inlineExtents)
+                {
+                    start = iNode.extentStart[slot];
+                    length = iNode.extentLength[slot];
+                }
+                else if (iNode.indirect > 0)
+                {
+                    byte[] data = iNode.readIndex(0, iNode.indirect);
+                    start = SysLib.bytes2int(data, (slot - Inode.inlineExtents) * Inode.extentSize);
+                    length = SysLib.bytes2int(data, (slot - Inode.inlineExtents) * Inode.extentSize + 4);
+                }
+                else
+                {
+                    break;
+                }
+                if (length <= 0)
+                    break;
+                if (target < base + length)
+                    return start + (target - base);
+                base += length;
+                lastStart = start;
+                lastLength = length;
             }
+
+            if (!allocate || target != base)
+                return -1;
+            wanted = Math.max(1, Math.min(wanted, Inode.maxExtentLength));
+
+            // grow the last extent in place if the blocks right after it are free
+            if (slot > 0 && lastLength < Inode.maxExtentLength)
+            {
+                int grown = freeBlockMap.allocateAt(lastStart + lastLength,
+                                                    Math.min(wanted, Inode.maxExtentLength - lastLength));
+                if (grown > 0)
+                {
+                    allocations.get()[0] += grown;
+                    setExtent(iNode, slot - 1, lastStart, lastLength + grown);
+                    return lastStart + lastLength;
+                }
+            }
+
+            // otherwise start a new extent
+            if (slot >= slots)
+                return -1;                  // no extent slot left
+            if (slot >= Inode.inlineExtents && iNode.indirect < 0)
+            {
+                iNode.indirect = registerIndexBlock();
+                if (iNode.indirect < 0)
+                    return -1;
+            }
+            int[] run = new int[2];
+            if (!freeBlockMap.allocateRun(wanted, run))
+                return -1;
+            allocations.get()[0] += run[1];
+            setExtent(iNode, slot, run[0], run[1]);
+            return run[0];
         }
+    }
 
-        if (fileEntry.iNode.indirect != -1)
+    /**
+     * setExtent(Inode iNode, int slot, int start, int length)
+     * Records an extent either in the inode or in its extent block.
+     * @param iNode
+     * @param slot
+     * @param start
+     * @param length
+     */
+    private void setExtent(Inode iNode, int slot, int start, int length)
+    {
+        if (slot < Inode.inlineExtents)
         {
-            return false;
+            iNode.extentStart[slot] = start;
+            iNode.extentLength[slot] = length;
         }
-
-        fileEntry.iNode.indirect = blockNumber;
-        byte[ ] data = new byte[Disk.blockSize];
-
-        for(int i = 0; i < (Disk.blockSize/2); i++)
+        else
         {
-            SysLib.short2bytes((short) -1, data, i * 2);
+            iNode.writeExtent(iNode.indirect, slot - Inode.inlineExtents, start, length);
         }
-        SysLib.rawwrite(blockNumber, data);
-        return true;
     }
 
     /**
-     * findTargetBlock(FileTableEntry fileEntry, int offset)
-     * This is used to find the address of a target block that is being read from.  If block
-     * is found on disk returns address, else -1 indicating error
+     * fallocate(FileTableEntry fileEntry, int bytes)
+     * Reserves the blocks a file needs to hold its first bytes bytes, without changing its size, so later writes
+     * up to that size need no allocation.  Extent files get the space as contiguous runs.
      * @param fileEntry
-     * @param offset
-     * @return int address of block, -1 indicating error
+     * @param bytes
+     * @return int 0 upon success, -1 if the entry is read only or the disk is full
      */
-    int findTargetBlock(FileTableEntry fileEntry, int offset)
+    int fallocate(FileTableEntry fileEntry, int bytes)
     {
-        int target = (offset / Disk.blockSize);
+        if (fileEntry == null || fileEntry.mode.equals("r") || bytes < 0)
+            return -1;
+        if (freeBlockMap.freeBlocks() < bytes / Disk.blockSize + reclaimThreshold)
+            releaseFreed();
 
-        if (target < 11){
-            return fileEntry.iNode.direct[target];
+        synchronized (fileEntry)
+        {
+            Kernel.journal.begin();
+            int allocatedBefore = allocated();
+            int blocks = (bytes + Disk.blockSize - 1) / Disk.blockSize;
+            for (int target = 0; target < blocks; target++)
+            {
+                if (Kernel.journal.crowded())
+                {
+                    fileEntry.iNode.markDirty();
+                    allocatedBefore = restartOperation(fileEntry, allocatedBefore);
+                }
+                if (mapBlock(fileEntry.iNode, target, false, 0) < 0
+                        && mapBlock(fileEntry.iNode, target, true, blocks - target) < 0)
+                {
+                    endOperation(fileEntry, allocatedBefore);
+                    return -1;
+                }
+            }
+            fileEntry.iNode.markDirty();
+            endOperation(fileEntry, allocatedBefore);
+            return 0;
         }
+    }
 
-        if (fileEntry.iNode.indirect < 0){
-            return -1;
+    /**
+     * endOperation(FileTableEntry fileEntry, int allocatedBefore)
+     * Ends the journal operation of a write, truncation or fallocate.  If the operation allocated or freed blocks,
+     * the inode and the bitmap are written first, so they commit together with the index blocks it changed.
+     * @param fileEntry
+     * @param allocatedBefore allocated() when the operation began, -1 if blocks were freed
+     */
+    private void endOperation(FileTableEntry fileEntry, int allocatedBefore)
+    {
+        if (allocatedBefore != allocated())
+        {
+            filetable.flush(fileEntry);
+            freeBlockMap.sync();
         }
+        Kernel.journal.end();
+    }
 
-        byte[] data = new byte[Disk.blockSize];
-        SysLib.rawread(fileEntry.iNode.indirect, data);
+    /**
+     * restartOperation(FileTableEntry fileEntry, int allocatedBefore)
+     * Ends the journal operation of a long write or fallocate between two of its blocks and begins the next one, so
+     * its metadata is spread over transactions that each fit in the journal.
+     * @param fileEntry
+     * @param allocatedBefore allocated() when the operation began
+     * @return int allocated() when the new operation begins
+     */
+    private int restartOperation(FileTableEntry fileEntry, int allocatedBefore)
+    {
+        endOperation(fileEntry, allocatedBefore);
+        Kernel.journal.begin();
+        return allocated();
+    }
 
-        int blk = (target - 11) * 2;
-        return SysLib.bytes2short(data, blk);
+    /**
+     * releaseFreed()
+     * Commits the journal and makes the blocks freed before the commit available for allocation again.  Must not
+     * be called inside a journal operation.
+     */
+    private void releaseFreed()
+    {
+        int mark = freeBlockMap.pendingMark();
+        if (mark > 0 && Kernel.journal.commit())
+            freeBlockMap.release(mark);
     }
-}
\ No newline at end of file
+}
@@ -1,3 +1,5 @@
+import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
 /**
@@ -17,12 +19,26 @@ import java.util.Vector;
  *  3. The file system locates the corresponding inode and records it in this file (structure) table entry.
  *  4. The user thread finally registers a reference to this file (structure) table entry in its file descriptor
  *      table entry of the TCB.
+ *
+ * Inodes of open files are kept in an in-memory inode table keyed by iNumber.  Every FileTableEntry for the same
+ * file shares one Inode, whose count is the number of entries referring to it.  The inode is read from disk only
+ * when it enters the table on first open.  Writes only mark it dirty; it is written back, if dirty, when its last
+ * entry is freed, on flush() of one entry, and on sync(), which stores all dirty inodes of one inode block with a
+ * single read and write of that block.
+ *
+ * The table monitor only guards the inode table itself and never waits or does disk I/O.  Each shared Inode is
+ * also the reader/writer gate for its file:
+ *      "r": shares the file with other readers (usedFlag = 2), waits while a writer holds it
+ *      "w", "w+", "a": holds the file exclusively (usedFlag = 3), waits while anyone else holds it
+ * so opens of different files never block each other, and closing a file only wakes threads waiting on that file.
+ * The time threads wait for the table, for an inode being loaded and at a gate is reported to Stats.
  */
 
 public class FileTable
 {
     private Vector table;                           // the actual entity of this file table
     private Directory directory;                    // the root directory
+    private Hashtable<Short, Inode> inodes;         // in-memory inode table, iNumber to shared Inode
 
     /**
      * FileTable( Directory directory )
@@ -32,84 +48,251 @@ public class FileTable
     public FileTable( Directory directory )
     {                                               // constructor
         table = new Vector( );                      // instantiate a file (structure) table
+        inodes = new Hashtable<Short, Inode>( );    // instantiate the in-memory inode table
         this.directory = directory;                 // receive a reference to the Director
     }                                               // from the file system
 
     /**
-     * fAlloc( String filename, String mode )
-     * This method allocates a new file (structure) table entry for this file name
-     * Allocate/retrieve and register the corresponding inode using directory
-     * Increment this inode's count
-     * Immediately writes back this inode to disk
-     * @param filename
-     * @param mode
-     * @return FileTableEntry if success returns a FileTableEntry object, else null if error
+     * getInode( short iNumber )
+     * Returns the shared in-memory inode for iNumber and counts the caller as one of its references.  If the inode
+     * is not in the table yet, an empty placeholder is registered under the table lock and filled from disk outside
+     * of it; other threads opening the same file wait on the placeholder until it is loaded.  An inode entering the
+     * table has no file table entries, so any count or usage left on disk is reset.
+     * @param iNumber
+     * @return Inode shared by every FileTableEntry of this file
      */
-    public synchronized FileTableEntry fAlloc( String filename, String mode )
+    private Inode getInode( short iNumber )
     {
-        short iNumber;
+        Short key = Short.valueOf(iNumber);
         Inode iNode;
+        boolean load = false;
+        long since = Stats.now();
+        synchronized (this)
+        {
+            Stats.lockWait(since);
+            iNode = inodes.get(key);
+            if (iNode == null)
+            {
+                iNode = new Inode();
+                iNode.loaded = false;
+                inodes.put(key, iNode);
+                load = true;
+            }
+            iNode.count++;
+        }
 
-        while (true)
+        since = Stats.now();
+        synchronized (iNode)
         {
-            iNumber = (filename.equals("/") ? (short) 0 : directory.namei(filename));
+            if (load)
+            {
+                short references = iNode.count;
+                iNode.fromDisk(iNumber);
+                iNode.count = references;
+                if (iNode.usedFlag > 1)
+                    iNode.usedFlag = 1;
+                // a file that was just created still has an unused inode on disk
+                if (iNode.usedFlag == 0)
+                {
+                    iNode.usedFlag = 1;
+                    iNode.dirty = true;
+                }
+                iNode.loaded = true;
+                iNode.notifyAll();
+            }
+            while (!iNode.loaded)
+            {
+                try
+                {
+                    iNode.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    SysLib.cerr("Inode Load Error");
+                }
+            }
+            if (!load)
+                Stats.lockWait(since);          // the loading thread's time is disk time
+        }
+        return iNode;
+    }
 
-            if (iNumber >= 0)
+    /**
+     * putInode( short iNumber, Inode iNode )
+     * Drops one reference to a shared inode.  The last reference writes the inode back to disk if it is dirty,
+     * outside of the table lock.  The inode stays in the table until every such write-back has finished, so an
+     * open in the meantime shares it instead of reading an image from disk that a write-back still in progress
+     * would overwrite; the last write-back to finish removes it unless another open picked it up.
+     * @param iNumber
+     * @param iNode
+     */
+    private void putInode( short iNumber, Inode iNode )
+    {
+        boolean last;
+        synchronized (this)
+        {
+            iNode.count--;
+            last = (iNode.count == 0);
+            if (last)
+                iNode.writingBack++;
+        }
+        if (last)
+        {
+            if (iNode.isDirty())
+                iNode.toDisk(iNumber);
+            synchronized (this)
             {
-                iNode = new Inode(iNumber);
-                if (mode.equals("r"))
+                iNode.writingBack--;
+                Short key = Short.valueOf(iNumber);
+                if (iNode.count == 0 && iNode.writingBack == 0 && inodes.get(key) == iNode)
+                    inodes.remove(key);
+            }
+        }
+    }
+
+    /**
+     * acquire( Inode iNode, String mode )
+     * Passes the reader/writer gate of a file: "r" waits only for a writer, every other mode waits until nobody
+     * else holds the file.
+     * @param iNode
+     * @param mode
+     */
+    private void acquire( Inode iNode, String mode )
+    {
+        long since = Stats.now();
+        synchronized (iNode)
+        {
+            if (mode.equals("r"))
+            {
+                while (iNode.usedFlag == 3)
                 {
-                    if (iNode.usedFlag == 0 || iNode.usedFlag == 1 || iNode.usedFlag == 2)
+                    try
                     {
-                        iNode.usedFlag = 2;
-                        break;
+                        iNode.wait();
                     }
-                    else if (iNode.usedFlag == 3)
+                    catch (InterruptedException e)
                     {
-                        try
-                        {
-                            wait();
-                        }
-                        catch (InterruptedException e)
-                        {
-                            SysLib.cerr("Read Error");
-                        }
+                        SysLib.cerr("Read Error");
                     }
                 }
-                else
+                iNode.usedFlag = 2;
+                iNode.readers++;
+            }
+            else
+            {
+                while (iNode.usedFlag == 2 || iNode.usedFlag == 3)
                 {
-                    if (iNode.usedFlag == 1 || iNode.usedFlag == 0)
+                    try
                     {
-                        iNode.usedFlag = 3;
-                        break;
+                        iNode.wait();
                     }
-                    else
+                    catch (InterruptedException e)
                     {
-                        try
-                        {
-                            wait();
-                        }
-                        catch (InterruptedException e)
-                        {
-                            SysLib.cerr("Write Error");
-                        }
+                        SysLib.cerr("Write Error");
                     }
                 }
+                iNode.usedFlag = 3;
             }
-            else if (!mode.equals("r"))
+            Stats.lockWait(since);
+        }
+    }
+
+    /**
+     * release( Inode iNode, String mode )
+     * Leaves the reader/writer gate of a file and wakes the threads waiting on this file only.
+     * @param iNode
+     * @param mode
+     */
+    private void release( Inode iNode, String mode )
+    {
+        synchronized (iNode)
+        {
+            if (mode.equals("r"))
             {
-                iNumber = directory.iAlloc(filename);
-                iNode = new Inode(iNumber);
-                iNode.usedFlag = 3;
-                break;
+                iNode.readers--;
+                if (iNode.readers == 0)
+                    iNode.usedFlag = 1;
             }
             else
             {
-                return null;
+                iNode.usedFlag = 1;
+            }
+            iNode.notifyAll();
+        }
+    }
+
+    /**
+     * sync( )
+     * Writes every dirty inode in the in-memory inode table back to disk.  The table is copied under its lock and
+     * the inodes are written outside of it, grouped by inode block so each block is read and written once.
+     */
+    public void sync( )
+    {
+        Hashtable<Short, Inode> snapshot;
+        synchronized (this)
+        {
+            snapshot = new Hashtable<Short, Inode>(inodes);
+        }
+        // inode block number to the dirty inodes it holds
+        Hashtable<Integer, Vector<Short>> blocks = new Hashtable<Integer, Vector<Short>>( );
+        for (Enumeration<Short> e = snapshot.keys(); e.hasMoreElements(); )
+        {
+            Short iNumber = e.nextElement();
+            Inode iNode = snapshot.get(iNumber);
+            if (!iNode.loaded || !iNode.isDirty())
+                continue;
+            Integer block = Integer.valueOf(Inode.blockOf(iNumber.shortValue()));
+            Vector<Short> dirty = blocks.get(block);
+            if (dirty == null)
+            {
+                dirty = new Vector<Short>( );
+                blocks.put(block, dirty);
             }
+            dirty.addElement(iNumber);
         }
-        iNode.count++;
-        iNode.toDisk(iNumber);
+        for (Enumeration<Vector<Short>> e = blocks.elements(); e.hasMoreElements(); )
+        {
+            Vector<Short> dirty = e.nextElement();
+            short[] iNumbers = new short[dirty.size()];
+            Inode[] iNodes = new Inode[dirty.size()];
+            for (int i = 0; i < iNumbers.length; i++)
+            {
+                iNumbers[i] = dirty.elementAt(i).shortValue();
+                iNodes[i] = snapshot.get(dirty.elementAt(i));
+            }
+            Inode.toDisk(iNumbers, iNodes, iNumbers.length);
+        }
+    }
+
+    /**
+     * flush( FileTableEntry entry )
+     * Writes the inode of one open file back to disk if it is dirty.
+     * @param entry
+     */
+    public void flush( FileTableEntry entry )
+    {
+        if (entry.iNode.isDirty())
+            entry.iNode.toDisk(entry.iNumber);
+    }
+
+    /**
+     * fAlloc( short iNumber, String mode )
+     * This method allocates a new file (structure) table entry for the file with this inode number, which the file
+     * system has resolved from its path name (and allocated, if the file is being created)
+     * Retrieve and register the corresponding inode
+     * Increment this inode's count, the inode is shared through the in-memory inode table
+     * Waits at the inode's reader/writer gate until the file can be opened in this mode
+     * @param iNumber
+     * @param mode
+     * @return FileTableEntry if success returns a FileTableEntry object, else null if error
+     */
+    public FileTableEntry fAlloc( short iNumber, String mode )
+    {
+        if (iNumber < 0)
+            return null;
+
+        Inode iNode = getInode(iNumber);
+        acquire(iNode, mode);
         FileTableEntry entry = new FileTableEntry(iNode, iNumber, mode);
         table.addElement(entry);
         return entry;
@@ -118,33 +301,17 @@ public class FileTable
     /**
      * fFree( FileTableEntry entry )
      * This method receives a FileTableEntry object reference
-     * Saves the corresponding inode to disk
-     * Frees this file from table entry
+     * Frees this file from table entry and releases the inode's reader/writer gate
+     * Saves the corresponding inode to disk and drops it from the inode table once no entry refers to it
      * @param entry
      * @return return true if FileTableEntry found on table, else return false error
      */
-    public synchronized boolean fFree( FileTableEntry entry )
+    public boolean fFree( FileTableEntry entry )
     {
-        Inode inode = new Inode(entry.iNumber);
-        if (table.remove(entry))
-        {
-            if (inode.usedFlag == 2)
-            {
-                if (inode.count == 1)
-                {
-                    notify();
-                    inode.usedFlag = 1;
-                }
-            }
-            else if (inode.usedFlag == 3)
-            {
-                inode.usedFlag = 1;
-                notifyAll();
-            }
-            inode.count--;
-            inode.toDisk(entry.iNumber);
-            return true;
-        }
-        return false;
+        if (!table.remove(entry))
+            return false;
+        release(entry.iNode, entry.mode);
+        putInode(entry.iNumber, entry.iNode);
+        return true;
     }
 }
\ No newline at end of file
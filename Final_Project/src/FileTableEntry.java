@@ -10,6 +10,9 @@
  *      iNumber: this inode number
  *      count: # threads sharing this entry
  *      mode: "r" read, "w" write, "w+" write/read, "a" append to end of file, once set never changes
+ *      nextRead: seek pointer where the last read ended, -1 before the first read or after a seek elsewhere
+ *      readAhead: current read-ahead window in blocks, 0 while access is not sequential
+ *      prefetched: file block up to which read-ahead has already been requested
  */
 
 public class FileTableEntry
@@ -19,6 +22,9 @@ public class FileTableEntry
     public final short iNumber;
     public int count;
     public final String mode;
+    public int nextRead;
+    public int readAhead;
+    public int prefetched;
 
     /**
      * FileTableEntry ( Inode i, short iNumber, String m )
@@ -33,6 +39,9 @@ public class FileTableEntry
         this.iNumber = iNumber;
         this.count = 1;
         this.mode = mode;
+        this.nextRead = -1;
+        this.readAhead = 0;
+        this.prefetched = 0;
         if ( mode.compareTo( "a" ) == 0 )
             seekPtr = iNode.fileSize;
     }
@@ -0,0 +1,245 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * @Project: Final_Project
+ * @file: FsBench.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Throughput benchmark for the file system system calls.  It formats the disk and times each of these operations
+ * through SysLib, so the whole path through Kernel, FileSystem, FileTable, Directory, Inode and the cache is
+ * measured:
+ *      open+close          open an existing file for reading and close it
+ *      write 64B           sequential 64 byte writes to one open file
+ *      read 64B            sequential 64 byte reads from one open file
+ *      write 32KB          open with "w" (truncating), write 32 KB, close
+ *      read 32KB           open, read 32 KB, close
+ *      seek+read 512B      seek to a random block of a 32 KB file and read it
+ *      append 128B         open with "a", write 128 bytes, close
+ *      create              create an empty file, up to maxFiles
+ *      delete              delete one of those files
+ * Every benchmark runs one warm-up round, then rounds measured rounds of ops operations, and reports operations per
+ * second (mean, min and max over the rounds) and bytes allocated per operation by the calling thread.  Allocation
+ * counts only when the JVM can measure it per thread.
+ *
+ * The backend is chosen at boot: the simulated disk (default, slow, use a few ops), -DthreadOS.disk=mapped, or
+ * -DthreadOS.disk=memory, which keeps the disk in memory and leaves the file system as the only cost.  The disk is
+ * formatted again when done, so run it on a disk whose contents can be thrown away.
+ *
+ * Run from the ThreadOS shell:  l FsBench [ops [rounds]]
+ */
+
+public class FsBench extends Thread
+{
+    private final static String[] names = { "open+close", "write 64B", "read 64B", "write 32KB", "read 32KB",
+            "seek+read 512B", "append 128B", "create", "delete" };
+    private final static int inodes = 256;
+    private final static int defaultInodes = 64;    // as many as boot gives a blank disk, restored when done
+    private final static int maxFiles = inodes - 8;
+    private final static int largeBytes = 64 * Disk.blockSize;
+
+    private final int ops;
+    private final int rounds;
+    private final byte[] small = new byte[64];
+    private final byte[] large = new byte[largeBytes];
+    private final byte[] block = new byte[Disk.blockSize];
+    private final byte[] record = new byte[128];
+    private final Random random = new Random(1);
+    private int fd;
+    private int errors;
+
+    public FsBench( String args[] )
+    {
+        ops = Integer.parseInt(args[0]);
+        rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+    }
+
+    public FsBench( )
+    {
+        ops = 200;
+        rounds = 3;
+    }
+
+    public void run( )
+    {
+        SysLib.format(inodes);
+        fd = SysLib.open("large", "w");
+        SysLib.write(fd, large);
+        SysLib.close(fd);
+
+        SysLib.cout("backend " + System.getProperty("threadOS.disk", "simulated") + ", " + ops + " ops x "
+                + rounds + " rounds\n");
+        SysLib.cout("benchmark          ops/s      min      max     B/op\n");
+        for (int b = 0; b < names.length; b++)
+        {
+            int count = (b == 7 || b == 8) ? Math.min(ops, maxFiles) : ops;
+            errors = 0;
+            measure(b, count, null);                    // warm up
+            long[] rates = new long[rounds];
+            long allocated = 0;
+            for (int r = 0; r < rounds; r++)
+            {
+                long[] result = new long[2];
+                measure(b, count, result);
+                rates[r] = (result[0] > 0) ? count * 1000000000L / result[0] : 0;
+                allocated += result[1];
+            }
+
+            long sum = 0, min = Long.MAX_VALUE, max = 0;
+            for (int r = 0; r < rounds; r++)
+            {
+                sum += rates[r];
+                min = Math.min(min, rates[r]);
+                max = Math.max(max, rates[r]);
+            }
+            String bytes = (allocated >= 0) ? Long.toString(allocated / ((long) rounds * count)) : "n/a";
+            SysLib.cout(names[b] + spaces(15 - names[b].length()) + pad(sum / rounds, 9) + pad(min, 9)
+                    + pad(max, 9) + pad(bytes, 9) + (errors > 0 ? "  errors=" + errors : "") + "\n");
+        }
+        SysLib.format(defaultInodes);
+        SysLib.exit();
+    }
+
+    /**
+     * measure(int benchmark, int count, long result[])
+     * Runs count operations of one benchmark.  Setup and cleanup around the operations are not timed.
+     * @param benchmark index into names
+     * @param count
+     * @param result receives the elapsed ns and the bytes allocated (-1 if unknown), unless null
+     */
+    private void measure( int benchmark, int count, long result[] )
+    {
+        prepare(benchmark, count);
+        long allocated = allocated();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            operation(benchmark, i);
+        long elapsed = System.nanoTime() - start;
+        long after = allocated();
+        finish(benchmark);
+        if (result != null)
+        {
+            result[0] = elapsed;
+            result[1] = (allocated < 0 || after < 0) ? -1 : after - allocated;
+        }
+    }
+
+    private void prepare( int benchmark, int count )
+    {
+        switch (benchmark)
+        {
+            case 1:
+                fd = SysLib.open("small", "w");
+                break;
+            case 2:
+                fd = SysLib.open("small", "r");
+                break;
+            case 5:
+                fd = SysLib.open("large", "r");
+                break;
+            case 6:
+                SysLib.delete("log");
+                break;
+            case 7:
+                for (int i = 0; i < count; i++)
+                    SysLib.delete("m" + i);
+                break;
+            case 8:
+                for (int i = 0; i < count; i++)
+                    SysLib.close(SysLib.open("m" + i, "w"));
+                break;
+        }
+    }
+
+    private void operation( int benchmark, int i )
+    {
+        int file;
+        switch (benchmark)
+        {
+            case 0:
+                check(SysLib.close(SysLib.open("large", "r")) == 0);
+                break;
+            case 1:
+                check(SysLib.write(fd, small) == small.length);
+                break;
+            case 2:
+                if (SysLib.read(fd, small) != small.length)
+                {
+                    SysLib.seek(fd, 0, 0);
+                    check(SysLib.read(fd, small) == small.length);
+                }
+                break;
+            case 3:
+                file = SysLib.open("large", "w");
+                check(SysLib.write(file, large) == large.length);
+                SysLib.close(file);
+                break;
+            case 4:
+                file = SysLib.open("large", "r");
+                check(SysLib.read(file, large) == large.length);
+                SysLib.close(file);
+                break;
+            case 5:
+                SysLib.seek(fd, random.nextInt(largeBytes / Disk.blockSize) * Disk.blockSize, 0);
+                check(SysLib.read(fd, block) == block.length);
+                break;
+            case 6:
+                file = SysLib.open("log", "a");
+                check(SysLib.write(file, record) == record.length);
+                SysLib.close(file);
+                break;
+            case 7:
+                file = SysLib.open("m" + i, "w");
+                check(file >= 0);
+                SysLib.close(file);
+                break;
+            case 8:
+                check(SysLib.delete("m" + i) == 0);
+                break;
+        }
+    }
+
+    private void finish( int benchmark )
+    {
+        if (benchmark == 1 || benchmark == 2 || benchmark == 5)
+            SysLib.close(fd);
+    }
+
+    private void check( boolean passed )
+    {
+        if (!passed)
+            errors++;
+    }
+
+    /**
+     * allocated()
+     * @return long bytes allocated so far by this thread, -1 if the JVM cannot tell
+     */
+    private long allocated( )
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private String pad( long value, int width )
+    {
+        return pad(Long.toString(value), width);
+    }
+
+    private String pad( String text, int width )
+    {
+        return spaces(width - text.length()) + text;
+    }
+
+    private String spaces( int count )
+    {
+        String text = "";
+        for (int i = 0; i < count; i++)
+            text += " ";
+        return text;
+    }
+}
@@ -5,31 +5,75 @@
  * @last edit: 12/6/2015
  *
  * Starting from the blocks after the superblock will be the inode blocks. Each inode describes one file. This inode
- * is a simplified version of the Unix inode. It includes 12 pointers of the index block. The first 11 of these pointers
- * point to the direct blocks. The last pointer points to an indirect block. In addition each inode must include:
+ * is a simplified version of the Unix inode. In addition to its block pointers each inode must include:
  *      1. the length of the corresponding file
  *      2. the number of file (structure) table entries that point to this inode
  *      3. the flag to indicate if is unused (=0), used (=1), errot (=-3)
- * Note that 16 inodes can be stored in one block, and 256 indirect inode addresses in an index block using short for
- * addressing.
- * Note that short pointer value is address of block that it is pointed at, and short indirect pointer is the address
- * of the indirect index block.  The indirect index block stores all addresses congruently as shorts pointing to
- * addresses to blocks targeted by this inode. If no block is targeted short is 0
+ * Note that 16 inodes can be stored in one block whichever format version the disk uses.
+ *
+ * The disk is formatted with one of three inode format versions, recorded in the superblock:
+ *      VERSION_SHORT (1): 11 direct pointers and one indirect pointer, all shorts.  An index block holds 256 short
+ *          addresses, so a file is at most (11 + 256) blocks and the disk at most 32K blocks.
+ *      VERSION_INT (2): 3 direct pointers, one indirect, one double-indirect and one triple-indirect pointer, all
+ *          ints.  An index block holds 128 int addresses, so a file can reach (3 + 128 + 128^2 + 128^3) blocks.
+ *      VERSION_EXTENT (3): the file is a list of extents, runs of contiguous blocks stored as (int start, short
+ *          length), in file order.  3 extents fit in the inode; indirect then points to an extent block holding up
+ *          to 64 more (int start, int length) pairs.  An extent is unused once its length is not positive.
+ * In memory every pointer is an int regardless of the version.  A pointer that targets no block is -1, and an
+ * unused index block entry is -1 (or 0 in older index blocks); block 0 is the superblock so it is never a target.
+ *
+ * Each inode also keeps, in memory only, the index blocks it last walked through (one per level) so that sequential
+ * access does not read the same index block again for every data block.
+ *
+ * Changes to an open file's inode are only marked dirty in memory (markDirty); the FileTable writes dirty inodes back
+ * when the file is closed, on sync, periodically, or on fsync.  Dirty inodes that share an inode block are stored
+ * with a single read and write of that block (toDisk(short[], Inode[], int)).
  */
 
 public class Inode {
+    public final static int VERSION_SHORT = 1;     // 11 short direct pointers, short single indirect
+    public final static int VERSION_INT = 2;       // 3 int direct pointers, int single/double/triple indirect
+    public final static int VERSION_EXTENT = 3;    // 3 inline extents, int pointer to an extent block
+    public final static int inlineExtents = 3;     // extents stored in the inode itself
+    public final static int extentSize = 8;        // bytes per (start, length) pair in an extent block
+    public final static int maxExtentLength = Short.MAX_VALUE;
+    public static int version = VERSION_INT;       // inode format version of the mounted disk
+
     private final static int iNodeSize = 32;       // fix to 32 bytes
-    private final static int directSize = 11;      // # direct pointers
     private final static int maxBytes = 512;
     private final static int blockSize = 16;
     private final static int intBlock = 4;
     private final static int shortBlock = 2;
+    private final static int maxLevels = 3;        // deepest index tree, triple indirect
+    // 16 inodes share a block, so their read-modify-write in toDisk is serialized by a lock striped on the block;
+    // each lock guards the block buffer toDisk encodes inodes in.  fromDisk decodes in buffers of its own, striped
+    // the same way and locked on themselves, since it runs holding the inode and toDisk locks the inode last
+    private final static Object[] blockLocks = new Object[16];
+    private final static byte[][] blockBuffers = new byte[16][maxBytes];
+    private final static byte[][] readBuffers = new byte[16][maxBytes];
+    static
+    {
+        for (int i = 0; i < blockLocks.length; i++)
+            blockLocks[i] = new Object();
+    }
 
     public int fileSize;                           // file size in bytes
     public short count;                            // # file-table entries pointing to this, 0 for deletion
     public short usedFlag;                         // 0 = unused, 1 = used, ...
-    public short direct[] = new short[directSize]; // direct pointers
-    public short indirect;                         // a indirect pointer
+    public int direct[] = new int[directSize()];   // direct pointers
+    public int indirect;                           // a indirect pointer
+    public int doubleIndirect;                     // a double-indirect pointer, VERSION_INT only
+    public int tripleIndirect;                     // a triple-indirect pointer, VERSION_INT only
+    public int extentStart[] = new int[inlineExtents];  // first block of each inline extent, VERSION_EXTENT only
+    public int extentLength[] = new int[inlineExtents]; // blocks in each inline extent, 0 if unused
+
+    // in-memory only, used by the FileTable inode table and never written to disk
+    int readers;                                   // # "r" entries currently holding this inode
+    boolean loaded = true;                         // false while FileTable is still reading this inode in
+    int writingBack;                               // last-close write-backs FileTable has in progress
+    boolean dirty;                                 // changed in memory since it was last written to disk
+    private int pathBlock[] = new int[maxLevels];  // index block last read at each level, -1 if none
+    private byte pathData[][] = new byte[maxLevels][];
 
     /**
      * Inode()
@@ -41,9 +85,7 @@ public class Inode {
         fileSize = 0;
         count = 0;
         usedFlag = 1;
-        for ( int i = 0; i < directSize; i++ )
-            direct[i] = -1;
-        indirect = -1;
+        clearPointers();
     }
 
     /**
@@ -53,24 +95,223 @@ public class Inode {
      * @param iNumber this inode number
      */
     Inode( short iNumber )                          // retrieving iNode from disk
+    {
+        fromDisk(iNumber);
+    }
+
+    /**
+     * directSize()
+     * @return int number of direct pointers in the current format version
+     */
+    static int directSize( )
+    {
+        return (version == VERSION_SHORT) ? 11 : (version == VERSION_INT) ? 3 : 0;
+    }
+
+    /**
+     * pointerSize()
+     * @return int bytes per block address in an index block for the current format version
+     */
+    static int pointerSize( )
+    {
+        return (version == VERSION_SHORT) ? shortBlock : intBlock;
+    }
+
+    /**
+     * indirectLevels()
+     * @return int deepest index tree supported by the current format version
+     */
+    static int indirectLevels( )
+    {
+        return (version == VERSION_SHORT) ? 1 : (version == VERSION_INT) ? maxLevels : 0;
+    }
+
+    /**
+     * readPointer(byte[] data, int slot)
+     * Reads the slot-th block address out of an index block.
+     * @param data
+     * @param slot
+     * @return int block address, -1 if the slot is unused
+     */
+    static int readPointer( byte[] data, int slot )
+    {
+        int block = (version == VERSION_SHORT) ? SysLib.bytes2short(data, slot * shortBlock)
+                                               : SysLib.bytes2int(data, slot * intBlock);
+        return (block > 0) ? block : -1;
+    }
+
+    /**
+     * writePointer(byte[] data, int slot, int block)
+     * Stores a block address into the slot-th entry of an index block.
+     * @param data
+     * @param slot
+     * @param block
+     */
+    static void writePointer( byte[] data, int slot, int block )
+    {
+        if (version == VERSION_SHORT)
+            SysLib.short2bytes((short) block, data, slot * shortBlock);
+        else
+            SysLib.int2bytes(block, data, slot * intBlock);
+    }
+
+    /**
+     * clearPointers()
+     * Sets every block pointer to -1 and forgets the cached index path.
+     */
+    void clearPointers( )
+    {
+        for ( int i = 0; i < direct.length; i++ )
+            direct[i] = -1;
+        indirect = -1;
+        doubleIndirect = -1;
+        tripleIndirect = -1;
+        for ( int i = 0; i < inlineExtents; i++ )
+        {
+            extentStart[i] = -1;
+            extentLength[i] = 0;
+        }
+        forgetPath();
+    }
+
+    /**
+     * forgetPath()
+     * Drops the index blocks cached by readIndex().
+     */
+    synchronized void forgetPath( )
+    {
+        for (int i = 0; i < maxLevels; i++)
+        {
+            pathBlock[i] = -1;
+            pathData[i] = null;
+        }
+    }
+
+    /**
+     * readIndex(int level, int block)
+     * Returns the contents of an index block at the given depth of the walk, reading it through the cache only if
+     * it is not the block last used at that depth.  The returned array must not be modified by the caller, use
+     * writeIndex() instead.
+     * @param level 0 for the top index block of a tree
+     * @param block
+     * @return byte[] index block contents
+     */
+    synchronized byte[] readIndex( int level, int block )
+    {
+        if (pathBlock[level] != block)
+        {
+            if (pathData[level] == null)
+                pathData[level] = new byte[maxBytes];
+            SysLib.cread(block, pathData[level]);
+            pathBlock[level] = block;
+        }
+        return pathData[level];
+    }
+
+    /**
+     * writeIndex(int level, int block, int slot, int target)
+     * Stores target in one slot of an index block and writes the block back, keeping the cached path current.
+     * @param level
+     * @param block
+     * @param slot
+     * @param target
+     */
+    synchronized void writeIndex( int level, int block, int slot, int target )
+    {
+        byte[] data = readIndex(level, block);
+        writePointer(data, slot, target);
+        Kernel.journal.write(block, data);
+    }
+
+    /**
+     * writeExtent(int block, int slot, int start, int length)
+     * Stores one (start, length) pair into an extent block and writes the block back, keeping the cached path
+     * current.
+     * @param block extent block
+     * @param slot
+     * @param start
+     * @param length
+     */
+    synchronized void writeExtent( int block, int slot, int start, int length )
+    {
+        byte[] data = readIndex(0, block);
+        SysLib.int2bytes(start, data, slot * extentSize);
+        SysLib.int2bytes(length, data, slot * extentSize + intBlock);
+        Kernel.journal.write(block, data);
+    }
+
+    /**
+     * fromDisk(short iNumber)
+     * Reads the fields of this inode in place from the iNumber-th inode on disk.
+     * @param iNumber this inode number
+     */
+    void fromDisk( short iNumber )
     {
         int nodeBlock = (iNumber / blockSize) + 1;  // Block number where inode is located on disk
-        byte[] dataBuffer = new byte[maxBytes];     // buffer to hold data from nodeBlock
-        SysLib.rawread(nodeBlock, dataBuffer);      // take block in from disk and put into dataBuffer
+        byte[] dataBuffer = readBuffers[nodeBlock % readBuffers.length];   // holds the block while it is decoded
+        synchronized (dataBuffer)
+        {
+            SysLib.cread(nodeBlock, dataBuffer);    // take block in through the cache and put into dataBuffer
+            load(dataBuffer, (iNumber % blockSize) * iNodeSize);
+        }
+        forgetPath();
+    }
+
+    /**
+     * load(byte[] dataBuffer, int spaceTracker)
+     * Reads the fields of this inode from its 32 byte on-disk form in dataBuffer at spaceTracker, in the format
+     * version of the mounted disk.  The counterpart of store.
+     * @param dataBuffer
+     * @param spaceTracker offset of the inode within dataBuffer
+     */
+    private void load( byte[] dataBuffer, int spaceTracker )
+    {
 
-        int spaceTracker = (iNumber % blockSize) * iNodeSize;   // used to iterate through the block based on variable thickness
         fileSize = SysLib.bytes2int(dataBuffer, spaceTracker);  // read from dataBuffer into iNode, then iterate thickness variable forward
         spaceTracker += intBlock;
         count = SysLib.bytes2short(dataBuffer, spaceTracker);
         spaceTracker += shortBlock;
         usedFlag = SysLib.bytes2short(dataBuffer, spaceTracker);
         spaceTracker += shortBlock;
-        for (int i = 0; i < directSize; i++)        // for loop to iterate through direct pointers
+        if (direct.length != directSize())
+            direct = new int[directSize()];
+        if (version == VERSION_SHORT)
+        {
+            for (int i = 0; i < direct.length; i++)        // for loop to iterate through direct pointers
+            {
+                direct[i] = SysLib.bytes2short(dataBuffer, spaceTracker);
+                spaceTracker += shortBlock;
+            }
+            indirect = SysLib.bytes2short(dataBuffer, spaceTracker);
+            doubleIndirect = -1;
+            tripleIndirect = -1;
+        }
+        else if (version == VERSION_EXTENT)
         {
-            direct[i] = SysLib.bytes2short(dataBuffer, spaceTracker);
-            spaceTracker += shortBlock;
+            for (int i = 0; i < inlineExtents; i++)
+            {
+                extentStart[i] = SysLib.bytes2int(dataBuffer, spaceTracker);
+                spaceTracker += intBlock;
+                extentLength[i] = SysLib.bytes2short(dataBuffer, spaceTracker);
+                spaceTracker += shortBlock;
+            }
+            indirect = SysLib.bytes2int(dataBuffer, spaceTracker);
+            doubleIndirect = -1;
+            tripleIndirect = -1;
+        }
+        else
+        {
+            for (int i = 0; i < direct.length; i++)
+            {
+                direct[i] = SysLib.bytes2int(dataBuffer, spaceTracker);
+                spaceTracker += intBlock;
+            }
+            indirect = SysLib.bytes2int(dataBuffer, spaceTracker);
+            spaceTracker += intBlock;
+            doubleIndirect = SysLib.bytes2int(dataBuffer, spaceTracker);
+            spaceTracker += intBlock;
+            tripleIndirect = SysLib.bytes2int(dataBuffer, spaceTracker);
         }
-        indirect = SysLib.bytes2short(dataBuffer, spaceTracker);
     }
 
     /**
@@ -83,30 +324,131 @@ public class Inode {
     int toDisk( short iNumber )                     // save to disk as the i-th iNode
     {
         int nodeBlock = (iNumber / blockSize) + 1;  // skips SuperBlock to determine block to write to
-        byte[] nodeBuffer = new byte[iNodeSize];
-        int spaceTracker = 0;
+        Kernel.journal.begin();                     // before the lock, begin may wait for a commit
+        synchronized (blockLocks[nodeBlock % blockLocks.length])
+        {
+            byte[] blockBuffer = blockBuffers[nodeBlock % blockLocks.length];
+            SysLib.cread(nodeBlock, blockBuffer);
+            synchronized (this)
+            {
+                store(blockBuffer, (iNumber % blockSize) * iNodeSize);
+                dirty = false;
+            }
+            Kernel.journal.write(nodeBlock, blockBuffer);
+        }
+        Kernel.journal.end();
+        return nodeBlock;
+    }
+
+    /**
+     * toDisk(short[] iNumbers, Inode[] iNodes, int count)
+     * Saves count inodes that all live in the same inode block with one read and one write of that block.  Each
+     * inode is locked while it is stored and is clean afterwards.  The block is written through the journal, in a
+     * journal operation of its own unless the caller already has one open.
+     * @param iNumbers the inode numbers, all in the block of iNumbers[0]
+     * @param iNodes the inodes to store, in the same order
+     * @param count
+     * @return int block the inodes are saved in
+     */
+    static int toDisk( short[] iNumbers, Inode[] iNodes, int count )
+    {
+        int nodeBlock = (iNumbers[0] / blockSize) + 1;  // skips SuperBlock to determine block to write to
+        Kernel.journal.begin();                         // before the lock, begin may wait for a commit
+        synchronized (blockLocks[nodeBlock % blockLocks.length])
+        {
+            byte[] blockBuffer = blockBuffers[nodeBlock % blockLocks.length];  // the block for iNode insertion
+            SysLib.cread(nodeBlock, blockBuffer);
+            // cwrite cannot write a subsection of a block, so each iNode is stored into the buffered block
+            for (int i = 0; i < count; i++)
+            {
+                synchronized (iNodes[i])
+                {
+                    iNodes[i].store(blockBuffer, (iNumbers[i] % blockSize) * iNodeSize);
+                    iNodes[i].dirty = false;
+                }
+            }
+            Kernel.journal.write(nodeBlock, blockBuffer);   // overwrites the location of original buffered block
+        }
+        Kernel.journal.end();
+        return nodeBlock;
+    }
+
+    /**
+     * markDirty()
+     * Records that this inode changed and has to be written back by the FileTable.
+     */
+    synchronized void markDirty( )
+    {
+        dirty = true;
+    }
+
+    /**
+     * isDirty()
+     * @return true if this inode changed since it was last written to disk
+     */
+    synchronized boolean isDirty( )
+    {
+        return dirty;
+    }
+
+    /**
+     * blockOf(short iNumber)
+     * @param iNumber
+     * @return int the inode block holding the iNumber-th inode
+     */
+    static int blockOf( short iNumber )
+    {
+        return (iNumber / blockSize) + 1;
+    }
 
-        SysLib.int2bytes(fileSize, nodeBuffer, spaceTracker);  // writing to temp buffer
+    /**
+     * store(byte[] nodeBuffer, int spaceTracker)
+     * Writes the 32 byte on-disk form of this inode into nodeBuffer at spaceTracker, in the format version of the
+     * mounted disk.  Used by toDisk, and by format to build whole inode blocks at once.
+     * @param nodeBuffer
+     * @param spaceTracker offset of the inode within nodeBuffer
+     */
+    void store( byte[] nodeBuffer, int spaceTracker )
+    {
+        SysLib.int2bytes(fileSize, nodeBuffer, spaceTracker);
         spaceTracker += intBlock;
         SysLib.short2bytes(count, nodeBuffer, spaceTracker);
         spaceTracker += shortBlock;
         SysLib.short2bytes(usedFlag, nodeBuffer, spaceTracker);
         spaceTracker += shortBlock;
 
-        for(int i = 0; i < directSize; i++)
+        if (version == VERSION_SHORT)
         {
-            SysLib.short2bytes(direct[i], nodeBuffer, spaceTracker);
-            spaceTracker += shortBlock;
+            for(int i = 0; i < direct.length; i++)
+            {
+                SysLib.short2bytes((short) direct[i], nodeBuffer, spaceTracker);
+                spaceTracker += shortBlock;
+            }
+            SysLib.short2bytes((short) indirect, nodeBuffer, spaceTracker);
+        }
+        else if (version == VERSION_EXTENT)
+        {
+            for(int i = 0; i < inlineExtents; i++)
+            {
+                SysLib.int2bytes(extentStart[i], nodeBuffer, spaceTracker);
+                spaceTracker += intBlock;
+                SysLib.short2bytes((short) extentLength[i], nodeBuffer, spaceTracker);
+                spaceTracker += shortBlock;
+            }
+            SysLib.int2bytes(indirect, nodeBuffer, spaceTracker);
+        }
+        else
+        {
+            for(int i = 0; i < direct.length; i++)
+            {
+                SysLib.int2bytes(direct[i], nodeBuffer, spaceTracker);
+                spaceTracker += intBlock;
+            }
+            SysLib.int2bytes(indirect, nodeBuffer, spaceTracker);
+            spaceTracker += intBlock;
+            SysLib.int2bytes(doubleIndirect, nodeBuffer, spaceTracker);
+            spaceTracker += intBlock;
+            SysLib.int2bytes(tripleIndirect, nodeBuffer, spaceTracker);
         }
-        SysLib.short2bytes(indirect, nodeBuffer, spaceTracker);
-
-        spaceTracker = (iNumber % blockSize) * iNodeSize;   // reset for inserting nodeBuffer into dataBuffer
-        byte[] blockBuffer = new byte[maxBytes];            // holds the entire block from disk for iNode buffer insertion
-        SysLib.rawread(nodeBlock, blockBuffer);
-        // due to the inability for rawwrite to copy a subsection of a block, the iNode must be written to the buffer
-        // System.lang arraycopy is used to copy the buffered iNode into the proper location in the buffered block
-        System.arraycopy(nodeBuffer, 0, blockBuffer, spaceTracker, iNodeSize);
-        SysLib.rawwrite(nodeBlock, blockBuffer);         // overwrites the location of original buffered block
-        return nodeBlock;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,450 @@
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * @Project: Final_Project
+ * @file: Journal.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Write-ahead journal for file system metadata.  The last journalBlocks blocks of the disk are a circular log:
+ *      block 0: journal superblock holding magic, generation and the sequence number of the oldest transaction
+ *               that may still need to be replayed (checkpointSeq)
+ *      block 1..: transactions, one after the other, each a header block followed by the images of its blocks
+ *               header: magic, generation, sequence number, block count, CRC32 of the home block numbers and
+ *               the images, home block numbers
+ *
+ * Metadata blocks (superblock, inode, bitmap and index blocks) are written with write().  Their pages stay
+ * pinned in the cache, so they never reach their home location before the transaction holding them is committed.
+ * A file system operation that changes several metadata blocks brackets them with begin()/end(); a commit
+ * only starts while no operation is open, so every operation is wholly inside one transaction, and all the
+ * operations of all threads since the previous commit are grouped into it (group commit).  A commit first writes
+ * the dirty data pages back (ordered mode, so committed metadata never points at unwritten data), then writes the
+ * header and the images in a single vectored request and unpins the pages.  Committed metadata reaches its home
+ * location lazily, when the cache evicts or syncs it; the log space is only reused after a checkpoint has written
+ * every committed metadata page home.  A transaction that does not fit in the rest of the log is preceded by a
+ * checkpoint, before any of it is written.
+ *
+ * A transaction is never split, so it must fit in one header and in the log (maxTransaction blocks).  Every open
+ * operation holds opReserve pages of the running transaction: an operation that would not fit next to the pages
+ * already pinned and the reserves of the other open operations waits for them to end, and the transaction is then
+ * committed before it begins.  A long write or fallocate ends its operation and begins a new one once it has used
+ * most of its reserve (see crowded()).  A group that overflows anyway, from an operation pinning more than its
+ * reserve, is written home in place after a checkpoint, which keeps the log consistent but is not atomic.
+ *
+ * The journal is internal to the kernel: the file system calls it through Kernel.journal, and none of begin, end
+ * or write is a system call, so no user thread can leave an operation open and hold off every commit.
+ *
+ * Commits happen when an operation ends and enough pages are pinned, every commitInterval ms from the journal's
+ * own thread, and on csync/jsync/cflush.  At boot recover() replays the committed transactions after checkpointSeq
+ * instead of scanning the file system.
+ */
+
+public class Journal
+{
+    public final static int journalBlocks = 64;             // blocks reserved at the end of the disk
+    private final static int magic = 0x4a524e4c;            // "JRNL"
+    private final static int headerSize = 20;               // bytes before the block list in a header
+    private final static int maxTransaction = Math.min((Disk.blockSize - headerSize) / 4, journalBlocks - 2);
+    private final static int commitThreshold = 16;          // pinned pages that trigger a commit
+    private final static int opReserve = 16;                // pages of the transaction held by each open operation
+    private final static int stepReserve = 8;               // pages one step of a long operation may still pin
+    private final static int commitInterval = 1000;         // ms between periodic commits
+
+    private final Cache cache;
+    private final int start;                // journal superblock
+    private final int end;                  // first block past the journal
+    private int generation;                 // tells this log's transactions from stale ones
+    private int checkpointSeq;              // oldest transaction still to be replayed
+    private int nextSeq;                    // sequence number of the next transaction
+    private int head;                       // where the next transaction is written
+    private int active;                     // open operations (outermost begin without end)
+    private boolean committing;             // a commit is waiting for operations to end or writing
+    private Hashtable<Thread, int[]> depth; // Thread to int[2] begin nesting depth and pages its operation pinned,
+                                            // kept until the thread dies
+
+    private long commits;                   // transactions written
+    private long logged;                    // block images written to the log
+    private long checkpoints;               // times the log was emptied
+    private long replayed;                  // transactions replayed at boot
+    private long overflows;                 // groups too large for the log, written home in place
+
+    /**
+     * Committer
+     * Background thread that commits whatever is pinned every commitInterval ms.
+     */
+    private class Committer extends Thread
+    {
+        public void run( )
+        {
+            while (true)
+            {
+                try
+                {
+                    Thread.sleep(commitInterval);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                if (cache.pinnedCount() > 0)
+                    commit();
+                forgetDead();
+            }
+        }
+    }
+
+    /**
+     * Journal(Cache cache, int diskBlocks)
+     * Overloaded constructor places the journal at the end of a disk of diskBlocks blocks.  Call recover() before
+     * the file system is mounted.
+     * @param cache
+     * @param diskBlocks
+     */
+    public Journal( Cache cache, int diskBlocks )
+    {
+        this.cache = cache;
+        this.start = start(diskBlocks);
+        this.end = diskBlocks;
+        this.depth = new Hashtable<Thread, int[]>( );
+        this.head = start + 1;
+    }
+
+    /**
+     * start(int diskBlocks)
+     * @param diskBlocks
+     * @return int first block of the journal on a disk of diskBlocks blocks
+     */
+    public static int start( int diskBlocks )
+    {
+        return diskBlocks - journalBlocks;
+    }
+
+    /**
+     * recover()
+     * Reads the whole log in one request and writes the images of every intact committed transaction after
+     * checkpointSeq, in order, to their home blocks.  The log is then empty.  A disk without a journal superblock
+     * gets a new generation, so stale headers on it are never mistaken for transactions.
+     * @return int number of transactions replayed
+     */
+    public synchronized int recover( )
+    {
+        int[] blocks = new int[journalBlocks];
+        for (int i = 0; i < journalBlocks; i++)
+            blocks[i] = start + i;
+        byte[] log = new byte[journalBlocks * Disk.blockSize];
+        SysLib.rawreadv(blocks, log);
+
+        int count = 0;
+        if (SysLib.bytes2int(log, 0) != magic)
+        {
+            generation = new Random().nextInt() | 1;
+            nextSeq = 1;
+        }
+        else
+        {
+            generation = SysLib.bytes2int(log, 4);
+            nextSeq = SysLib.bytes2int(log, 8);
+            int position = 1;
+            while (position < journalBlocks)
+            {
+                int offset = position * Disk.blockSize;
+                int images = SysLib.bytes2int(log, offset + 12);
+                if (SysLib.bytes2int(log, offset) != magic || SysLib.bytes2int(log, offset + 4) != generation
+                        || SysLib.bytes2int(log, offset + 8) != nextSeq || images <= 0 || images > maxTransaction
+                        || position + 1 + images > journalBlocks)
+                    break;
+                if (checksum(log, offset, images) != SysLib.bytes2int(log, offset + 16))
+                    break;                              // torn transaction, it never committed
+
+                int[] home = new int[images];
+                for (int i = 0; i < images; i++)
+                    home[i] = SysLib.bytes2int(log, offset + headerSize + i * 4);
+                byte[] data = new byte[images * Disk.blockSize];
+                System.arraycopy(log, offset + Disk.blockSize, data, 0, data.length);
+                SysLib.rawwritev(home, data);
+
+                count++;
+                nextSeq++;
+                position += 1 + images;
+            }
+        }
+        replayed += count;
+        reset();
+
+        Committer committer = new Committer();
+        committer.setDaemon(true);
+        committer.start();
+        return count;
+    }
+
+    /**
+     * begin()
+     * Opens an operation whose metadata writes must commit together.  Operations nest per thread; only the
+     * outermost one counts.  It waits while a commit is in progress, and while its reserve does not fit in the
+     * running transaction next to the other open operations; with none open it commits a transaction that is
+     * large or has no room left first.
+     */
+    public synchronized void begin( )
+    {
+        int[] nesting = nesting(true);
+        if (nesting[0] == 0)
+        {
+            while (committing || (active > 0 && !room(active + 1)))
+                waitJournal();
+            if (active == 0 && (cache.pinnedCount() >= commitThreshold || !room(1)))
+                commitNow();
+            active++;
+            nesting[1] = 0;
+        }
+        nesting[0]++;
+    }
+
+    /**
+     * end()
+     * Closes an operation.  When the last open operation ends and the running transaction is large, or the cache
+     * had to grow to hold the pinned pages, it is committed right away.
+     */
+    public synchronized void end( )
+    {
+        int[] nesting = nesting(false);
+        if (nesting == null || nesting[0] == 0)
+            return;
+        if (--nesting[0] > 0)
+            return;
+        active--;
+        notifyAll();                                // an operation may be waiting for room
+        if (active == 0 && !committing && (cache.pinnedCount() >= commitThreshold || cache.overCapacity()))
+            commitNow();
+    }
+
+    /**
+     * crowded()
+     * Tells a long operation, between two of its steps, whether to end here and go on in a new operation.
+     * @return true if the calling thread's outermost operation has pinned all but stepReserve pages of its reserve
+     */
+    public synchronized boolean crowded( )
+    {
+        int[] nesting = nesting(false);
+        return nesting != null && nesting[0] == 1 && nesting[1] >= opReserve - stepReserve;
+    }
+
+    /**
+     * room(int operations)
+     * @param operations
+     * @return true if the pinned pages and the reserves of that many open operations fit in one transaction
+     */
+    private boolean room( int operations )
+    {
+        return cache.pinnedCount() + operations * opReserve <= maxTransaction;
+    }
+
+    /**
+     * write(int blockId, byte buffer[])
+     * Writes a metadata block through the cache as part of the running transaction, in an operation of its own
+     * unless the caller has one open.
+     * @param blockId
+     * @param buffer
+     * @return true upon success, false if blockId is invalid
+     */
+    public synchronized boolean write( int blockId, byte buffer[] )
+    {
+        int[] nesting = nesting(false);
+        if (nesting == null || nesting[0] == 0)
+        {
+            begin();
+            boolean written = write(blockId, buffer);
+            end();
+            return written;
+        }
+        int pinned = cache.pinnedCount();
+        boolean written = cache.writePinned(blockId, buffer);
+        nesting[1] += cache.pinnedCount() - pinned;
+        return written;
+    }
+
+    /**
+     * commit()
+     * Commits the running transaction, waiting for open operations to end first.  A thread that is inside an
+     * operation itself cannot wait for that, so nothing is committed for it.
+     * @return true if everything pinned before the call is committed, false if the caller is inside an operation
+     */
+    public synchronized boolean commit( )
+    {
+        int[] nesting = nesting(false);
+        if (nesting != null && nesting[0] > 0)
+            return false;
+        while (committing)
+            waitJournal();
+        committing = true;
+        while (active > 0)
+            waitJournal();
+        commitNow();
+        committing = false;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * checkpoint()
+     * Writes every committed metadata page to its home block and empties the log.  Pages of the running
+     * transaction stay pinned; they belong to transactions that will be numbered from the new checkpointSeq.
+     */
+    public synchronized void checkpoint( )
+    {
+        cache.syncMetadata();
+        reset();
+        checkpoints++;
+    }
+
+    /**
+     * commitNow()
+     * Writes the pinned pages to the log as one transaction.  Must be called holding the journal with no operation
+     * open.  A group too large for one transaction is written home in place after a checkpoint instead.
+     */
+    private void commitNow( )
+    {
+        int[] blocks = cache.pinnedBlocks();
+        if (blocks.length == 0)
+            return;
+
+        // ordered mode: the data the new metadata points to is on disk before the metadata is committed
+        cache.syncData();
+        if (blocks.length > maxTransaction)
+        {
+            // the log holds no transaction this large: empty it, so replaying it can never overwrite these pages
+            // with older images, and write them home directly
+            SysLib.cerr("threadOS: journal group of " + blocks.length + " blocks written in place\n");
+            checkpoint();
+            cache.unpin(blocks);
+            cache.syncMetadata();
+            overflows++;
+            return;
+        }
+        writeTransaction(blocks, cache.pinnedImages(blocks));
+        cache.unpin(blocks);
+    }
+
+    /**
+     * writeTransaction(int blocks[], byte images[])
+     * Writes one transaction, a header and the images, to the log with a single vectored request.  If the whole
+     * transaction does not fit in the rest of the log, a checkpoint empties the log before anything is written.
+     * @param blocks home block numbers
+     * @param images the block images, in the same order
+     */
+    private void writeTransaction( int blocks[], byte images[] )
+    {
+        int count = blocks.length;
+        if (head + 1 + count > end)
+            checkpoint();
+
+        byte[] data = new byte[(1 + count) * Disk.blockSize];
+        System.arraycopy(images, 0, data, Disk.blockSize, count * Disk.blockSize);
+        SysLib.int2bytes(magic, data, 0);
+        SysLib.int2bytes(generation, data, 4);
+        SysLib.int2bytes(nextSeq, data, 8);
+        SysLib.int2bytes(count, data, 12);
+        int[] where = new int[1 + count];
+        for (int i = 0; i < count; i++)
+            SysLib.int2bytes(blocks[i], data, headerSize + i * 4);
+        SysLib.int2bytes(checksum(data, 0, count), data, 16);
+        for (int i = 0; i <= count; i++)
+            where[i] = head + i;
+        SysLib.rawwritev(where, data);
+
+        head += 1 + count;
+        nextSeq++;
+        commits++;
+        logged += count;
+    }
+
+    /**
+     * reset()
+     * Empties the log: the next transaction is written right after the journal superblock, and only transactions
+     * from nextSeq on will be replayed.
+     */
+    private void reset( )
+    {
+        checkpointSeq = nextSeq;
+        head = start + 1;
+        byte[] data = new byte[Disk.blockSize];
+        SysLib.int2bytes(magic, data, 0);
+        SysLib.int2bytes(generation, data, 4);
+        SysLib.int2bytes(checkpointSeq, data, 8);
+        SysLib.rawwrite(start, data);
+    }
+
+    /**
+     * checksum(byte data[], int offset, int count)
+     * @param data
+     * @param offset of a transaction header in data, followed by its images
+     * @param count number of images
+     * @return int CRC32 of the home block numbers in the header and of the images
+     */
+    private static int checksum( byte data[], int offset, int count )
+    {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset + headerSize, count * 4);
+        crc.update(data, offset + Disk.blockSize, count * Disk.blockSize);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * nesting(boolean create)
+     * @param create
+     * @return int[] begin nesting depth of the calling thread and the pages its operation pinned, null if it has none
+     *              and create is false
+     */
+    private int[] nesting( boolean create )
+    {
+        int[] nesting = depth.get(Thread.currentThread());
+        if (nesting == null && create)
+        {
+            nesting = new int[2];
+            depth.put(Thread.currentThread(), nesting);
+        }
+        return nesting;
+    }
+
+    /**
+     * forgetDead()
+     * Drops the nesting depth of threads that have exited.  A thread keeps its depth between operations so that
+     * begin() does not allocate one every time; the committer calls this to keep the table from growing.
+     */
+    private synchronized void forgetDead( )
+    {
+        if (depth.isEmpty())
+            return;
+        Iterator<Thread> threads = depth.keySet().iterator();
+        while (threads.hasNext())
+        {
+            if (!threads.next().isAlive())
+                threads.remove();
+        }
+    }
+
+    private void waitJournal( )
+    {
+        try
+        {
+            wait();
+        }
+        catch (InterruptedException e)
+        {
+            SysLib.cerr(e.toString() + "\n");
+        }
+    }
+
+    /**
+     * toString()
+     * Reports the commit, logged block, checkpoint, replay and overflow counters.
+     * @return String counters of this journal
+     */
+    public synchronized String toString( )
+    {
+        return "journal commits=" + commits + " logged=" + logged + " checkpoints=" + checkpoints
+                + " replayed=" + replayed + " overflows=" + overflows;
+    }
+}
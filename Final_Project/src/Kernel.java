@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Vector;
 
 public class Kernel {
     // Interrupt requests
@@ -38,8 +39,29 @@ public class Kernel {
     public final static int SIZE = 16; // SysLib.size( int fd )
     public final static int SEEK = 17; // SysLib.seek( int fd, int offest,
     //              int whence )
-    public final static int FORMAT = 18; // SysLib.format( int files )
+    public final static int FORMAT = 18; // SysLib.format( int files ), SysLib.format( int files, int version )
     public final static int DELETE = 19; // SysLib.delete( String fileName )
+    public final static int FALLOCATE = 20; // SysLib.fallocate( int fd, int bytes )
+    public final static int RAWREADV = 21; // SysLib.rawreadv( int blks[], [int count,] byte b[] )
+    public final static int RAWWRITEV = 22; // SysLib.rawwritev( int blks[], [int count,] byte b[] )
+    public final static int CREADV = 23; // SysLib.creadv( int blks[], [int count,] byte b[] )
+    public final static int CWRITEV = 24; // SysLib.cwritev( int blks[], [int count,] byte b[] )
+    public final static int CPREFETCH = 25; // SysLib.cprefetch( int blks[] [, int count] )
+    public final static int FSYNC = 26; // SysLib.fsync( int fd )
+    public final static int DSYNC = 27; // SysLib.dsync( )
+    // 28 .. 30 are unused, the journal's operations are kernel internal (see Journal)
+    public final static int JSYNC = 31; // SysLib.jsync( )
+    public final static int MKDIR = 32; // SysLib.mkdir( String path )
+    public final static int RMDIR = 33; // SysLib.rmdir( String path )
+    public final static int READDIR = 34; // SysLib.readdir( String path, Vector<String> names )
+    public final static int AREAD = 35; // SysLib.readAsync( int fd, byte b[] )
+    public final static int AWRITE = 36; // SysLib.writeAsync( int fd, byte b[] )
+    public final static int APOLL = 37; // SysLib.aioPoll( int handle )
+    public final static int AWAIT = 38; // SysLib.aioWait( int handle )
+    public final static int AWAITANY = 39; // SysLib.aioWaitAny( int handles[] )
+    public final static int DETACH = 40; // SysLib.detach( int disk )
+    public final static int ATTACH = 41; // SysLib.attach( int disk )
+    public final static int STATS = 42; // SysLib.stats( [boolean reset] )
 
     // Predefined file descriptors
     public final static int STDIN = 0;
@@ -53,21 +75,59 @@ public class Kernel {
     // System thread references
     private static Scheduler scheduler;
     private static Disk disk;
+    private static DiskQueue diskQueue;
+    private static int diskBlocks;
     private static Cache cache;
+    static Journal journal; // used by the file system directly, its operations are not system calls
     private static FileSystem fileSystem;
+    private static AsyncIO asyncIO;
 
     // Synchronized Queues
     private static SyncQueue waitQueue; // for threads to wait for their child
     private static SyncQueue ioQueue; // I/O queue
 
-    private final static int COND_DISK_REQ = 1; // wait condition
-    private final static int COND_DISK_FIN = 2; // wait condition
+    final static int COND_DISK_REQ = 1; // wait condition
+    final static int COND_DISK_FIN = 2; // wait condition
+
+    private final static boolean reportOnSync = "on".equals(System.getProperty("threadOS.report")); // see SYNC
 
     // Standard input
     private static BufferedReader input = new BufferedReader(new InputStreamReader(System. in ));
 
-    // The heart of Kernel
+    // The heart of Kernel, timing each system call for Stats unless -DthreadOS.stats=off,
+    // and tracing file system calls with -DthreadOS.traceSyscalls=on
     public static int interrupt(int irq, int cmd, int param, Object args) {
+        if (irq != INTERRUPT_SOFTWARE || !(Stats.enabled || Trace.syscalls))
+            return service(irq, cmd, param, args);
+        Stats.Probe probe = Stats.enabled ? Stats.enter() : null;
+        long start = Trace.syscalls ? System.nanoTime() : 0;
+        int result = service(irq, cmd, param, args);
+        if (probe != null)
+            Stats.leave(probe, cmd, moved(cmd, param, args, result));
+        if (Trace.syscalls)
+            Trace.syscall(start, cmd, param, result);
+        return result;
+    }
+
+    // The syscall statistics followed by the counters of the cache, journal, dentry cache, asynchronous I/O,
+    // disk queue, disk array and trace
+    private static String report() {
+        StringBuffer report = new StringBuffer();
+        report.append("threadOS: stats\n" + Stats.report());
+        report.append("threadOS: " + cache + "\n");
+        report.append("threadOS: " + journal + "\n");
+        report.append("threadOS: " + fileSystem.dentries() + "\n");
+        report.append("threadOS: " + asyncIO + "\n");
+        report.append("threadOS: " + diskQueue + "\n");
+        if (disk instanceof DiskArray)
+            report.append("threadOS: " + disk + "\n");
+        if (Trace.enabled)
+            report.append("threadOS: " + Trace.report() + "\n");
+        return report.toString();
+    }
+
+    // Serving an interrupt
+    private static int service(int irq, int cmd, int param, Object args) {
         TCB myTcb;
         switch (irq) {
             case INTERRUPT_SOFTWARE:
@@ -79,16 +139,63 @@ public class Kernel {
                         scheduler.start();
 
                         // instantiate and start a disk
-                        disk = new Disk(1000);
+                        // the disk backend and size are chosen at boot:
+                        //      -DthreadOS.disk=mapped      map the DISK file (MappedDisk) instead of simulating a disk
+                        //      -DthreadOS.disk=memory      keep the disk in memory only, never written back (MemoryDisk)
+                        //      -DthreadOS.diskBlocks=n     a disk of n blocks instead of 1000
+                        //      -DthreadOS.stripe=n         stripe the disk over n disks of that backend (StripedDisk),
+                        //                                  kept in DISK0 .. DISKn-1
+                        //      -DthreadOS.stripeUnit=n     n blocks per stripe unit instead of 4
+                        //      -DthreadOS.mirror=n         mirror the disk on n disks of that backend (MirroredDisk),
+                        //                                  kept in DISK, DISK.1 .. DISK.n-1, instead of striping
+                        //      -DthreadOS.diskFile=name    keep the disk in the file name instead of DISK, and its
+                        //                                  members in name0 .. or name, name.1 ..
+                        String diskFile = System.getProperty("threadOS.diskFile", "DISK");
+                        diskBlocks = Integer.getInteger("threadOS.diskBlocks", 1000).intValue();
+                        int stripe = Integer.getInteger("threadOS.stripe", 1).intValue();
+                        int mirror = Integer.getInteger("threadOS.mirror", 1).intValue();
+                        if (mirror > 1) {
+                            Disk[] members = new Disk[mirror];
+                            for (int i = 0; i < mirror; i++)
+                                members[i] = newDisk(diskBlocks, (i == 0) ? diskFile : diskFile + "." + i);
+                            disk = new MirroredDisk(diskBlocks, members);
+                        } else if (stripe > 1) {
+                            int unit = Integer.getInteger("threadOS.stripeUnit", StripedDisk.defaultUnit).intValue();
+                            unit = (unit > 0) ? unit : StripedDisk.defaultUnit;
+                            Disk[] members = new Disk[stripe];
+                            for (int i = 0; i < stripe; i++)
+                                members[i] = newDisk(StripedDisk.memberBlocks(diskBlocks, stripe, unit), diskFile + i);
+                            disk = new StripedDisk(diskBlocks, unit, members);
+                        } else
+                            disk = newDisk(diskBlocks, diskFile);
                         disk.start();
 
-                        // instantiate a cache memory
-                        cache = new Cache(Disk.blockSize, 10);
+                        // -DthreadOS.trace=file records every disk request in file (see Trace and Replay)
+                        Trace.open(diskBlocks);
+
+                        // instantiate a cache memory, -DthreadOS.cacheBlocks=n for n pages instead of 10; read-ahead
+                        // prefetches up to half of them at once
+                        int cacheBlocks = Integer.getInteger("threadOS.cacheBlocks", 10).intValue();
+                        cache = new Cache(Disk.blockSize, Math.max(2, cacheBlocks), diskBlocks);
 
                         // instantiate synchronized queues
                         ioQueue = new SyncQueue();
                         waitQueue = new SyncQueue(scheduler.getMaxThreads());
-                        fileSystem = new FileSystem(1000);
+
+                        // every raw disk request goes through a queue ordering them by block number (C-LOOK),
+                        // -DthreadOS.diskQueue=fifo serves them in order of arrival instead
+                        diskQueue = new DiskQueue(disk, ioQueue, "fifo".equals(System.getProperty("threadOS.diskQueue"))
+                                ? DiskQueue.FIFO : DiskQueue.CLOOK);
+
+                        // replay committed metadata transactions left in the journal, then mount
+                        journal = new Journal(cache, diskBlocks);
+                        int replayed = journal.recover();
+                        if (replayed > 0)
+                            System.out.println("threadOS: journal replayed " + replayed + " transactions");
+                        fileSystem = new FileSystem(diskBlocks, cache.prefetchLimit());
+
+                        // worker threads for readAsync/writeAsync, -DthreadOS.aioWorkers=n for other than 4
+                        asyncIO = new AsyncIO(fileSystem, Integer.getInteger("threadOS.aioWorkers", 4).intValue());
                         return OK;
                     case EXEC:
                         return sysExec((String[]) args);
@@ -104,6 +211,8 @@ public class Kernel {
                             int myPid = myTcb.getPid(); // get my parent ID
                             int myTid = myTcb.getTid(); // get my ID
                             if (myPid != -1) {
+                                // free the asynchronous requests I leave unreaped
+                                asyncIO.exit(Thread.currentThread());
                                 // wake up a thread waiting on my parent ID
                                 waitQueue.dequeueAndWakeup(myPid, myTid);
                                 // I'm terminated!
@@ -117,42 +226,35 @@ public class Kernel {
                         scheduler.sleepThread(param); // param = milliseconds
                         return OK;
                     case RAWREAD:
-                        // read a block of data from disk
-                        while (!disk.read(param, (byte[]) args))
-                            ioQueue.enqueueAndSleep(COND_DISK_REQ);
-                        while (!disk.testAndResetReady())
-                            ioQueue.enqueueAndSleep(COND_DISK_FIN);
-
-                        // it's possible that a thread waiting to make a request was released by the disk,
-                        // but then promptly looped back, found the buffer wasn't available for sending (bufferReady == true)
-                        // and then went back to sleep
-                        Kernel.ioQueue.dequeueAndWakeup(Kernel.COND_DISK_REQ);
-
-                        // now you can access data in buffer
-                        return OK;
+                        // read a block of data from disk, in the order the disk queue serves it
+                        return diskQueue.read(param, (byte[]) args) ? OK : ERROR;
                     case RAWWRITE:
                         // write a block of data to disk
-                        while (!disk.write(param, (byte[]) args))
-                            ioQueue.enqueueAndSleep(COND_DISK_REQ);
-                        while (!disk.testAndResetReady())
-                            ioQueue.enqueueAndSleep(COND_DISK_FIN);
-                        // it's possible that a thread waiting to make a request was released by the disk,
-                        // but then promptly looped back, found the buffer wasn't available for sending (bufferReady == true)
-                        // and then went back to sleep
-                        Kernel.ioQueue.dequeueAndWakeup(Kernel.COND_DISK_REQ);
-
-                        return OK;
+                        return diskQueue.write(param, (byte[]) args) ? OK : ERROR;
+                    case RAWREADV:
+                        // read the first param blocks of a list from disk as a single request, args = { int blks[], byte b[] }
+                        Object[] readv = (Object[]) args;
+                        return diskQueue.readv((int[]) readv[0], param, (byte[]) readv[1]) ? OK : ERROR;
+                    case RAWWRITEV:
+                        // write the first param blocks of a list to disk as a single request, args = { int blks[], byte b[] }
+                        Object[] writev = (Object[]) args;
+                        return diskQueue.writev((int[]) writev[0], param, (byte[]) writev[1]) ? OK : ERROR;
                     case SYNC:
-                        // synchronize disk data to a real file
-                        while (!disk.sync())
-                            ioQueue.enqueueAndSleep(COND_DISK_REQ);
-                        while (!disk.testAndResetReady())
-                            ioQueue.enqueueAndSleep(COND_DISK_FIN);
-
-                        // it's possible that a thread waiting to make a request was released by the disk,
-                        // but then promptly looped back, found the buffer wasn't available for sending (bufferReady == true)
-                        // and then went back to sleep
-                        Kernel.ioQueue.dequeueAndWakeup(Kernel.COND_DISK_REQ);
+                        // write back the file system through the cache, which in turn syncs the disk
+                        fileSystem.sync();
+                        if (Trace.enabled)
+                            Trace.flush();
+                        // -DthreadOS.report=on prints what SysLib.stats() returns on every sync
+                        if (reportOnSync)
+                            System.out.print(report());
+                        return OK;
+                    case CSYNC:
+                        // commit the journal, write back all dirty cache blocks and empty the journal,
+                        // then synchronize disk data to a real file
+                        journal.commit();
+                        cache.sync();
+                        journal.checkpoint();
+                        diskQueue.sync();
                         return OK;
                     case READ:
                         switch (param) {
@@ -207,12 +309,76 @@ public class Kernel {
                     case CWRITE:
                         // to be implemented in assignment 4
                         return cache.write(param, (byte[]) args) ? OK : ERROR;
-                    case CSYNC:
-                        // to be implemented in assignment 4
-                        cache.sync();
+                    case CREADV:
+                        Object[] creadv = (Object[]) args;
+                        return cache.readv((int[]) creadv[0], param, (byte[]) creadv[1]) ? OK : ERROR;
+                    case CWRITEV:
+                        Object[] cwritev = (Object[]) args;
+                        return cache.writev((int[]) cwritev[0], param, (byte[]) cwritev[1]) ? OK : ERROR;
+                    case FSYNC:
+                        // write one file's metadata back and sync the cache to disk
+                        if (( myTcb = scheduler.getMyTcb()) != null)
+                        {
+                            FileTableEntry ftEnt = myTcb.getFtEnt(param);
+                            if (ftEnt != null)
+                                return fileSystem.fsync(ftEnt);
+                        }
+                        return ERROR;
+                    case MKDIR:
+                        return fileSystem.mkdir((String) args);
+                    case RMDIR:
+                        return fileSystem.rmdir((String) args);
+                    case READDIR:
+                        // fills the Vector with the directory's names, returns how many
+                        Object[] readdir = (Object[]) args;
+                        @SuppressWarnings("unchecked")
+                        Vector<String> names = (Vector<String>) readdir[1];
+                        return fileSystem.readdir((String) readdir[0], names);
+                    case AREAD:
+                    case AWRITE:
+                        // queue the request on the worker pool, return its completion handle
+                        if (param > STDERR && (myTcb = scheduler.getMyTcb()) != null) {
+                            FileTableEntry entry = myTcb.getFtEnt(param);
+                            if (entry != null && args != null)
+                                return asyncIO.submit(entry, cmd == AWRITE, (byte[]) args);
+                        }
+                        return ERROR;
+                    case APOLL:
+                        return asyncIO.poll(param);
+                    case AWAIT:
+                        return asyncIO.await(param);
+                    case AWAITANY:
+                        return asyncIO.awaitAny((int[]) args);
+                    case DETACH:
+                        // take member param of a mirrored disk out of the mirror
+                        return (disk instanceof MirroredDisk && ((MirroredDisk) disk).detach(param)) ? OK : ERROR;
+                    case ATTACH:
+                        // put member param of a mirrored disk back, to be resynced in the background
+                        return (disk instanceof MirroredDisk && ((MirroredDisk) disk).attach(param)) ? OK : ERROR;
+                    case STATS:
+                        // the syscall statistics and the state of the kernel's components, the statistics
+                        // cleared afterwards if param is 1
+                        ((StringBuffer) args).append(report());
+                        if (param == 1)
+                            Stats.reset();
                         return OK;
+                    case JSYNC:
+                        // commit the journal, then synchronize disk data to a real file; committed metadata
+                        // reaches its home blocks later, the journal replays it after a crash
+                        if (!journal.commit())
+                            return ERROR;
+                        diskQueue.sync();
+                        return OK;
+                    case DSYNC:
+                        // synchronize disk data to a real file, leaving the cache and the journal as they are
+                        diskQueue.sync();
+                        return OK;
+                    case CPREFETCH:
+                        // queue blocks for read-ahead into the cache and return without waiting for the disk
+                        return cache.prefetch((int[]) args, param);
                     case CFLUSH:
                         // to be implemented in assignment 4
+                        journal.commit();
                         cache.flush();
                         return OK;
                     case OPEN:
@@ -230,6 +396,8 @@ public class Kernel {
                         // to be implemented in project
                         if (( myTcb = scheduler.getMyTcb()) != null) {
                             FileTableEntry ftEnt = myTcb.getFtEnt(param);
+                            if (ftEnt != null)
+                                asyncIO.drain(ftEnt); // let its asynchronous requests finish first
                             if (ftEnt == null || !fileSystem.close(ftEnt)) {
                                 return ERROR;
                             }
@@ -265,10 +433,23 @@ public class Kernel {
                         return ERROR;
                     case FORMAT:
                         // to be implemented in project
+                        if (args != null)
+                            return (fileSystem.format(param, ((Integer) args).intValue())) ? OK : ERROR;
                         return (fileSystem.format(param)) ? OK : ERROR;
                     case DELETE:
                         // to be implemented in project
                         return (fileSystem.delete((String)args)) ? OK : ERROR;
+                    case FALLOCATE:
+                        if (( myTcb = scheduler.getMyTcb()) != null)
+                        {
+                            int[] fallocateArgs = (int[])args;
+                            FileTableEntry ftEnt = myTcb.getFtEnt(param);
+                            if (ftEnt != null)
+                            {
+                                return fileSystem.fallocate(ftEnt, fallocateArgs[0]);
+                            }
+                        }
+                        return ERROR;
                 }
                 return ERROR;
             case INTERRUPT_DISK:
@@ -287,6 +468,38 @@ public class Kernel {
         return OK;
     }
 
+    // Bytes a system call moved to or from a file or the disk, given its result
+    private static int moved(int cmd, int param, Object args, int result) {
+        switch (cmd) {
+            case READ:
+            case WRITE:
+                return (param > STDERR) ? Math.max(result, 0) : 0;
+            case APOLL:
+            case AWAIT:
+                return Math.max(result, 0);
+            case RAWREAD:
+            case RAWWRITE:
+            case CREAD:
+            case CWRITE:
+                return (result == OK) ? Disk.blockSize : 0;
+            case RAWREADV:
+            case RAWWRITEV:
+            case CREADV:
+            case CWRITEV:
+                return (result == OK) ? param * Disk.blockSize : 0;
+        }
+        return 0;
+    }
+
+    // Creating a disk of the backend chosen with -DthreadOS.disk, kept in fileName
+    private static Disk newDisk(int blocks, String fileName) {
+        if ("mapped".equals(System.getProperty("threadOS.disk")))
+            return new MappedDisk(blocks, fileName);
+        else if ("memory".equals(System.getProperty("threadOS.disk")))
+            return new MemoryDisk(blocks, fileName);
+        return new Disk(blocks, fileName);
+    }
+
     // Spawning a new thread
     private static int sysExec(String args[]) {
         String thrName = args[0]; // args[0] has a thread name
@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @Project: Final_Project
+ * @file: MappedDisk.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Disk backend that maps the DISK file into memory through a FileChannel instead of simulating a disk.  It keeps
+ * the request protocol of Disk, so the kernel drives both the same way, but performs every request right away in
+ * the requesting thread: block contents are copied straight between the mapped file and the caller's buffer, with
+ * no seek delay and no disk thread, and a vectored request moves all of its blocks in the same call.
+ *
+ * Writes reach the file as soon as they are made and the operating system writes them back; sync forces them to
+ * the storage device.  The disk contents are never copied into the Java heap, so large disk images cost no more to
+ * boot than small ones.  A DISK file shorter than the disk is extended with zeros.  Because one MappedByteBuffer
+ * cannot exceed 2 GB, the file is mapped in segments of segmentBlocks blocks.
+ *
+ * Chosen at boot with -DthreadOS.disk=mapped, the disk size with -DthreadOS.diskBlocks=n (see Kernel).  The DISK
+ * file has the same layout with either backend, so a disk image can be used with both.
+ */
+
+public class MappedDisk extends Disk
+{
+    private final static int segmentBlocks = 1 << 20;   // 512 MB per mapping
+
+    private RandomAccessFile file;
+    private MappedByteBuffer[] segments;
+
+    /**
+     * MappedDisk(int totalBlocks)
+     * Overloaded constructor maps a disk of totalBlocks blocks onto the DISK file, creating or extending the file.
+     * @param totalBlocks
+     */
+    public MappedDisk( int totalBlocks )
+    {
+        this(totalBlocks, "DISK");
+    }
+
+    /**
+     * MappedDisk(int totalBlocks, String fileName)
+     * Overloaded constructor maps a disk of totalBlocks blocks onto fileName, creating or extending the file.
+     * @param totalBlocks
+     * @param fileName
+     */
+    public MappedDisk( int totalBlocks, String fileName )
+    {
+        super(totalBlocks, false, fileName);
+        try
+        {
+            if (!new File(fileName).exists())
+            {
+                SysLib.cerr("threadOS: " + fileName + " created\n");
+                created = true;
+            }
+            file = new RandomAccessFile(fileName, "rw");
+            long size = (long) diskSize * blockSize;
+            if (file.length() < size)
+                file.setLength(size);
+            FileChannel channel = file.getChannel();
+            segments = new MappedByteBuffer[(diskSize + segmentBlocks - 1) / segmentBlocks];
+            for (int i = 0; i < segments.length; i++)
+            {
+                long start = (long) i * segmentBlocks * blockSize;
+                long length = Math.min(size - start, (long) segmentBlocks * blockSize);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+            }
+        }
+        catch (IOException e)
+        {
+            SysLib.cerr(e.toString() + "\n");
+        }
+    }
+
+    /**
+     * synchronous()
+     * @return true, requests are performed in the requesting thread
+     */
+    protected boolean synchronous( )
+    {
+        return true;
+    }
+
+    /**
+     * seek(boolean transfer)
+     * A mapped file has no head to move, so there is nothing to wait for.
+     * @param transfer
+     */
+    protected void seek( boolean transfer )
+    {
+    }
+
+    /**
+     * transfer(boolean write, int blockId, byte buffer[], int offset)
+     * Copies one block between the mapped file and buffer.  Requests are serialized by the Disk monitor, so the
+     * position of a segment is never used by two threads at once.
+     * @param write
+     * @param blockId
+     * @param buffer
+     * @param offset
+     */
+    protected void transfer( boolean write, int blockId, byte buffer[], int offset )
+    {
+        MappedByteBuffer segment = segments[blockId / segmentBlocks];
+        segment.position((blockId % segmentBlocks) * blockSize);
+        if (write)
+            segment.put(buffer, offset, blockSize);
+        else
+            segment.get(buffer, offset, blockSize);
+    }
+
+    /**
+     * persist()
+     * Forces every write made through the mapping to the storage device.
+     */
+    protected void persist( )
+    {
+        for (int i = 0; i < segments.length; i++)
+            segments[i].force();
+    }
+}
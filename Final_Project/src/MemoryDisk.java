@@ -0,0 +1,63 @@
+/**
+ * @Project: Final_Project
+ * @file: MemoryDisk.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Disk backend that only keeps the in-memory disk image.  The image is loaded from the DISK file like the simulated
+ * disk's, but requests are performed right away in the requesting thread with no seek delay, and sync never writes
+ * the image back, so nothing a run does reaches the DISK file.  It stands in for a disk when timing the file system
+ * itself (see FsBench), with no disk thread, seek model or file I/O in the measurement.
+ *
+ * Chosen at boot with -DthreadOS.disk=memory (see Kernel).
+ */
+
+public class MemoryDisk extends Disk
+{
+    /**
+     * MemoryDisk(int totalBlocks)
+     * Overloaded constructor creates a disk of totalBlocks blocks and loads its contents from the DISK file.
+     * @param totalBlocks
+     */
+    public MemoryDisk( int totalBlocks )
+    {
+        this(totalBlocks, "DISK");
+    }
+
+    /**
+     * MemoryDisk(int totalBlocks, String fileName)
+     * Overloaded constructor creates a disk of totalBlocks blocks and loads its contents from fileName.
+     * @param totalBlocks
+     * @param fileName
+     */
+    public MemoryDisk( int totalBlocks, String fileName )
+    {
+        super(totalBlocks, true, fileName);
+    }
+
+    /**
+     * synchronous()
+     * @return true, requests are performed in the requesting thread
+     */
+    protected boolean synchronous( )
+    {
+        return true;
+    }
+
+    /**
+     * seek(boolean transfer)
+     * Memory has no head to move, so there is nothing to wait for.
+     * @param transfer
+     */
+    protected void seek( boolean transfer )
+    {
+    }
+
+    /**
+     * persist()
+     * The image is never written back.
+     */
+    protected void persist( )
+    {
+    }
+}
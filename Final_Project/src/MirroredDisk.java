@@ -0,0 +1,450 @@
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * @Project: Final_Project
+ * @file: MirroredDisk.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Mirrored (RAID-1) disk: every member disk holds a full copy of the disk.  A write goes to every member, in
+ * parallel (see DiskArray).  A read goes to the in-sync members only.  Its block list is cut where a block does not
+ * follow the previous one, as every such gap costs a seek, and the pieces are dealt out in order as evenly as they
+ * go, one run per member, each run to the member whose head is nearest its first block.  A scattered or merged read
+ * is so served by all mirrors at once, while a single run of consecutive blocks stays on one member.  Ties go to
+ * the member that has read the fewest blocks.
+ *
+ * A member is in one of three states:
+ *      ACTIVE:     in sync, takes reads and writes
+ *      STALE:      being brought in sync, takes writes but no reads
+ *      DETACHED:   takes nothing, as if it had been pulled out
+ * A stale member is resynced in the background by copying the whole disk onto it from the active members,
+ * resyncChunk blocks at a time; each chunk holds the array between two requests, and requests go first.  Since a
+ * stale member also takes every write, a chunk copied early stays current, and the member is active once the last
+ * chunk is copied.  SysLib.detach and SysLib.attach take a member out and put it back, stale.
+ *
+ * The states are saved in the file DISK.mirror (the first member's file name with .mirror) whenever one changes, so a member that was stale or detached is not
+ * read at the next boot either; a stale one resumes its resync from the start.  A member whose file did not exist
+ * while others did is stale as well, so a replaced disk is filled in from the others.
+ *
+ * Chosen at boot with -DthreadOS.mirror=n, n member disks of any backend kept in DISK, DISK.1 .. DISK.n-1 (see
+ * Kernel), so a DISK image of a single disk can be mirrored as it is.
+ */
+
+public class MirroredDisk extends DiskArray
+{
+    public final static int ACTIVE = 0;
+    public final static int STALE = 1;
+    public final static int DETACHED = 2;
+    private final static int resyncChunk = 32;      // blocks copied by one resync step
+    private final String stateFile;                 // the first member's file name with .mirror
+
+    private int[] state;                            // per member
+    private int[] head;                             // last block each member served
+    private int[][] pieceBlocks;                    // block list of each member's run of a split read
+    private byte[][] pieceData;                     // its data, grown on demand
+    private int[] pieceStart;                       // where each member's run starts in the request
+    private int[] pieceCount;
+    private int[] gaps;                             // where the consecutive pieces of the current read start
+    private boolean[] used;                         // members given a run of the current read
+    private byte[] buffer;                          // the caller's buffer of the current read
+    private boolean direct;                         // one member reads into the caller's buffer itself
+    private int[] resyncBlocks;
+    private byte[] resyncData;
+
+    private long[] read;                            // blocks read per member
+    private long written;                           // blocks written to the mirror
+    private long resynced;                          // blocks copied to stale members
+    private long resyncs;                           // members brought back in sync
+
+    /**
+     * Resync
+     * Background thread copying the disk onto stale members.
+     */
+    private class Resync extends Thread
+    {
+        public void run( )
+        {
+            while (true)
+            {
+                int member = nextStale();
+                int block = 0;
+                while (block < diskSize && step(member, block))
+                    block += resyncChunk;
+                if (block >= diskSize)
+                    activate(member);
+            }
+        }
+    }
+
+    /**
+     * MirroredDisk(int totalBlocks, Disk members[])
+     * Overloaded constructor mirrors a disk of totalBlocks blocks on members, each of at least totalBlocks blocks.
+     * @param totalBlocks
+     * @param members
+     */
+    public MirroredDisk( int totalBlocks, Disk members[] )
+    {
+        super(totalBlocks, members);
+        state = new int[members.length];
+        head = new int[members.length];
+        pieceBlocks = new int[members.length][0];
+        pieceData = new byte[members.length][0];
+        pieceStart = new int[members.length];
+        pieceCount = new int[members.length];
+        used = new boolean[members.length];
+        gaps = new int[1];
+        resyncBlocks = new int[resyncChunk];
+        resyncData = new byte[resyncChunk * blockSize];
+        read = new long[members.length];
+        stateFile = members[0].fileName + ".mirror";
+
+        loadStates();
+        boolean kept = false;
+        for (int m = 0; m < members.length; m++)
+            kept |= !members[m].created;
+        for (int m = 0; m < members.length; m++)
+        {
+            if (kept && members[m].created && state[m] == ACTIVE)
+                state[m] = STALE;
+        }
+        if (active() == 0)
+        {
+            for (int m = 0; m < members.length; m++)
+                state[m] = ACTIVE;                  // nothing to copy from, trust every member
+        }
+        saveStates();
+    }
+
+    /**
+     * start(int command, int blockIds[], int count, byte buffer[])
+     * Hands a write to every member that is not detached, or a read in up to one run per active member.
+     * @param command READ or WRITE
+     * @param blockIds
+     * @param count
+     * @param buffer
+     */
+    protected void start( int command, int blockIds[], int count, byte buffer[] )
+    {
+        if (command == WRITE)
+        {
+            for (int m = 0; m < members.length; m++)
+            {
+                if (state[m] == DETACHED)
+                    continue;
+                dispatch(m, true, blockIds, count, buffer);
+                if (count > 0)
+                    head[m] = blockIds[count - 1];
+            }
+            written += count;
+            return;
+        }
+
+        int segments = segments(blockIds, count);
+        int pieces = Math.min(active(), segments);
+        this.buffer = buffer;
+        direct = (pieces <= 1);
+        for (int m = 0; m < members.length; m++)
+            used[m] = false;
+        for (int p = 0; p < pieces; p++)
+        {
+            int first = gaps[segments * p / pieces];
+            int n = gaps[segments * (p + 1) / pieces] - first;
+            int m = nearest(blockIds[first]);
+            used[m] = true;
+            read[m] += n;
+            head[m] = blockIds[first + n - 1];
+            if (direct)
+            {
+                dispatch(m, false, blockIds, count, buffer);
+                continue;
+            }
+            if (pieceBlocks[m].length < n)
+            {
+                pieceBlocks[m] = new int[n];
+                pieceData[m] = new byte[n * blockSize];
+            }
+            System.arraycopy(blockIds, first, pieceBlocks[m], 0, n);
+            pieceStart[m] = first;
+            pieceCount[m] = n;
+            dispatch(m, false, pieceBlocks[m], n, pieceData[m]);
+        }
+    }
+
+    /**
+     * segments(int blockIds[], int count)
+     * Fills gaps with the index of the first block of every run of consecutive blocks among the first count of
+     * blockIds, followed by count.
+     * @param blockIds
+     * @param count
+     * @return int number of runs
+     */
+    private int segments( int blockIds[], int count )
+    {
+        if (gaps.length < count + 1)
+            gaps = new int[count + 1];
+        int segments = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (i == 0 || blockIds[i] != blockIds[i - 1] + 1)
+                gaps[segments++] = i;
+        }
+        gaps[segments] = count;
+        return segments;
+    }
+
+    /**
+     * finish()
+     * Copies the runs of a split read into the caller's buffer.
+     */
+    protected void finish( )
+    {
+        if (command == READ && !direct)
+        {
+            for (int m = 0; m < members.length; m++)
+            {
+                if (used[m])
+                    System.arraycopy(pieceData[m], 0, buffer, pieceStart[m] * blockSize, pieceCount[m] * blockSize);
+            }
+        }
+        buffer = null;
+    }
+
+    protected boolean attached( int m )
+    {
+        return state[m] != DETACHED;
+    }
+
+    /**
+     * detach(int m)
+     * Takes member m out of the mirror once the request in progress is done.  The last active member cannot be
+     * detached.
+     * @param m
+     * @return true upon success, false if m is not a member, detached already or the last active one
+     */
+    public synchronized boolean detach( int m )
+    {
+        if (m < 0 || m >= members.length || state[m] == DETACHED || (state[m] == ACTIVE && active() == 1))
+            return false;
+        beginInternal();
+        state[m] = DETACHED;
+        saveStates();
+        endInternal();
+        return true;
+    }
+
+    /**
+     * attach(int m)
+     * Puts detached member m back as stale, to be resynced in the background.
+     * @param m
+     * @return true upon success, false if m is not a detached member
+     */
+    public synchronized boolean attach( int m )
+    {
+        if (m < 0 || m >= members.length || state[m] != DETACHED)
+            return false;
+        state[m] = STALE;
+        saveStates();
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * state(int m)
+     * @param m
+     * @return int ACTIVE, STALE or DETACHED, -1 if m is not a member
+     */
+    public synchronized int state( int m )
+    {
+        return (m >= 0 && m < members.length) ? state[m] : -1;
+    }
+
+    /**
+     * nextStale()
+     * @return int a stale member, waiting until there is one
+     */
+    private synchronized int nextStale( )
+    {
+        while (true)
+        {
+            for (int m = 0; m < members.length; m++)
+            {
+                if (state[m] == STALE)
+                    return m;
+            }
+            waitArray();
+        }
+    }
+
+    /**
+     * step(int m, int block)
+     * Copies resyncChunk blocks from block on from an active member to stale member m, holding the array between
+     * two requests.
+     * @param m
+     * @param block
+     * @return true if copied, false if m is no longer stale
+     */
+    private synchronized boolean step( int m, int block )
+    {
+        beginInternal();
+        if (state[m] != STALE)
+        {
+            endInternal();
+            return false;
+        }
+        int n = Math.min(resyncChunk, diskSize - block);
+        for (int i = 0; i < n; i++)
+            resyncBlocks[i] = block + i;
+        for (int i = 0; i < members.length; i++)
+            used[i] = false;
+        int source = nearest(block);
+        dispatch(source, false, resyncBlocks, n, resyncData);
+        awaitInternal();
+        dispatch(m, true, resyncBlocks, n, resyncData);
+        awaitInternal();
+        head[source] = head[m] = block + n - 1;
+        resynced += n;
+        endInternal();
+        return true;
+    }
+
+    /**
+     * activate(int m)
+     * Marks stale member m active after its last chunk was copied.
+     * @param m
+     */
+    private synchronized void activate( int m )
+    {
+        if (state[m] != STALE)
+            return;
+        state[m] = ACTIVE;
+        saveStates();
+        resyncs++;
+        SysLib.cerr("threadOS: " + members[m].fileName + " resynced\n");
+    }
+
+    /**
+     * loadStates()
+     * Reads the member states saved in DISK.mirror by the last run, one letter per member (A, S or D).  Without the
+     * file, or with one for another number of members, every member starts active.
+     */
+    private void loadStates( )
+    {
+        try
+        {
+            FileInputStream ifstream = new FileInputStream(stateFile);
+            byte[] saved = new byte[members.length + 1];
+            int length = ifstream.read(saved);
+            ifstream.close();
+            if (length != members.length)
+                return;
+            for (int m = 0; m < members.length; m++)
+            {
+                int s = "ASD".indexOf(saved[m]);
+                state[m] = (s >= 0) ? s : STALE;
+            }
+        }
+        catch (FileNotFoundException e)
+        {
+            return;
+        }
+        catch (IOException e)
+        {
+            SysLib.cerr(e.toString() + "\n");
+        }
+    }
+
+    /**
+     * saveStates()
+     * Writes the member states to DISK.mirror.
+     */
+    private void saveStates( )
+    {
+        try
+        {
+            FileOutputStream ofstream = new FileOutputStream(stateFile);
+            ofstream.write(states().getBytes());
+            ofstream.close();
+        }
+        catch (IOException e)
+        {
+            SysLib.cerr(e.toString() + "\n");
+        }
+    }
+
+    /**
+     * states()
+     * @return String one letter per member, A active, S stale, D detached
+     */
+    private String states( )
+    {
+        String states = "";
+        for (int m = 0; m < members.length; m++)
+            states += "ASD".charAt(state[m]);
+        return states;
+    }
+
+    /**
+     * nearest(int block)
+     * @param block
+     * @return int active member not used by the current read whose head is nearest block, the one that has read
+     *             the fewest blocks among equally near ones
+     */
+    private int nearest( int block )
+    {
+        int best = -1;
+        for (int m = 0; m < members.length; m++)
+        {
+            if (state[m] != ACTIVE || used[m])
+                continue;
+            if (best < 0 || Math.abs(head[m] - block) < Math.abs(head[best] - block)
+                    || (Math.abs(head[m] - block) == Math.abs(head[best] - block) && read[m] < read[best]))
+                best = m;
+        }
+        return best;
+    }
+
+    /**
+     * active()
+     * @return int number of active members
+     */
+    private int active( )
+    {
+        int count = 0;
+        for (int m = 0; m < members.length; m++)
+        {
+            if (state[m] == ACTIVE)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * run()
+     * Starts the member disks and the resync thread.
+     */
+    public void run( )
+    {
+        super.run();
+        Resync resync = new Resync();
+        resync.setDaemon(true);
+        resync.start();
+    }
+
+    /**
+     * toString()
+     * Reports the state of every member (A active, S stale, D detached), the blocks each member read, the blocks
+     * written, and the blocks copied by resyncs.
+     * @return String statistics of this disk
+     */
+    public synchronized String toString( )
+    {
+        String reads = "";
+        for (int m = 0; m < members.length; m++)
+            reads += (m > 0 ? "," : "") + read[m];
+        return "mirror disks=" + members.length + " states=" + states() + " reads=" + reads + " written=" + written
+                + " resynced=" + resynced + " resyncs=" + resyncs;
+    }
+}
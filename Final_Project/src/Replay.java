@@ -0,0 +1,346 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * @Project: Final_Project
+ * @file: Replay.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Replays a block I/O trace recorded with -DthreadOS.trace (see Trace) against the disk.  Every thread of the trace
+ * gets a thread of its own that issues that thread's requests in their recorded order with rawread, rawwrite, their
+ * vectored forms and dsync, so the disk queue sees the same requests from the same number of threads.  At recorded
+ * speed each request is issued at its recorded time after the start of the replay, or right away once the thread
+ * has fallen behind; at maximum speed every thread issues its next request as soon as the last one completes.  The
+ * syscall records of -DthreadOS.traceSyscalls are counted but not replayed.
+ *
+ * It reports, per operation, the requests, blocks and mean latency, then the elapsed time against the traced time,
+ * and at recorded speed how far the slowest thread fell behind.  Comparing these over boots with another disk
+ * queue policy or disk layout (-DthreadOS.diskQueue, -DthreadOS.stripe, -DthreadOS.mirror) shows what the change
+ * does to the same workload.
+ *
+ * The requests overwrite the blocks of the disk with zeros, so boot on a fresh disk file for it, for example with
+ * -DthreadOS.diskFile=REPLAY, and without tracing.
+ *
+ * Run from the ThreadOS shell:  l Replay [trace [max]]
+ */
+
+public class Replay extends Thread
+{
+    private final static String[] ops = { "read", "write", "sync" };
+
+    private final String fileName;
+    private final boolean maxSpeed;
+    private Hashtable<Integer, Player> players;     // traced thread id to its Player
+    private long first;                             // time of the first replayed request in the trace
+    private long last;                              // time of the last one
+    private int diskBlocks;
+    private long[] syscalls;                        // syscall records in the trace, by syscall number
+
+    /**
+     * Request
+     * One traced disk request, its runs joined again.
+     */
+    private static class Request
+    {
+        long time;
+        int op;
+        int[] blocks;
+        int count;
+    }
+
+    /**
+     * Player
+     * Issues the requests of one traced thread.
+     */
+    private class Player extends Thread
+    {
+        Vector<Request> requests = new Vector<Request>();
+        int maxBlocks = 1;
+        long start;                                 // nanoTime the replay started
+        long[] count = new long[ops.length];
+        long[] blocks = new long[ops.length];
+        long[] nanos = new long[ops.length];
+        long lag;                                   // ns the thread was behind at worst
+        int errors;
+
+        public void run( )
+        {
+            byte[] buffer = new byte[maxBlocks * Disk.blockSize];
+            for (int i = 0; i < requests.size(); i++)
+            {
+                Request request = requests.elementAt(i);
+                if (!maxSpeed)
+                {
+                    long ahead = start + (request.time - first) - System.nanoTime();
+                    if (ahead > 0)
+                        pause(ahead);
+                    else
+                        lag = Math.max(lag, -ahead);
+                }
+                long issued = System.nanoTime();
+                if (issue(request, buffer) != Kernel.OK)
+                    errors++;
+                nanos[request.op] += System.nanoTime() - issued;
+                count[request.op]++;
+                blocks[request.op] += request.count;
+            }
+        }
+    }
+
+    public Replay( String args[] )
+    {
+        fileName = args[0];
+        maxSpeed = (args.length > 1) && args[1].equals("max");
+    }
+
+    public Replay( )
+    {
+        fileName = "TRACE";
+        maxSpeed = false;
+    }
+
+    public void run( )
+    {
+        players = new Hashtable<Integer, Player>();
+        syscalls = new long[64];
+        if (!load())
+        {
+            SysLib.exit();
+            return;
+        }
+
+        long start = System.nanoTime();
+        for (Enumeration<Player> e = players.elements(); e.hasMoreElements(); )
+        {
+            Player player = e.nextElement();
+            player.start = start;
+            player.start();
+        }
+        for (Enumeration<Player> e = players.elements(); e.hasMoreElements(); )
+        {
+            try
+            {
+                e.nextElement().join();
+            }
+            catch (InterruptedException ex)
+            {
+                SysLib.cerr(ex.toString() + "\n");
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        report(elapsed);
+        SysLib.exit();
+    }
+
+    /**
+     * load()
+     * Reads the trace into one Player per traced thread.
+     * @return true if the trace could be read
+     */
+    private boolean load( )
+    {
+        DataInputStream in;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 65536));
+            if (in.readInt() != Trace.MAGIC || in.readInt() != Trace.VERSION)
+            {
+                SysLib.cerr("Replay: " + fileName + " is not a trace\n");
+                in.close();
+                return false;
+            }
+            if (in.readInt() != Disk.blockSize)
+            {
+                SysLib.cerr("Replay: " + fileName + " was traced with another block size\n");
+                in.close();
+                return false;
+            }
+            diskBlocks = in.readInt();
+        }
+        catch (IOException e)
+        {
+            SysLib.cerr("Replay: cannot read " + fileName + ": " + e + "\n");
+            return false;
+        }
+
+        first = -1;
+        Request previous = null;
+        try
+        {
+            while (true)
+            {
+                long time = in.readLong();
+                int thread = in.readInt();
+                int op = in.readByte();
+                int block = in.readInt();
+                int length = in.readInt();
+                if (op == Trace.SYSCALL)
+                {
+                    if (block >= 0 && block < syscalls.length)
+                        syscalls[block]++;
+                    continue;
+                }
+                if ((op & ~Trace.RUN) > Trace.SYNC || op < 0)
+                    continue;                       // not an op of this version
+                if ((op & Trace.RUN) != 0 && previous != null)
+                {
+                    append(previous, block, length);
+                    continue;
+                }
+                Integer key = Integer.valueOf(thread);
+                Player player = players.get(key);
+                if (player == null)
+                {
+                    player = new Player();
+                    players.put(key, player);
+                }
+                Request request = new Request();
+                request.time = time;
+                request.op = op & ~Trace.RUN;
+                request.blocks = new int[Math.max(length, 1)];
+                append(request, block, length);
+                player.requests.addElement(request);
+                previous = request;
+                if (first < 0)
+                    first = time;
+                last = time;
+            }
+        }
+        catch (EOFException e)
+        {
+            // the end of the trace; a record cut short by a crash is dropped
+        }
+        catch (IOException e)
+        {
+            SysLib.cerr("Replay: cannot read " + fileName + ": " + e + "\n");
+            return false;
+        }
+        try
+        {
+            in.close();
+        }
+        catch (IOException e)
+        {
+            // everything was read already
+        }
+
+        for (Enumeration<Player> e = players.elements(); e.hasMoreElements(); )
+        {
+            Player player = e.nextElement();
+            for (int i = 0; i < player.requests.size(); i++)
+                player.maxBlocks = Math.max(player.maxBlocks, player.requests.elementAt(i).count);
+        }
+        return true;
+    }
+
+    /**
+     * append(Request request, int block, int length)
+     * Adds a run of length blocks starting at block to a request.
+     * @param request
+     * @param block
+     * @param length
+     */
+    private static void append( Request request, int block, int length )
+    {
+        if (request.count + length > request.blocks.length)
+            request.blocks = Arrays.copyOf(request.blocks, Math.max(request.count + length, 2 * request.count));
+        for (int i = 0; i < length; i++)
+            request.blocks[request.count++] = block + i;
+    }
+
+    /**
+     * issue(Request request, byte buffer[])
+     * @param request
+     * @param buffer
+     * @return int result of the syscall performing the request
+     */
+    private static int issue( Request request, byte buffer[] )
+    {
+        switch (request.op)
+        {
+            case Trace.READ:
+                if (request.count == 1)
+                    return SysLib.rawread(request.blocks[0], buffer);
+                return SysLib.rawreadv(request.blocks, request.count, buffer);
+            case Trace.WRITE:
+                if (request.count == 1)
+                    return SysLib.rawwrite(request.blocks[0], buffer);
+                return SysLib.rawwritev(request.blocks, request.count, buffer);
+            case Trace.SYNC:
+                return SysLib.dsync();
+        }
+        return Kernel.ERROR;
+    }
+
+    private static void pause( long nanos )
+    {
+        try
+        {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        }
+        catch (InterruptedException e)
+        {
+            SysLib.cerr(e.toString() + "\n");
+        }
+    }
+
+    /**
+     * report(long elapsed)
+     * Prints the requests, blocks and mean latency of every operation and the totals of the replay.
+     * @param elapsed ns the replay took
+     */
+    private void report( long elapsed )
+    {
+        long[] count = new long[ops.length];
+        long[] blocks = new long[ops.length];
+        long[] nanos = new long[ops.length];
+        long lag = 0;
+        long requests = 0;
+        int errors = 0;
+        for (Enumeration<Player> e = players.elements(); e.hasMoreElements(); )
+        {
+            Player player = e.nextElement();
+            for (int op = 0; op < ops.length; op++)
+            {
+                count[op] += player.count[op];
+                blocks[op] += player.blocks[op];
+                nanos[op] += player.nanos[op];
+                requests += player.count[op];
+            }
+            lag = Math.max(lag, player.lag);
+            errors += player.errors;
+        }
+
+        SysLib.cout("replay " + fileName + " of a " + diskBlocks + " block disk, " + players.size() + " threads, "
+                + (maxSpeed ? "maximum" : "recorded") + " speed\n");
+        SysLib.cout("op       requests    blocks   mean us\n");
+        for (int op = 0; op < ops.length; op++)
+        {
+            if (count[op] == 0)
+                continue;
+            SysLib.cout(Stats.pad(ops[op], -8) + Stats.pad("" + count[op], 9) + Stats.pad("" + blocks[op], 10)
+                    + Stats.pad("" + (nanos[op] / count[op] / 1000), 10) + "\n");
+        }
+        long rate = (elapsed > 0) ? requests * 1000000000L / elapsed : 0;
+        SysLib.cout("elapsed=" + (elapsed / 1000000) + "ms traced=" + (Math.max(last - first, 0) / 1000000)
+                + "ms requests/s=" + rate + (maxSpeed ? "" : " max lag=" + (lag / 1000000) + "ms")
+                + " errors=" + errors + "\n");
+
+        String traced = "";
+        for (int cmd = 0; cmd < syscalls.length; cmd++)
+        {
+            if (syscalls[cmd] > 0)
+                traced += " " + Stats.name(cmd) + "=" + syscalls[cmd];
+        }
+        if (traced.length() > 0)
+            SysLib.cout("file system syscalls in the trace, not replayed:" + traced + "\n");
+    }
+}
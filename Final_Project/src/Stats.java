@@ -0,0 +1,345 @@
+/**
+ * @Project: Final_Project
+ * @file: Stats.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Syscall statistics.  Kernel.interrupt times every software interrupt and records it under its syscall: the number
+ * of calls, a latency histogram, the bytes moved, the disk requests issued, and the time spent waiting for locks
+ * (the FileTable inode table and file gates, the FileSystem namespace and file entry locks), waiting in the disk
+ * queue and waiting for the disk itself.
+ *
+ * Every thread adds its waits and disk requests to a probe of its own, without locking; the kernel takes the
+ * difference over a syscall when it returns.  A syscall made by the kernel while serving another one (the cread of
+ * a read, the cwritev of a write) is part of the outer syscall and is not recorded by itself.  Syscalls and disk
+ * requests of the kernel's daemon threads, doing read-ahead, journal commits, inode flushes, asynchronous I/O and
+ * mirror resyncs, are not recorded by syscall; their disk requests are counted as background.
+ *
+ * Latencies go into a log-linear histogram in the manner of HdrHistogram: eight buckets for every power of two of
+ * nanoseconds, so a percentile is within 12.5% of the exact value, in a fixed array and without allocating.
+ *
+ * The statistics are read with SysLib.stats(), and printed on sync with -DthreadOS.report=on.  -DthreadOS.stats=off
+ * turns them off at boot; enabled is then a constant false and every probe folds away.
+ */
+
+public class Stats
+{
+    public final static boolean enabled = !"off".equals(System.getProperty("threadOS.stats"));
+
+    private final static int syscalls = 43;                 // Kernel syscall numbers 0 .. STATS
+    private final static int subBits = 3;                   // 2^subBits buckets per power of two
+    private final static int buckets = (64 - subBits + 1) << subBits;
+
+    private final static String[] names = {
+        "boot", "exec", "wait", "exit", "sleep", "rawread", "rawwrite", "sync", "read", "write", "cread", "cwrite",
+        "csync", "cflush", "open", "close", "size", "seek", "format", "delete", "fallocate", "rawreadv", "rawwritev",
+        "creadv", "cwritev", "cprefetch", "fsync", "dsync", null, null, null, "jsync", "mkdir", "rmdir",
+        "readdir", "aread", "awrite", "apoll", "await", "awaitany", "detach", "attach", "stats"
+    };
+
+    private final static Record[] records = new Record[syscalls];
+    private final static Record background = new Record();  // disk requests outside of any syscall
+    private final static ThreadLocal<Probe> probes = new ThreadLocal<Probe>()
+    {
+        protected Probe initialValue( )
+        {
+            Probe probe = new Probe();
+            probe.kernel = Thread.currentThread().isDaemon();
+            return probe;
+        }
+    };
+
+    /**
+     * Probe
+     * Running totals of one thread, and their values when its current syscall began.
+     */
+    static class Probe
+    {
+        boolean kernel;                     // a kernel daemon thread, whose work is background
+        int depth;                          // syscalls in progress, the kernel's own ones nested in the first
+        long start;
+        long diskOps;
+        long lockNanos;
+        long queueNanos;
+        long diskNanos;
+        long startDiskOps;
+        long startLockNanos;
+        long startQueueNanos;
+        long startDiskNanos;
+    }
+
+    /**
+     * Record
+     * Totals of one syscall.
+     */
+    private static class Record
+    {
+        long calls;
+        long totalNanos;
+        long maxNanos;
+        long bytes;
+        long diskOps;
+        long lockNanos;
+        long queueNanos;
+        long diskNanos;
+        long[] histogram = new long[buckets];
+    }
+
+    static
+    {
+        for (int cmd = 0; cmd < syscalls; cmd++)
+            records[cmd] = new Record();
+    }
+
+    private Stats( )
+    {
+    }
+
+    /**
+     * now()
+     * @return long the current time in ns to measure a wait from, 0 when statistics are off
+     */
+    public static long now( )
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * enter()
+     * Starts a syscall of the current thread.
+     * @return Probe of the current thread, to be handed to leave()
+     */
+    public static Probe enter( )
+    {
+        Probe probe = probes.get();
+        if (probe.depth++ == 0)
+        {
+            probe.startDiskOps = probe.diskOps;
+            probe.startLockNanos = probe.lockNanos;
+            probe.startQueueNanos = probe.queueNanos;
+            probe.startDiskNanos = probe.diskNanos;
+            probe.start = System.nanoTime();
+        }
+        return probe;
+    }
+
+    /**
+     * leave(Probe probe, int cmd, int bytes)
+     * Ends a syscall of the current thread and records it under cmd, unless it was made while serving another one.
+     * @param probe returned by enter()
+     * @param cmd
+     * @param bytes moved by the syscall
+     */
+    public static void leave( Probe probe, int cmd, int bytes )
+    {
+        if (--probe.depth > 0 || probe.kernel)
+            return;
+        long nanos = System.nanoTime() - probe.start;
+        Record record = (cmd >= 0 && cmd < syscalls) ? records[cmd] : null;
+        if (record == null)
+            return;
+        synchronized (record)
+        {
+            record.calls++;
+            record.totalNanos += nanos;
+            record.maxNanos = Math.max(record.maxNanos, nanos);
+            record.histogram[bucket(nanos)]++;
+            record.bytes += bytes;
+            record.diskOps += probe.diskOps - probe.startDiskOps;
+            record.lockNanos += probe.lockNanos - probe.startLockNanos;
+            record.queueNanos += probe.queueNanos - probe.startQueueNanos;
+            record.diskNanos += probe.diskNanos - probe.startDiskNanos;
+        }
+    }
+
+    /**
+     * lockWait(long since)
+     * Adds the time since a thread began to wait for a lock to its waits.
+     * @param since from now()
+     */
+    public static void lockWait( long since )
+    {
+        if (enabled)
+            probes.get().lockNanos += System.nanoTime() - since;
+    }
+
+    /**
+     * diskOp(long arrival, long taken)
+     * Counts one disk request of the current thread that entered the disk queue at arrival, was handed to the disk
+     * at taken and has just completed.
+     * @param arrival
+     * @param taken
+     */
+    public static void diskOp( long arrival, long taken )
+    {
+        if (!enabled)
+            return;
+        Probe probe = probes.get();
+        long now = System.nanoTime();
+        if (probe.depth > 0 && !probe.kernel)
+        {
+            probe.diskOps++;
+            probe.queueNanos += taken - arrival;
+            probe.diskNanos += now - taken;
+            return;
+        }
+        synchronized (background)
+        {
+            background.calls++;
+            background.diskOps++;
+            background.queueNanos += taken - arrival;
+            background.diskNanos += now - taken;
+        }
+    }
+
+    /**
+     * name(int cmd)
+     * @param cmd
+     * @return String name of a syscall number
+     */
+    public static String name( int cmd )
+    {
+        return (cmd >= 0 && cmd < syscalls && names[cmd] != null) ? names[cmd] : "syscall" + cmd;
+    }
+
+    /**
+     * bucket(long nanos)
+     * @param nanos
+     * @return int histogram bucket of a latency: exact below 2^subBits, then 2^subBits buckets per power of two
+     */
+    private static int bucket( long nanos )
+    {
+        if (nanos < (1L << subBits))
+            return (int) Math.max(nanos, 0);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        return ((exponent - subBits) << subBits) + (int) (nanos >>> (exponent - subBits));
+    }
+
+    /**
+     * lowest(int bucket)
+     * @param bucket
+     * @return long smallest latency in ns falling into bucket
+     */
+    private static long lowest( int bucket )
+    {
+        if (bucket < (2 << subBits))
+            return bucket;
+        int exponent = (bucket >> subBits) + subBits - 1;
+        long mantissa = (bucket & ((1 << subBits) - 1)) + (1 << subBits);
+        return mantissa << (exponent - subBits);
+    }
+
+    /**
+     * percentile(Record record, int percent)
+     * @param record
+     * @param percent
+     * @return long upper bound in ns of the histogram bucket holding the given percentile, at most the maximum
+     */
+    private static long percentile( Record record, int percent )
+    {
+        long wanted = (record.calls * percent + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < buckets; bucket++)
+        {
+            seen += record.histogram[bucket];
+            if (seen >= wanted)
+                return Math.min((bucket + 1 < buckets) ? lowest(bucket + 1) : Long.MAX_VALUE, record.maxNanos);
+        }
+        return record.maxNanos;
+    }
+
+    /**
+     * reset()
+     * Clears every statistic.
+     */
+    public static void reset( )
+    {
+        for (int cmd = 0; cmd < syscalls; cmd++)
+        {
+            synchronized (records[cmd])
+            {
+                clear(records[cmd]);
+            }
+        }
+        synchronized (background)
+        {
+            clear(background);
+        }
+    }
+
+    private static void clear( Record record )
+    {
+        record.calls = record.totalNanos = record.maxNanos = record.bytes = record.diskOps = 0;
+        record.lockNanos = record.queueNanos = record.diskNanos = 0;
+        for (int bucket = 0; bucket < buckets; bucket++)
+            record.histogram[bucket] = 0;
+    }
+
+    /**
+     * report()
+     * Reports, for every syscall made, the calls, the mean, median, 90th and 99th percentile and maximum latency in
+     * us, the bytes moved, the disk requests issued and the ms spent waiting for locks, in the disk queue and for
+     * the disk; then the disk requests made in the background.
+     * @return String one line per syscall
+     */
+    public static String report( )
+    {
+        if (!enabled)
+            return "stats off\n";
+        StringBuffer out = new StringBuffer();
+        out.append(pad("syscall", -10) + pad("calls", 9) + pad("mean", 9) + pad("p50", 9) + pad("p90", 9)
+                + pad("p99", 9) + pad("max", 10) + pad("bytes", 12) + pad("diskops", 9) + pad("lock", 9)
+                + pad("queue", 9) + pad("disk", 9) + "\n");
+        for (int cmd = 0; cmd < syscalls; cmd++)
+        {
+            Record record = records[cmd];
+            synchronized (record)
+            {
+                if (record.calls == 0)
+                    continue;
+                out.append(pad(names[cmd], -10) + pad("" + record.calls, 9)
+                        + pad(micros(record.totalNanos / record.calls), 9) + pad(micros(percentile(record, 50)), 9)
+                        + pad(micros(percentile(record, 90)), 9) + pad(micros(percentile(record, 99)), 9)
+                        + pad(micros(record.maxNanos), 10) + pad("" + record.bytes, 12)
+                        + pad("" + record.diskOps, 9) + pad(millis(record.lockNanos), 9)
+                        + pad(millis(record.queueNanos), 9) + pad(millis(record.diskNanos), 9) + "\n");
+            }
+        }
+        synchronized (background)
+        {
+            out.append("background diskops=" + background.diskOps + " queue=" + millis(background.queueNanos)
+                    + "ms disk=" + millis(background.diskNanos) + "ms (latencies in us, waits in ms)\n");
+        }
+        return out.toString();
+    }
+
+    private static String micros( long nanos )
+    {
+        return "" + (nanos / 1000);
+    }
+
+    private static String millis( long nanos )
+    {
+        long micros = nanos / 1000;
+        return (micros / 1000) + "." + (micros % 1000 / 100);
+    }
+
+    /**
+     * pad(String text, int width)
+     * @param text
+     * @param width right aligned if positive, left aligned if negative
+     * @return String text padded with blanks to width
+     */
+    static String pad( String text, int width )
+    {
+        StringBuffer padded = new StringBuffer(text);
+        while (padded.length() < Math.abs(width))
+        {
+            if (width > 0)
+                padded.insert(0, ' ');
+            else
+                padded.append(' ');
+        }
+        return padded.toString();
+    }
+}
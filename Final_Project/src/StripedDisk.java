@@ -0,0 +1,191 @@
+import java.util.Arrays;
+
+/**
+ * @Project: Final_Project
+ * @file: StripedDisk.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Striped (RAID-0) disk built from several member disks, each with its own thread and file.  Logical blocks are
+ * dealt out to the members unit blocks at a time: stripe s = block / unit goes to member s % members, where it is
+ * stripe s / members of that member, so a run of consecutive logical blocks is a run of consecutive blocks on every
+ * member it touches.
+ *
+ * A request is split by member and every part is handed to its member at once (see DiskArray), so the members
+ * seek and transfer in parallel.  A request that falls on one member is passed through with the caller's buffer,
+ * the others are gathered into and scattered from one buffer per member.
+ *
+ * Chosen at boot with -DthreadOS.stripe=n, n member disks of any backend kept in DISK0 .. DISKn-1, and
+ * -DthreadOS.stripeUnit=blocks (see Kernel).  The members hold only their share of the disk, so a DISK image of a
+ * single disk cannot be read through a striped disk, and neither can the members written with another number of
+ * disks or another unit.
+ */
+
+public class StripedDisk extends DiskArray
+{
+    public final static int defaultUnit = 4;        // blocks per stripe unit, 2 KB
+
+    private final int unit;
+    private int[][] memberBlocks;                   // member blocks of the current request, per member
+    private byte[][] memberData;                    // data of the current request, per member, grown on demand
+    private int[] memberCount;                      // entries of memberBlocks in use
+    private int[] cursor;                           // scatter and gather position, per member
+
+    private int[] blocks;                           // logical blocks of the current request
+    private int count;
+    private byte[] buffer;                          // the caller's buffer
+    private boolean direct;                         // one member moves the caller's buffer itself
+
+    private long requests;                          // requests accepted
+    private long spanning;                          // requests split over more than one member
+    private long[] moved;                           // blocks moved per member
+
+    /**
+     * StripedDisk(int totalBlocks, int unit, Disk members[])
+     * Overloaded constructor stripes a disk of totalBlocks blocks over members, unit blocks at a time.  Every
+     * member must hold at least memberBlocks(totalBlocks, members.length, unit) blocks.
+     * @param totalBlocks
+     * @param unit
+     * @param members
+     */
+    public StripedDisk( int totalBlocks, int unit, Disk members[] )
+    {
+        super(totalBlocks, members);
+        this.unit = (unit > 0) ? unit : defaultUnit;
+        memberBlocks = new int[members.length][1];
+        memberData = new byte[members.length][0];
+        memberCount = new int[members.length];
+        cursor = new int[members.length];
+        moved = new long[members.length];
+    }
+
+    /**
+     * memberBlocks(int totalBlocks, int disks, int unit)
+     * @param totalBlocks
+     * @param disks
+     * @param unit
+     * @return int blocks each of disks members needs to stripe a disk of totalBlocks blocks unit blocks at a time
+     */
+    public static int memberBlocks( int totalBlocks, int disks, int unit )
+    {
+        int stripes = (totalBlocks + unit - 1) / unit;
+        return (stripes + disks - 1) / disks * unit;
+    }
+
+    /**
+     * start(int command, int blockIds[], int count, byte buffer[])
+     * Splits a read or write of the first count blocks of blockIds by member and hands every part to its member.
+     * @param command READ or WRITE
+     * @param blockIds
+     * @param count
+     * @param buffer
+     */
+    protected void start( int command, int blockIds[], int count, byte buffer[] )
+    {
+        int involved = 0;
+        for (int m = 0; m < members.length; m++)
+            memberCount[m] = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int m = member(blockIds[i]);
+            if (memberCount[m] == 0)
+                involved++;
+            if (memberCount[m] == memberBlocks[m].length)
+                memberBlocks[m] = Arrays.copyOf(memberBlocks[m], Math.max(count, 2 * memberCount[m]));
+            memberBlocks[m][memberCount[m]++] = memberBlock(blockIds[i]);
+        }
+
+        this.blocks = blockIds;
+        this.count = count;
+        this.buffer = buffer;
+        direct = (involved <= 1);
+        if (!direct)
+        {
+            for (int m = 0; m < members.length; m++)
+            {
+                if (memberData[m].length < memberCount[m] * blockSize)
+                    memberData[m] = new byte[memberCount[m] * blockSize];
+            }
+            if (command == WRITE)
+                shuffle(true);
+            spanning++;
+        }
+        requests++;
+
+        for (int m = 0; m < members.length; m++)
+        {
+            if (memberCount[m] == 0)
+                continue;
+            moved[m] += memberCount[m];
+            dispatch(m, command == WRITE, memberBlocks[m], memberCount[m], direct ? buffer : memberData[m]);
+        }
+    }
+
+    /**
+     * finish()
+     * Scatters the data of a split read into the caller's buffer.
+     */
+    protected void finish( )
+    {
+        if (command == READ && !direct)
+            shuffle(false);
+        blocks = null;
+        buffer = null;
+    }
+
+    /**
+     * shuffle(boolean gather)
+     * Moves the data of the current request between the caller's buffer and the member buffers, in the order its
+     * blocks were dealt out.
+     * @param gather true to copy the caller's buffer into the member buffers, false for the other way
+     */
+    private void shuffle( boolean gather )
+    {
+        for (int m = 0; m < members.length; m++)
+            cursor[m] = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int m = member(blocks[i]);
+            if (gather)
+                System.arraycopy(buffer, i * blockSize, memberData[m], cursor[m] * blockSize, blockSize);
+            else
+                System.arraycopy(memberData[m], cursor[m] * blockSize, buffer, i * blockSize, blockSize);
+            cursor[m]++;
+        }
+    }
+
+    /**
+     * member(int block)
+     * @param block
+     * @return int member disk holding logical block
+     */
+    private int member( int block )
+    {
+        return (block / unit) % members.length;
+    }
+
+    /**
+     * memberBlock(int block)
+     * @param block
+     * @return int block number of logical block on its member disk
+     */
+    private int memberBlock( int block )
+    {
+        return (block / unit / members.length) * unit + block % unit;
+    }
+
+    /**
+     * toString()
+     * Reports the geometry, the requests accepted, how many were split over several members, and the blocks each
+     * member moved.
+     * @return String statistics of this disk
+     */
+    public synchronized String toString( )
+    {
+        String perMember = "";
+        for (int m = 0; m < members.length; m++)
+            perMember += (m > 0 ? "," : "") + moved[m];
+        return "stripe disks=" + members.length + " unit=" + unit + " requests=" + requests + " spanning="
+                + spanning + " blocks=" + perMember;
+    }
+}
@@ -7,7 +7,18 @@
  * The first block, block 0, is called the superblock.  It is used to describe
  *      1. The number of disk blocks.
  *      2. The number of inodes
- *      3. The block number of the head block of the free list.
+ *      3. The block number of the head block of the free list, i.e. the first data block.
+ *      4. The inode format version the disk was formatted with (see Inode).
+ *      5. A magic number and the layout version of this file system, so a formatted disk can be recognized.
+ *      6. The first block of the metadata journal (see Journal), which takes the last Journal.journalBlocks blocks.
+ *
+ * The inode blocks start at block 1 and are followed by the free-block bitmap (see BlockBitmap), so freeList is
+ * always bitmapStart() + bitmapBlocks().  Data blocks run from freeList up to journalStart.  The superblock is
+ * metadata, so it is written through the journal.
+ *
+ * At boot the superblock is read back and the disk is mounted as it is when the magic number, layout version and
+ * geometry all check out; only a blank or unrecognized disk is formatted.  Otherwise the disk is formatted only on
+ * request, through SysLib.format.
  *
  * It is the OS-managed block. No other information must be recorded in and no user threads must be able to
  * get access to the superblock
@@ -18,56 +29,131 @@ class SuperBlock
     public int totalBlocks;                     // the number of disk blocks
     public int totalInodes;                     // the number of inodes
     public int freeList;                        // the block number of the free list's head
+    public int inodeFormat;                     // Inode.VERSION_SHORT, VERSION_INT or VERSION_EXTENT
+    public int journalStart;                    // the first block of the journal, the end of the data blocks
+    public boolean mounted;                     // true if booted from an existing file system, not formatted
+
+    public final static int MAGIC = 0x54464f53;         // "TFOS", marks a formatted disk
+    public final static int LAYOUT_VERSION = 2;         // on-disk layout version of the superblock
+    public final static int defaultInodes = 64;         // inodes given to a blank disk
 
     /**
      * SuperBlock(int blockAmount)
-     * Overloaded SuperBlock() passes in the number of blocks to be instantiated and sets variables to their values.
+     * Overloaded SuperBlock() reads block 0 and mounts the file system described there.  A disk that is blank, or
+     * whose superblock does not match this file system or a disk of blockAmount blocks, is formatted with
+     * defaultInodes inodes instead.
      * @param blockAmount
      */
     public SuperBlock(int blockAmount)
     {
         byte[] theSuperBlock = new byte[Disk.blockSize];
-        SysLib.rawread(0, theSuperBlock);
+        SysLib.cread(0, theSuperBlock);
         totalBlocks = SysLib.bytes2int(theSuperBlock, 0);
         totalInodes = SysLib.bytes2int(theSuperBlock, 4);
         freeList = SysLib.bytes2int(theSuperBlock, 8);
-        totalInodes = totalBlocks;
+        inodeFormat = SysLib.bytes2int(theSuperBlock, 12);
+        int magic = SysLib.bytes2int(theSuperBlock, 16);
+        int layout = SysLib.bytes2int(theSuperBlock, 20);
+        journalStart = SysLib.bytes2int(theSuperBlock, 24);
+
+        mounted = magic == MAGIC && layout == LAYOUT_VERSION && valid(blockAmount);
+        if (mounted)
+        {
+            Inode.version = inodeFormat;
+            return;
+        }
         totalBlocks = blockAmount;
-        format(64);
+        journalStart = Journal.start(blockAmount);
+        format(defaultInodes);
+    }
+
+    /**
+     * valid(int blockAmount)
+     * Checks that the fields read from disk describe a usable file system on a disk of blockAmount blocks.
+     * @param blockAmount
+     * @return true if the superblock can be mounted
+     */
+    private boolean valid(int blockAmount)
+    {
+        if (totalBlocks != blockAmount || totalInodes <= 0)
+            return false;
+        if (inodeFormat != Inode.VERSION_SHORT && inodeFormat != Inode.VERSION_INT
+                && inodeFormat != Inode.VERSION_EXTENT)
+            return false;
+        if (journalStart != Journal.start(totalBlocks))
+            return false;
+        return freeList == bitmapStart() + bitmapBlocks() && freeList < journalStart;
     }
 
     /**
      * format(int nodeAmount)
-     * This method takes in the number of nodes in the system and formats the blocks, cannot be undone.  Sets all
-     * blocks to free.
+     * Formats the disk with nodeAmount inodes in the default inode format version.
      * @param nodeAmount
      */
     void format(int nodeAmount)
     {
+        format(nodeAmount, Inode.VERSION_INT);
+    }
+
+    /**
+     * format(int nodeAmount, int version)
+     * This method takes in the number of nodes in the system and formats the blocks, cannot be undone.  Sets all
+     * blocks to free.  Inodes are written in the given inode format version, which becomes the mounted version.
+     * Only the metadata is written: the inode blocks, built whole in memory, and the zeroed bitmap go to disk in one
+     * vectored request, then the superblock.  Data blocks are left as they are; they are uninitialized until a file
+     * writes them, and the file system never reads the part of a block past the end of its file, so their old
+     * contents are never seen and formatting costs the same however large the disk is.
+     * @param nodeAmount
+     * @param version
+     */
+    void format(int nodeAmount, int version)
+    {
+        this.inodeFormat = version;
+        Inode.version = version;
         this.totalInodes = nodeAmount;
-        for(short i = 0; i < this.totalInodes; i++)
+        this.freeList = bitmapStart() + bitmapBlocks();
+
+        // blocks 1 up to freeList hold the inodes, 16 per block in iNumber order, then the bitmap
+        int[] metadataBlocks = new int[this.freeList - 1];
+        for(int i = 0; i < metadataBlocks.length; i++)
         {
-            Inode newInode = new Inode();
-            newInode.usedFlag = 0;
-            newInode.toDisk(i);
+            metadataBlocks[i] = i + 1;
         }
-        this.freeList = 2 + this.totalInodes * 32 / 512;
-        for(int i = this.freeList; i < this.totalBlocks; i++)
+        byte[] metadata = new byte[metadataBlocks.length * Disk.blockSize];
+        Inode newInode = new Inode();
+        newInode.usedFlag = 0;
+        for(int i = 0; i < this.totalInodes; i++)
         {
-            byte[] theBlock = new byte[512];
-            for(int j = 0; j < 512; j++)
-            {
-                theBlock[j] = 0;
-            }
-            SysLib.int2bytes(i + 1, theBlock, 0);
-            SysLib.rawwrite(i, theBlock);
+            newInode.store(metadata, i * 32);
         }
+        // an all zero bitmap marks every data block free, BlockBitmap.load() re-reserves the metadata blocks
+        SysLib.cwritev(metadataBlocks, metadata);
         this.sync();
     }
 
+    /**
+     * bitmapStart()
+     * Returns the first block of the free-block bitmap, the block right after the last inode block.
+     * @return int block number
+     */
+    int bitmapStart()
+    {
+        return 1 + (this.totalInodes * 32 + Disk.blockSize - 1) / Disk.blockSize;
+    }
+
+    /**
+     * bitmapBlocks()
+     * Returns the number of blocks needed to hold one bit for every disk block.
+     * @return int number of bitmap blocks
+     */
+    int bitmapBlocks()
+    {
+        return (this.totalBlocks + Disk.blockSize * 8 - 1) / (Disk.blockSize * 8);
+    }
+
     /**
      * sync()
-     * Syncs the cache back to the physical disk.
+     * Writes the superblock into the cache as part of the running journal transaction.
      */
     void sync()
     {
@@ -75,6 +161,10 @@ class SuperBlock
         SysLib.int2bytes(this.totalBlocks, data, 0);
         SysLib.int2bytes(this.totalInodes, data, 4);
         SysLib.int2bytes(this.freeList, data, 8);
-        SysLib.rawwrite(0, data);
+        SysLib.int2bytes(this.inodeFormat, data, 12);
+        SysLib.int2bytes(MAGIC, data, 16);
+        SysLib.int2bytes(LAYOUT_VERSION, data, 20);
+        SysLib.int2bytes(this.journalStart, data, 24);
+        Kernel.journal.write(0, data);
     }
 }
\ No newline at end of file
@@ -61,6 +61,26 @@ public class SysLib {
                 Kernel.SYNC, 0, null );
     }
 
+    public static int rawreadv( int[] blkNumbers, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.RAWREADV, blkNumbers.length, new Object[]{ blkNumbers, b } );
+    }
+
+    public static int rawreadv( int[] blkNumbers, int count, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.RAWREADV, count, new Object[]{ blkNumbers, b } );
+    }
+
+    public static int rawwritev( int[] blkNumbers, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.RAWWRITEV, blkNumbers.length, new Object[]{ blkNumbers, b } );
+    }
+
+    public static int rawwritev( int[] blkNumbers, int count, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.RAWWRITEV, count, new Object[]{ blkNumbers, b } );
+    }
+
     public static int cread( int blkNumber, byte[] b ) {
         return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
                 Kernel.CREAD, blkNumber, b );
@@ -71,6 +91,46 @@ public class SysLib {
                 Kernel.CWRITE, blkNumber, b );
     }
 
+    public static int creadv( int[] blkNumbers, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CREADV, blkNumbers.length, new Object[]{ blkNumbers, b } );
+    }
+
+    public static int creadv( int[] blkNumbers, int count, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CREADV, count, new Object[]{ blkNumbers, b } );
+    }
+
+    public static int cwritev( int[] blkNumbers, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CWRITEV, blkNumbers.length, new Object[]{ blkNumbers, b } );
+    }
+
+    public static int cwritev( int[] blkNumbers, int count, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CWRITEV, count, new Object[]{ blkNumbers, b } );
+    }
+
+    public static int jsync( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.JSYNC, 0, null );
+    }
+
+    public static int dsync( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.DSYNC, 0, null );
+    }
+
+    public static int cprefetch( int[] blkNumbers ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CPREFETCH, blkNumbers.length, blkNumbers );
+    }
+
+    public static int cprefetch( int[] blkNumbers, int count ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                Kernel.CPREFETCH, count, blkNumbers );
+    }
+
     public static int flush( ) {
         return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
                 Kernel.CFLUSH, 0, null );
@@ -105,6 +165,66 @@ public class SysLib {
         return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.SEEK, fd, buff);
     }
 
+    public static int fallocate(int fd, int bytes)
+    {
+        int [] buff = new int[]{bytes};
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.FALLOCATE, fd, buff);
+    }
+
+    public static int fsync(int fd){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.FSYNC, fd, null);
+    }
+
+    public static int mkdir(String path){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.MKDIR, 0, path);
+    }
+
+    public static int rmdir(String path){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.RMDIR, 0, path);
+    }
+
+    public static int readdir(String path, Vector<String> names){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.READDIR, 0, new Object[]{ path, names });
+    }
+
+    public static int readAsync(int fd, byte buffer[]){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.AREAD, fd, buffer);
+    }
+
+    public static int writeAsync(int fd, byte buffer[]){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.AWRITE, fd, buffer);
+    }
+
+    public static int aioPoll(int handle){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.APOLL, handle, null);
+    }
+
+    public static int aioWait(int handle){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.AWAIT, handle, null);
+    }
+
+    public static int aioWaitAny(int handles[]){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.AWAITANY, 0, handles);
+    }
+
+    public static int detach(int disk){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.DETACH, disk, null);
+    }
+
+    public static int attach(int disk){
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.ATTACH, disk, null);
+    }
+
+    public static String stats(){
+        return stats(false);
+    }
+
+    public static String stats(boolean reset){
+        StringBuffer report = new StringBuffer();
+        Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.STATS, reset ? 1 : 0, report);
+        return report.toString();
+    }
+
     public static int delete(String fileName){
         return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.DELETE, 0, fileName);
     }
@@ -113,6 +233,10 @@ public class SysLib {
         return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.FORMAT, files, null);
     }
 
+    public static int format(int files, int version) {
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.FORMAT, files, Integer.valueOf(version));
+    }
+
     public static int fsize(int fd){
         return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, Kernel.SIZE, fd, null);
     }
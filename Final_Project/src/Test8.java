@@ -0,0 +1,200 @@
+import java.util.Vector;
+
+/**
+ * Test8: the file system keeps its files over a reboot and a crash.  Each step runs in its own boot on the same
+ * disk file:
+ *      l Test8 write       format, create files in a directory and at the root, sync
+ *      (reboot)
+ *      l Test8 verify      the files read back as written
+ *      l Test8 crash       change the files, commit the journal with jsync and stop the JVM at once, before a
+ *                          checkpoint writes the metadata to its home blocks
+ *      (reboot)
+ *      l Test8 recover     the changes were replayed from the journal
+ */
+class Test8 extends Thread {
+  final String step;
+  final byte[] small = new byte[100];
+  final byte[] large = new byte[512 * 40];
+  final byte[] flat = new byte[512 * 3];
+  final byte[] extra = new byte[50];
+  final byte[] fresh = new byte[512 * 20];
+  int fd;
+  int size;
+
+  public Test8( String args[] ) {
+    step = args[0];
+    fill( );
+  }
+
+  public Test8( ) {
+    step = "write";
+    fill( );
+  }
+
+  private void fill( ) {
+    for ( int i = 0; i < small.length; i++ )
+      small[i] = ( byte )i;
+    for ( int i = 0; i < large.length; i++ )
+      large[i] = ( byte )( i / 512 + i );
+    for ( int i = 0; i < flat.length; i++ )
+      flat[i] = ( byte )( 3 * i );
+    for ( int i = 0; i < extra.length; i++ )
+      extra[i] = ( byte )( 100 + i );
+    for ( int i = 0; i < fresh.length; i++ )
+      fresh[i] = ( byte )( i / 512 * 7 + 1 );
+  }
+
+  public void run( ) {
+    if ( step.equals( "write" ) ) {
+      if ( write( ) )
+        SysLib.cout("Correct behavior of writing before a reboot.......1\n");
+    }
+    else if ( step.equals( "verify" ) ) {
+      if ( verify( ) )
+        SysLib.cout("Correct behavior of reading after a reboot........1\n");
+    }
+    else if ( step.equals( "crash" ) ) {
+      if ( crash( ) ) {
+        SysLib.cout("Correct behavior of committing before a crash.....1\n");
+        SysLib.cout( "Test8: stopping the JVM without a sync\n" );
+        Runtime.getRuntime( ).halt( 0 );
+      }
+    }
+    else if ( step.equals( "recover" ) ) {
+      if ( recover( ) )
+        SysLib.cout("Correct behavior of replaying after a crash.......1\n");
+    }
+    else
+      SysLib.cout( "usage: l Test8 write|verify|crash|recover\n" );
+
+    SysLib.cout( "Test completed\n" );
+    SysLib.exit( );
+  }
+
+  private boolean write( ) {
+    //.............................................."
+    SysLib.cout( "1: create files and sync........." );
+    SysLib.format( 48 );
+    if ( SysLib.mkdir( "/t8" ) != 0 ) {
+      SysLib.cout( "mkdir( \"/t8\" ) failed (wrong)\n" );
+      return false;
+    }
+    if ( !create( "/t8/small", small ) || !create( "/t8/large", large ) || !create( "flat", flat ) )
+      return false;
+    SysLib.sync( );
+    SysLib.cout( "successfully completed\n" );
+    return true;
+  }
+
+  private boolean verify( ) {
+    //.............................................."
+    SysLib.cout( "2: read the files back..........." );
+    if ( !compare( "/t8/small", small, null ) || !compare( "/t8/large", large, null )
+         || !compare( "flat", flat, null ) )
+      return false;
+    if ( !list( "/t8", new String[] { "small", "large" } ) )
+      return false;
+    SysLib.cout( "successfully completed\n" );
+    return true;
+  }
+
+  private boolean crash( ) {
+    //.............................................."
+    SysLib.cout( "3: change the files and jsync...." );
+    fd = SysLib.open( "/t8/small", "a" );
+    size = SysLib.write( fd, extra );
+    SysLib.close( fd );
+    if ( size != extra.length ) {
+      SysLib.cout( "append size = " + size + " (wrong)\n" );
+      return false;
+    }
+    if ( !create( "/t8/fresh", fresh ) )
+      return false;
+    if ( SysLib.delete( "flat" ) != 0 ) {
+      SysLib.cout( "delete( \"flat\" ) failed (wrong)\n" );
+      return false;
+    }
+    if ( SysLib.mkdir( "/t8/sub" ) != 0 ) {
+      SysLib.cout( "mkdir( \"/t8/sub\" ) failed (wrong)\n" );
+      return false;
+    }
+    if ( SysLib.jsync( ) != 0 ) {
+      SysLib.cout( "jsync failed (wrong)\n" );
+      return false;
+    }
+    SysLib.cout( "successfully completed\n" );
+    return true;
+  }
+
+  private boolean recover( ) {
+    //.............................................."
+    SysLib.cout( "4: read the replayed files......." );
+    if ( !compare( "/t8/small", small, extra ) || !compare( "/t8/large", large, null )
+         || !compare( "/t8/fresh", fresh, null ) )
+      return false;
+    fd = SysLib.open( "flat", "r" );
+    if ( fd != -1 ) {
+      SysLib.close( fd );
+      SysLib.cout( "\"flat\" still exists after its delete (wrong)\n" );
+      return false;
+    }
+    if ( !list( "/t8", new String[] { "small", "large", "fresh", "sub/" } ) )
+      return false;
+    SysLib.cout( "successfully completed\n" );
+    return true;
+  }
+
+  private boolean create( String name, byte[] data ) {
+    fd = SysLib.open( name, "w" );
+    if ( fd == -1 ) {
+      SysLib.cout( "open( \"" + name + "\" ) failed (wrong)\n" );
+      return false;
+    }
+    size = SysLib.write( fd, data );
+    SysLib.close( fd );
+    if ( size != data.length ) {
+      SysLib.cout( name + " size = " + size + " (wrong)\n" );
+      return false;
+    }
+    return true;
+  }
+
+  // the file holds head, followed by tail unless tail is null, and nothing else
+  private boolean compare( String name, byte[] head, byte[] tail ) {
+    int expected = head.length + ( tail == null ? 0 : tail.length );
+    fd = SysLib.open( name, "r" );
+    if ( fd == -1 ) {
+      SysLib.cout( "open( \"" + name + "\" ) failed (wrong)\n" );
+      return false;
+    }
+    byte[] tmpBuf = new byte[expected + 1];
+    size = SysLib.read( fd, tmpBuf );
+    SysLib.close( fd );
+    if ( size != expected ) {
+      SysLib.cout( name + " size = " + size + " (wrong)\n" );
+      return false;
+    }
+    for ( int i = 0; i < expected; i++ ) {
+      byte wanted = ( i < head.length ) ? head[i] : tail[i - head.length];
+      if ( tmpBuf[i] != wanted ) {
+        SysLib.cout( name + " buf[" + i + "] = " + tmpBuf[i] + " (wrong)\n" );
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean list( String path, String[] names ) {
+    Vector<String> listed = new Vector<String>( );
+    if ( SysLib.readdir( path, listed ) != names.length ) {
+      SysLib.cout( "readdir( \"" + path + "\" ) = " + listed + " (wrong)\n" );
+      return false;
+    }
+    for ( int i = 0; i < names.length; i++ )
+      if ( !listed.contains( names[i] ) ) {
+        SysLib.cout( "readdir( \"" + path + "\" ) = " + listed + " (wrong)\n" );
+        return false;
+      }
+    return true;
+  }
+}
@@ -0,0 +1,288 @@
+import java.util.Vector;
+
+/**
+ * Test9: the file system features beyond Test5, on a freshly formatted disk.
+ *      l Test9             nested directories, the three inode formats, fallocate and asynchronous I/O
+ *      l Test9 mirror      a detached mirror member is resynced when it is attached again; boot with
+ *                          -DthreadOS.mirror=2
+ */
+class Test9 extends Thread {
+  final String step;
+  final byte[] data = new byte[512 * 250];
+  int fd;
+  int size;
+
+  public Test9( String args[] ) {
+    step = args[0];
+    fill( );
+  }
+
+  public Test9( ) {
+    step = "all";
+    fill( );
+  }
+
+  private void fill( ) {
+    for ( int i = 0; i < data.length; i++ )
+      data[i] = ( byte )( i / 512 * 13 + i );
+  }
+
+  public void run( ) {
+    if ( step.equals( "mirror" ) ) {
+      if ( test5( ) ) // detach, write, attach, read from the resynced member
+        SysLib.cout("Correct behavior of resyncing a mirror..........1\n");
+    }
+    else {
+      if ( test1( ) ) // mkdir, readdir, rmdir over three levels
+        SysLib.cout("Correct behavior of nested directories..........1\n");
+      if ( test2( ) ) // a large file in every inode format
+        SysLib.cout("Correct behavior of the inode formats...........1\n");
+      if ( test3( ) ) // fallocate, then write into the reserved blocks
+        SysLib.cout("Correct behavior of fallocate...................1\n");
+      if ( test4( ) ) // writeAsync/readAsync on several files at once
+        SysLib.cout("Correct behavior of asynchronous I/O............1\n");
+    }
+    SysLib.cout( "Test completed\n" );
+    SysLib.exit( );
+  }
+
+  private boolean test1( ) {
+    //.............................................."
+    SysLib.cout( "1: nested mkdir/readdir/rmdir...." );
+    SysLib.format( 48 );
+    if ( SysLib.mkdir( "/a" ) != 0 || SysLib.mkdir( "/a/b" ) != 0 || SysLib.mkdir( "/a/b/c" ) != 0 ) {
+      SysLib.cout( "mkdir of /a/b/c failed (wrong)\n" );
+      return false;
+    }
+    if ( SysLib.mkdir( "/a/b" ) != -1 || SysLib.mkdir( "/x/y" ) != -1 ) {
+      SysLib.cout( "mkdir of an existing name or in a missing parent succeeded (wrong)\n" );
+      return false;
+    }
+    if ( !create( "/a/b/c/deep", data, 1000 ) || !create( "/a/b/file", data, 600 ) )
+      return false;
+    if ( !list( "/a", new String[] { "b/" } ) || !list( "/a/b", new String[] { "c/", "file" } )
+         || !list( "/a/b/c", new String[] { "deep" } ) )
+      return false;
+    if ( !compare( "/a/b/c/deep", data, 1000 ) || !compare( "a//b/c/deep", data, 1000 ) )
+      return false;
+    if ( SysLib.rmdir( "/a/b/c" ) != -1 || SysLib.rmdir( "/" ) != -1 || SysLib.rmdir( "/a/b/file" ) != -1 ) {
+      SysLib.cout( "rmdir of a non-empty directory, the root or a file succeeded (wrong)\n" );
+      return false;
+    }
+    if ( SysLib.delete( "/a/b/c/deep" ) != 0 || SysLib.rmdir( "/a/b/c" ) != 0
+         || SysLib.delete( "/a/b/file" ) != 0 || SysLib.rmdir( "/a/b" ) != 0 || SysLib.rmdir( "/a" ) != 0 ) {
+      SysLib.cout( "delete and rmdir of the tree failed (wrong)\n" );
+      return false;
+    }
+    if ( !list( "/", new String[] { } ) )
+      return false;
+    if ( SysLib.readdir( "/a", new Vector<String>( ) ) != -1 ) {
+      SysLib.cout( "readdir of a removed directory succeeded (wrong)\n" );
+      return false;
+    }
+    SysLib.cout( "successfully completed\n" );
+    return true;
+  }
+
+  private boolean test2( ) {
+    //.............................................."
+    SysLib.cout( "2: format versions 1, 2 and 3...." );
+    for ( int version = 1; version <= 3; version++ ) {
+      if ( SysLib.format( 48, version ) != 0 ) {
+        SysLib.cout( "format( 48, " + version + " ) failed (wrong)\n" );
+        return false;
+      }
+      if ( !create( "big", data, data.length ) || !compare( "big", data, data.length ) )
+        return false;
+      // overwrite the middle of the file in place and read the whole of it again
+      fd = SysLib.open( "big", "w+" );
+      SysLib.seek( fd, 512 * 100 + 7, 0 );
+      byte[] patch = new byte[512 * 3];
+      SysLib.write( fd, patch );
+      SysLib.close( fd );
+      fd = SysLib.open( "big", "r" );
+      byte[] tmpBuf = new byte[data.length];
+      size = SysLib.read( fd, tmpBuf );
+      SysLib.close( fd );
+      for ( int i = 0; i < data.length; i++ ) {
+        boolean patched = i >= 512 * 100 + 7 && i < 512 * 103 + 7;
+        if ( size != data.length || tmpBuf[i] != ( patched ? 0 : data[i] ) ) {
+          SysLib.cout( "version " + version + " buf[" + i + "] = " + tmpBuf[i] + " (wrong)\n" );
+          return false;
+        }
+      }
+      if ( SysLib.delete( "big" ) != 0 ) {
+        SysLib.cout( "version " + version + " delete failed (wrong)\n" );
+        return false;
+      }
+    }
+    SysLib.format( 48 );
+    SysLib.cout( "successfully completed\n" );
+    return true;
+  }
+
+  private boolean test3( ) {
+    //.............................................."
+    SysLib.cout( "3: fallocate and write..........." );
+    fd = SysLib.open( "reserved", "w+" );
+    if ( SysLib.fallocate( fd, 512 * 50 ) != 0 ) {
+      SysLib.cout( "fallocate failed (wrong)\n" );
+      SysLib.close( fd );
+      return false;
+    }
+    if ( SysLib.fsize( fd ) != 0 ) {
+      SysLib.cout( "size after fallocate = " + SysLib.fsize( fd ) + " (wrong)\n" );
+      SysLib.close( fd );
+      return false;
+    }
+    size = SysLib.write( fd, data );
+    SysLib.close( fd );
+    if ( size != data.length || !compare( "reserved", data, data.length ) )
+      return false;
+    fd = SysLib.open( "reserved", "r" );
+    if ( SysLib.fallocate( fd, 512 ) != -1 ) {
+      SysLib.cout( "fallocate on a read-only file succeeded (wrong)\n" );
+      SysLib.close( fd );
+      return false;
+    }
+    SysLib.close( fd );
+    SysLib.delete( "reserved" );
+    SysLib.cout( "successfully completed\n" );
+    return true;
+  }
+
+  private boolean test4( ) {
+    //.............................................."
+    SysLib.cout( "4: writeAsync/readAsync.........." );
+    int files = 4;
+    int length = 512 * 20;
+    int[] fds = new int[files];
+    int[] handles = new int[files];
+    byte[][] bufs = new byte[files][length];
+    for ( int f = 0; f < files; f++ ) {
+      System.arraycopy( data, f * 512, bufs[f], 0, length );
+      fds[f] = SysLib.open( "async" + f, "w+" );
+      handles[f] = SysLib.writeAsync( fds[f], bufs[f] );
+    }
+    int any = SysLib.aioWaitAny( handles );
+    if ( any < 0 || SysLib.aioPoll( handles[any] ) != length ) {
+      SysLib.cout( "aioWaitAny = " + any + " (wrong)\n" );
+      return false;
+    }
+    for ( int f = 0; f < files; f++ )
+      if ( f != any && SysLib.aioWait( handles[f] ) != length ) {
+        SysLib.cout( "aioWait( " + f + " ) (wrong)\n" );
+        return false;
+      }
+    if ( SysLib.aioPoll( handles[0] ) != -1 ) {
+      SysLib.cout( "a reaped handle polled again (wrong)\n" );
+      return false;
+    }
+    for ( int f = 0; f < files; f++ ) {
+      SysLib.seek( fds[f], 0, 0 );
+      bufs[f] = new byte[length];
+      handles[f] = SysLib.readAsync( fds[f], bufs[f] );
+    }
+    for ( int f = 0; f < files; f++ ) {
+      if ( SysLib.aioWait( handles[f] ) != length ) {
+        SysLib.cout( "readAsync( " + f + " ) (wrong)\n" );
+        return false;
+      }
+      for ( int i = 0; i < length; i++ )
+        if ( bufs[f][i] != data[f * 512 + i] ) {
+          SysLib.cout( "async" + f + " buf[" + i + "] = " + bufs[f][i] + " (wrong)\n" );
+          return false;
+        }
+      SysLib.close( fds[f] );
+      SysLib.delete( "async" + f );
+    }
+    SysLib.cout( "successfully completed\n" );
+    return true;
+  }
+
+  private boolean test5( ) {
+    //.............................................."
+    SysLib.cout( "5: detach, write, attach, resync." );
+    SysLib.format( 48 );
+    if ( SysLib.detach( 1 ) != 0 ) {
+      SysLib.cout( "detach( 1 ) failed, boot with -DthreadOS.mirror=2 (wrong)\n" );
+      return false;
+    }
+    if ( !create( "mirrored", data, data.length ) )
+      return false;
+    SysLib.csync( );
+    if ( SysLib.attach( 1 ) != 0 ) {
+      SysLib.cout( "attach( 1 ) failed (wrong)\n" );
+      return false;
+    }
+    // member 0 can only be detached once member 1 is active again, that is resynced
+    int waited = 0;
+    while ( SysLib.detach( 0 ) != 0 ) {
+      if ( waited++ == 600 ) {
+        SysLib.cout( "member 1 not resynced after a minute (wrong)\n" );
+        return false;
+      }
+      SysLib.sleep( 100 );
+    }
+    SysLib.flush( );           // read from member 1, not the cache
+    boolean same = compare( "mirrored", data, data.length );
+    SysLib.attach( 0 );
+    if ( !same )
+      return false;
+    SysLib.cout( "successfully completed\n" );
+    return true;
+  }
+
+  private boolean create( String name, byte[] from, int length ) {
+    fd = SysLib.open( name, "w" );
+    if ( fd == -1 ) {
+      SysLib.cout( "open( \"" + name + "\" ) failed (wrong)\n" );
+      return false;
+    }
+    byte[] buffer = new byte[length];
+    System.arraycopy( from, 0, buffer, 0, length );
+    size = SysLib.write( fd, buffer );
+    SysLib.close( fd );
+    if ( size != length ) {
+      SysLib.cout( name + " size = " + size + " (wrong)\n" );
+      return false;
+    }
+    return true;
+  }
+
+  // the file holds the first length bytes of from and nothing else
+  private boolean compare( String name, byte[] from, int length ) {
+    fd = SysLib.open( name, "r" );
+    if ( fd == -1 ) {
+      SysLib.cout( "open( \"" + name + "\" ) failed (wrong)\n" );
+      return false;
+    }
+    byte[] tmpBuf = new byte[length + 1];
+    size = SysLib.read( fd, tmpBuf );
+    SysLib.close( fd );
+    if ( size != length ) {
+      SysLib.cout( name + " size = " + size + " (wrong)\n" );
+      return false;
+    }
+    for ( int i = 0; i < length; i++ )
+      if ( tmpBuf[i] != from[i] ) {
+        SysLib.cout( name + " buf[" + i + "] = " + tmpBuf[i] + " (wrong)\n" );
+        return false;
+      }
+    return true;
+  }
+
+  private boolean list( String path, String[] names ) {
+    Vector<String> listed = new Vector<String>( );
+    if ( SysLib.readdir( path, listed ) != names.length ) {
+      SysLib.cout( "readdir( \"" + path + "\" ) = " + listed + " (wrong)\n" );
+      return false;
+    }
+    for ( int i = 0; i < names.length; i++ )
+      if ( !listed.contains( names[i] ) ) {
+        SysLib.cout( "readdir( \"" + path + "\" ) = " + listed + " (wrong)\n" );
+        return false;
+      }
+    return true;
+  }
+}
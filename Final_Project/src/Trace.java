@@ -0,0 +1,198 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * @Project: Final_Project
+ * @file: Trace.java
+ * @author: agent
+ * @last edit: 10/18/2026
+ *
+ * Block I/O trace.  With -DthreadOS.trace=file every request entering the disk queue (rawread, rawwrite, their
+ * vectored forms and the disk syncs) is written to the host file as it arrives, and with -DthreadOS.traceSyscalls=on
+ * every file system syscall as well, so the disk traffic of a workload can be examined and replayed (see Replay).
+ *
+ * The file starts with a header of four ints: magic, version, Disk.blockSize and the blocks of the disk.  Then come
+ * records of 21 bytes, all big-endian:
+ *      long    ns since the trace was opened, when the request arrived or the syscall was made
+ *      int     id of the Java thread making it
+ *      byte    op: READ, WRITE, SYNC or SYSCALL, READ and WRITE with RUN set for the later runs of one request
+ *      int     first block, the syscall number for SYSCALL
+ *      int     blocks, the syscall result for SYSCALL
+ * A request is one record per run of consecutive blocks; the records of one request are written together, so a run
+ * with RUN set belongs to the record before it.
+ *
+ * Records are buffered and reach the file on sync.  With tracing off, enabled is a constant false and the probes
+ * fold away.
+ */
+
+public class Trace
+{
+    public final static boolean enabled = System.getProperty("threadOS.trace") != null;
+    public final static boolean syscalls = enabled && "on".equals(System.getProperty("threadOS.traceSyscalls"));
+
+    public final static int MAGIC = 0x54524345;             // "TRCE"
+    public final static int VERSION = 1;
+    public final static int READ = 0;                       // the DiskQueue commands
+    public final static int WRITE = 1;
+    public final static int SYNC = 2;
+    public final static int SYSCALL = 3;
+    public final static int RUN = 0x40;                     // continues the request of the record before it
+    public final static int recordSize = 21;
+
+    private static DataOutputStream out;                    // null until opened, and after a write error
+    private static long origin;                             // nanoTime when the trace was opened
+    private static long records;
+
+    private Trace( )
+    {
+    }
+
+    /**
+     * open(int diskBlocks)
+     * Creates the trace file named by -DthreadOS.trace and writes its header.
+     * @param diskBlocks blocks of the disk being traced
+     */
+    public static synchronized void open( int diskBlocks )
+    {
+        if (!enabled || out != null)
+            return;
+        String fileName = System.getProperty("threadOS.trace");
+        try
+        {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(Disk.blockSize);
+            out.writeInt(diskBlocks);
+            origin = System.nanoTime();
+            System.out.println("threadOS: tracing to " + fileName);
+        }
+        catch (IOException e)
+        {
+            System.out.println("threadOS: cannot trace to " + fileName + ": " + e);
+            out = null;
+        }
+    }
+
+    /**
+     * request(int command, int blocks[], int count)
+     * Records a disk request arriving at the disk queue.
+     * @param command READ, WRITE or SYNC
+     * @param blocks
+     * @param count blocks of the request, the first ones of blocks, ignored for SYNC
+     */
+    public static synchronized void request( int command, int blocks[], int count )
+    {
+        if (out == null)
+            return;
+        long time = System.nanoTime() - origin;
+        int thread = (int) Thread.currentThread().getId();
+        if (command == SYNC)
+        {
+            record(time, thread, SYNC, 0, 0);
+            return;
+        }
+        int first = 0;
+        for (int i = 1; i <= count; i++)
+        {
+            if (i == count || blocks[i] != blocks[i - 1] + 1)
+            {
+                record(time, thread, (first == 0) ? command : command | RUN, blocks[first], i - first);
+                first = i;
+            }
+        }
+    }
+
+    /**
+     * syscall(long start, int cmd, int param, int result)
+     * Records a syscall made at start if it is served by the file system.
+     * @param start nanoTime when it was made
+     * @param cmd
+     * @param param
+     * @param result
+     */
+    public static void syscall( long start, int cmd, int param, int result )
+    {
+        if ((cmd == Kernel.READ || cmd == Kernel.WRITE) && param <= Kernel.STDERR)
+            return;                                 // the console
+        switch (cmd)
+        {
+            case Kernel.READ:
+            case Kernel.WRITE:
+            case Kernel.OPEN:
+            case Kernel.CLOSE:
+            case Kernel.SIZE:
+            case Kernel.SEEK:
+            case Kernel.FORMAT:
+            case Kernel.DELETE:
+            case Kernel.FALLOCATE:
+            case Kernel.FSYNC:
+            case Kernel.MKDIR:
+            case Kernel.RMDIR:
+            case Kernel.READDIR:
+            case Kernel.AREAD:
+            case Kernel.AWRITE:
+                break;
+            default:
+                return;
+        }
+        synchronized (Trace.class)
+        {
+            if (out != null)
+                record(start - origin, (int) Thread.currentThread().getId(), SYSCALL, cmd, result);
+        }
+    }
+
+    /**
+     * flush()
+     * Writes the buffered records to the trace file.
+     */
+    public static synchronized void flush( )
+    {
+        if (out == null)
+            return;
+        try
+        {
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            failed(e);
+        }
+    }
+
+    private static void record( long time, int thread, int op, int block, int length )
+    {
+        try
+        {
+            out.writeLong(time);
+            out.writeInt(thread);
+            out.writeByte(op);
+            out.writeInt(block);
+            out.writeInt(length);
+            records++;
+        }
+        catch (IOException e)
+        {
+            failed(e);
+        }
+    }
+
+    private static void failed( IOException e )
+    {
+        System.out.println("threadOS: trace stopped: " + e);
+        out = null;
+    }
+
+    /**
+     * report()
+     * @return String the number of records written and whether tracing is still on
+     */
+    public static synchronized String report( )
+    {
+        return "trace " + System.getProperty("threadOS.trace") + " records=" + records
+                + (out == null ? " stopped" : "");
+    }
+}